@@ -0,0 +1,122 @@
+package com.easywebmap.map;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The shared pixel kernels on 512px tiles, each next to the scalar loop it replaced.
+ * Forks with the incubator module so {@link PixelKernels} takes the vector path;
+ * run with {@code -jvmArgsAppend -Deasywebmap.vector=false} to time the scalar fallback.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class PixelKernelsBenchmark {
+    private static final int SIZE = 512;
+
+    // A 256px RGBA base tile scaled up to 512
+    private int[] rgba;
+    // A 1024px composite region box-filtered down to 512
+    private int[] rgb;
+    private int[] dest;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        this.rgba = new int[256 * 256];
+        for (int i = 0; i < this.rgba.length; i++) {
+            this.rgba[i] = random.nextInt();
+        }
+        this.rgb = new int[SIZE * 2 * SIZE * 2];
+        for (int i = 0; i < this.rgb.length; i++) {
+            this.rgb[i] = random.nextInt(1 << 24);
+        }
+        this.dest = new int[SIZE * SIZE];
+    }
+
+    @Benchmark
+    public int[] scaleToRgb() {
+        PixelKernels.scaleToRgb(this.rgba, 256, 256, this.dest, SIZE);
+        return this.dest;
+    }
+
+    @Benchmark
+    public int[] scaleToRgbFloatLoop() {
+        // The per-pixel float scaling and channel shifts from before the kernels
+        float scale = 256f / SIZE;
+        for (int y = 0; y < SIZE; y++) {
+            int srcY = Math.min((int) (y * scale), 255);
+            for (int x = 0; x < SIZE; x++) {
+                int srcX = Math.min((int) (x * scale), 255);
+                int pixel = this.rgba[srcY * 256 + srcX];
+                int r = (pixel >> 24) & 0xFF;
+                int g = (pixel >> 16) & 0xFF;
+                int b = (pixel >> 8) & 0xFF;
+                this.dest[y * SIZE + x] = (r << 16) | (g << 8) | b;
+            }
+        }
+        return this.dest;
+    }
+
+    @Benchmark
+    public int[] rgbaToRgb() {
+        PixelKernels.rgbaToRgb(this.rgba, 0, this.dest, 0, this.rgba.length);
+        return this.dest;
+    }
+
+    @Benchmark
+    public int[] rgbaToRgbScalar() {
+        for (int i = 0; i < this.rgba.length; i++) {
+            this.dest[i] = this.rgba[i] >>> 8;
+        }
+        return this.dest;
+    }
+
+    @Benchmark
+    public int[] downsample2x() {
+        PixelKernels.downsample2x(this.rgb, SIZE * 2, 0, 0, this.dest, SIZE, 0, 0, SIZE, SIZE);
+        return this.dest;
+    }
+
+    @Benchmark
+    public int[] downsample2xScalar() {
+        int srcSize = SIZE * 2;
+        for (int y = 0; y < SIZE; y++) {
+            int top = y * 2 * srcSize;
+            int bottom = top + srcSize;
+            for (int x = 0; x < SIZE; x++) {
+                this.dest[y * SIZE + x] = PixelKernels.average4(this.rgb[top + x * 2], this.rgb[top + x * 2 + 1],
+                    this.rgb[bottom + x * 2], this.rgb[bottom + x * 2 + 1]);
+            }
+        }
+        return this.dest;
+    }
+
+    @Benchmark
+    public int[] compositeNearestNeighbour() {
+        // What composites did before the box filter: keep every other pixel
+        int srcSize = SIZE * 2;
+        float scale = (float) srcSize / SIZE;
+        for (int y = 0; y < SIZE; y++) {
+            int srcY = Math.min((int) (y * scale), srcSize - 1);
+            for (int x = 0; x < SIZE; x++) {
+                int srcX = Math.min((int) (x * scale), srcSize - 1);
+                this.dest[y * SIZE + x] = this.rgb[srcY * srcSize + srcX];
+            }
+        }
+        return this.dest;
+    }
+}
@@ -0,0 +1,85 @@
+package com.easywebmap.map;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link PngWriter} against the ImageIO path it replaced, on tile-like pixels.
+ * "terrain" tiles have a few hundred colors in patches, as rendered chunks do;
+ * "flat" tiles have a handful and take the indexed path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PngEncodeBenchmark {
+    @Param({"256", "512"})
+    private int size;
+
+    @Param({"terrain", "flat"})
+    private String content;
+
+    private int[] pixels;
+
+    @Setup
+    public void setUp() {
+        this.pixels = tilePixels(this.size, "flat".equals(this.content) ? 6 : 600, 42);
+    }
+
+    @Benchmark
+    public byte[] pngWriter() {
+        return PngEncoder.encodeFast(this.pixels, this.size);
+    }
+
+    @Benchmark
+    public byte[] imageIo() throws IOException {
+        BufferedImage image = new BufferedImage(this.size, this.size, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, this.size, this.size, this.pixels, 0, this.size);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Square RGB pixels in 8x8 patches of one color with light per-pixel shading,
+     * roughly what a rendered chunk looks like.
+     */
+    static int[] tilePixels(int size, int colors, long seed) {
+        Random random = new Random(seed);
+        int[] palette = new int[colors];
+        for (int i = 0; i < colors; i++) {
+            palette[i] = random.nextInt(1 << 24);
+        }
+        int[] pixels = new int[size * size];
+        for (int by = 0; by < size; by += 8) {
+            for (int bx = 0; bx < size; bx += 8) {
+                int color = palette[random.nextInt(colors)];
+                for (int y = by; y < by + 8 && y < size; y++) {
+                    for (int x = bx; x < bx + 8 && x < size; x++) {
+                        // Shading adds colors, so flat tiles are left unshaded
+                        boolean shaded = colors > 16 && random.nextInt(4) == 0;
+                        pixels[y * size + x] = shaded ? (color & 0xFEFEFE) >>> 1 : color;
+                    }
+                }
+            }
+        }
+        return pixels;
+    }
+}
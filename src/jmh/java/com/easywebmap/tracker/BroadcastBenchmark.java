@@ -0,0 +1,155 @@
+package com.easywebmap.tracker;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocket13FrameEncoder;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.util.ReferenceCountUtil;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fan-out latency of one shared WebSocket frame to many viewers: from the tracker
+ * thread starting the broadcast until every fake client has received the frame.
+ * Clients connect over Netty's in-JVM local transport, so thousands of them fit in
+ * one process without sockets; server channels get the same flush consolidation
+ * and frame encoder as real viewers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BroadcastBenchmark {
+    private static final int EVENT_LOOPS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final byte[] PAYLOAD = new byte[200];
+
+    @Param({"1000", "5000", "10000"})
+    private int connections;
+
+    private EventLoopGroup serverGroup;
+    private EventLoopGroup clientGroup;
+    private Channel server;
+    private final List<Channel> viewers = new ArrayList<>();
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private long frameBytes;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        Arrays.fill(PAYLOAD, (byte) 'x');
+        this.serverGroup = new DefaultEventLoopGroup(EVENT_LOOPS);
+        this.clientGroup = new DefaultEventLoopGroup(EVENT_LOOPS);
+        LocalAddress address = new LocalAddress("broadcast-benchmark");
+        ConcurrentHashMap.KeySetView<Channel, Boolean> accepted = ConcurrentHashMap.newKeySet();
+
+        this.server = new ServerBootstrap()
+            .group(this.serverGroup)
+            .channel(LocalServerChannel.class)
+            .childHandler(new ChannelInitializer<LocalChannel>() {
+                @Override
+                protected void initChannel(LocalChannel channel) {
+                    channel.pipeline().addLast(new FlushConsolidationHandler(
+                        FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true));
+                    channel.pipeline().addLast(new WebSocket13FrameEncoder(false));
+                    accepted.add(channel);
+                }
+            })
+            .bind(address).sync().channel();
+
+        Bootstrap client = new Bootstrap()
+            .group(this.clientGroup)
+            .channel(LocalChannel.class)
+            .handler(new ChannelInboundHandlerAdapter() {
+                @Override
+                public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                    BroadcastBenchmark.this.receivedBytes.addAndGet(((ByteBuf) msg).readableBytes());
+                    ReferenceCountUtil.release(msg);
+                }
+
+                @Override
+                public boolean isSharable() {
+                    return true;
+                }
+            });
+        for (int i = 0; i < this.connections; i++) {
+            client.connect(address).sync();
+        }
+        while (accepted.size() < this.connections) {
+            Thread.sleep(1);
+        }
+        this.viewers.addAll(accepted);
+
+        // A 200-byte text frame is 2 bytes of header plus 2 of extended length
+        this.frameBytes = PAYLOAD.length + 4;
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (Channel viewer : this.viewers) {
+            viewer.close().syncUninterruptibly();
+        }
+        this.server.close().syncUninterruptibly();
+        this.clientGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+        this.serverGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    /**
+     * One task per event loop writing to all of its channels, as the tracker does.
+     */
+    @Benchmark
+    public void perEventLoop() {
+        long target = this.receivedBytes.get() + this.frameBytes * this.connections;
+        ChannelFanOut.writeToAll(this.viewers, new TextWebSocketFrame(Unpooled.wrappedBuffer(PAYLOAD)));
+        this.awaitDelivery(target);
+    }
+
+    /**
+     * Every write handed to its channel's event loop separately, as before.
+     */
+    @Benchmark
+    public void perChannel() {
+        long target = this.receivedBytes.get() + this.frameBytes * this.connections;
+        TextWebSocketFrame frame = new TextWebSocketFrame(Unpooled.wrappedBuffer(PAYLOAD));
+        for (Channel channel : this.viewers) {
+            channel.writeAndFlush(frame.retainedDuplicate());
+        }
+        frame.release();
+        this.awaitDelivery(target);
+    }
+
+    private void awaitDelivery(long target) {
+        while (this.receivedBytes.get() < target) {
+            // Yield rather than spin, so event loops get the CPU on small machines
+            Thread.yield();
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.easywebmap.commands.EasyWebMapCommand;
 import com.easywebmap.config.MapConfig;
 import com.easywebmap.map.TileManager;
 import com.easywebmap.ssl.AcmeManager;
+import com.easywebmap.tracker.BlockChangeTracker;
 import com.easywebmap.tracker.PlayerTracker;
 import com.easywebmap.web.WebServer;
 import com.hypixel.hytale.server.core.command.system.AbstractCommand;
@@ -25,8 +26,10 @@ public class EasyWebMap extends JavaPlugin {
     public void setup() {
         this.config = new MapConfig(this.getDataDirectory());
         this.tileManager = new TileManager(this);
+        BlockChangeTracker.register(this, this.tileManager.getDirtyChunkTracker());
         this.webServer = new WebServer(this);
         this.playerTracker = new PlayerTracker(this);
+        this.tileManager.setTileChangeListener(this.playerTracker);
 
         if (this.config.isHttpsEnabled()) {
             this.acmeManager = new AcmeManager(this);
@@ -39,6 +42,7 @@ public class EasyWebMap extends JavaPlugin {
     public void start() {
         this.webServer.start();
         this.playerTracker.start();
+        this.tileManager.start();
         System.out.println("[EasyWebMap] HTTP server started on port " + this.config.getHttpPort());
 
         if (this.config.isHttpsEnabled() && this.acmeManager != null) {
@@ -1,6 +1,13 @@
 package com.easywebmap.commands;
 
 import com.easywebmap.EasyWebMap;
+import com.easywebmap.map.CompositeTileGenerator;
+import com.easywebmap.map.DirtyChunkTracker;
+import com.easywebmap.map.GenerationScheduler;
+import com.easywebmap.map.PixelCache;
+import com.easywebmap.map.TileCache;
+import com.easywebmap.map.TileRefreshWorker;
+import com.easywebmap.tracker.PlayerTracker;
 import com.hypixel.hytale.component.Ref;
 import com.hypixel.hytale.component.Store;
 import com.hypixel.hytale.server.core.Message;
@@ -16,6 +23,7 @@ import com.hypixel.hytale.math.vector.Vector3d;
 import java.awt.Color;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Map;
 
 public class EasyWebMapCommand extends AbstractPlayerCommand {
     private static final Color GREEN = new Color(85, 255, 85);
@@ -52,16 +60,50 @@ public class EasyWebMapCommand extends AbstractPlayerCommand {
     private void showStatus(PlayerRef player) {
         int connections = this.plugin.getPlayerTracker().getConnectionCount();
         int httpPort = this.plugin.getConfig().getHttpPort();
-        int memoryCacheSize = this.plugin.getTileManager().getMemoryCacheSize();
+        TileCache memoryCache = this.plugin.getTileManager().getMemoryCache();
+        PixelCache pixelCache = this.plugin.getTileManager().getPixelCache();
         boolean diskCacheEnabled = this.plugin.getConfig().isUseDiskCache();
         boolean httpsEnabled = this.plugin.getConfig().isHttpsEnabled();
 
         player.sendMessage(Message.raw("=== EasyWebMap Status ===").color(YELLOW));
         player.sendMessage(Message.raw("HTTP server: Running on port " + httpPort).color(GREEN));
         player.sendMessage(Message.raw("WebSocket connections: " + connections).color(GREEN));
-        player.sendMessage(Message.raw("Memory cache: " + memoryCacheSize + " tiles").color(GREEN));
+        PlayerTracker tracker = this.plugin.getPlayerTracker();
+        Map<String, Long> clientLag = tracker.getClientLag();
+        player.sendMessage(Message.raw(String.format("Lagging viewers: %d (%d updates skipped, %d disconnected)",
+            clientLag.size(), tracker.getSkippedUpdates(), tracker.getSlowDisconnects())).color(clientLag.isEmpty() ? GREEN : YELLOW));
+        for (Map.Entry<String, Long> entry : clientLag.entrySet()) {
+            player.sendMessage(Message.raw("  " + entry.getKey() + ": " + entry.getValue() + " ms behind").color(YELLOW));
+        }
+        player.sendMessage(Message.raw(String.format("Memory cache: %d tiles, %d/%d MB",
+            memoryCache.size(), memoryCache.getWeightedBytes() >> 20, memoryCache.getMaxBytes() >> 20)).color(GREEN));
+        player.sendMessage(Message.raw(String.format("Cache hit rate: %.1f%% (%d hits, %d misses, %d evictions)",
+            memoryCache.getHitRate() * 100, memoryCache.getHits(), memoryCache.getMisses(),
+            memoryCache.getEvictions())).color(AQUA));
+        player.sendMessage(Message.raw(String.format("Pixel cache: %d tiles, %d/%d MB, %.1f%% hit rate",
+            pixelCache.size(), pixelCache.getWeightedBytes() >> 20, pixelCache.getMaxBytes() >> 20,
+            pixelCache.getHitRate() * 100)).color(AQUA));
+        GenerationScheduler scheduler = this.plugin.getTileManager().getGenerationScheduler();
+        player.sendMessage(Message.raw(String.format("Tile generation: %d/%d running, %d queued, wait avg %.0f ms, max %.0f ms",
+            scheduler.getRunning(), scheduler.getMaxConcurrent(), scheduler.getQueueDepth(),
+            scheduler.getAverageWaitMs(), scheduler.getMaxWaitMs())).color(AQUA));
+        DirtyChunkTracker dirtyChunks = this.plugin.getTileManager().getDirtyChunkTracker();
+        TileRefreshWorker refreshWorker = this.plugin.getTileManager().getRefreshWorker();
+        player.sendMessage(Message.raw(String.format("Dirty chunks: %d (%d changes seen, %d from fallback sweeps, %d refreshed in background)",
+            dirtyChunks.size(), dirtyChunks.getChanges(), refreshWorker.getFallbackMarked(),
+            refreshWorker.getRefreshed())).color(AQUA));
+        player.sendMessage(Message.raw("Deduplicated tile requests: "
+            + this.plugin.getTileManager().getDeduplicatedRequests()).color(AQUA));
         player.sendMessage(Message.raw("Disk cache: " + (diskCacheEnabled ? "Enabled" : "Disabled")).color(GREEN));
 
+        Map<Integer, CompositeTileGenerator.QuantizationStats> quantization =
+            this.plugin.getTileManager().getCompositeTileGenerator().getQuantizationStats();
+        for (Map.Entry<Integer, CompositeTileGenerator.QuantizationStats> entry : quantization.entrySet()) {
+            CompositeTileGenerator.QuantizationStats stats = entry.getValue();
+            player.sendMessage(Message.raw(String.format("Quantized zoom %d: %d tiles, %.1f%% smaller",
+                entry.getKey(), stats.getTiles(), stats.getSavingsPercent())).color(AQUA));
+        }
+
         if (httpsEnabled) {
             int httpsPort = this.plugin.getConfig().getHttpsPort();
             boolean httpsRunning = this.plugin.getWebServer().isHttpsRunning();
@@ -49,12 +49,44 @@ public class MapConfig {
                         this.data.chunkIndexCacheMs = defaults.chunkIndexCacheMs;
                         needsSave = true;
                     }
-                    if (!jsonObj.has("tileRefreshRadius")) {
-                        this.data.tileRefreshRadius = defaults.tileRefreshRadius;
+                    if (!jsonObj.has("positionPrecision")) {
+                        this.data.positionPrecision = defaults.positionPrecision;
                         needsSave = true;
                     }
-                    if (!jsonObj.has("tileRefreshIntervalMs")) {
-                        this.data.tileRefreshIntervalMs = defaults.tileRefreshIntervalMs;
+                    if (!jsonObj.has("wsWriteBufferLowKb")) {
+                        this.data.wsWriteBufferLowKb = defaults.wsWriteBufferLowKb;
+                        needsSave = true;
+                    }
+                    if (!jsonObj.has("wsWriteBufferHighKb")) {
+                        this.data.wsWriteBufferHighKb = defaults.wsWriteBufferHighKb;
+                        needsSave = true;
+                    }
+                    if (!jsonObj.has("maxClientLagMs")) {
+                        this.data.maxClientLagMs = defaults.maxClientLagMs;
+                        needsSave = true;
+                    }
+                    if (!jsonObj.has("refreshRendersPerSecond")) {
+                        this.data.refreshRendersPerSecond = defaults.refreshRendersPerSecond;
+                        needsSave = true;
+                    }
+                    if (!jsonObj.has("refreshRadius")) {
+                        this.data.refreshRadius = defaults.refreshRadius;
+                        needsSave = true;
+                    }
+                    if (!jsonObj.has("fallbackRefreshIntervalMs")) {
+                        this.data.fallbackRefreshIntervalMs = defaults.fallbackRefreshIntervalMs;
+                        needsSave = true;
+                    }
+                    if (!jsonObj.has("fallbackRefreshRadius")) {
+                        this.data.fallbackRefreshRadius = defaults.fallbackRefreshRadius;
+                        needsSave = true;
+                    }
+                    if (!jsonObj.has("tileCacheMaxMb")) {
+                        this.data.tileCacheMaxMb = defaults.tileCacheMaxMb;
+                        needsSave = true;
+                    }
+                    if (!jsonObj.has("pixelCacheMaxMb")) {
+                        this.data.pixelCacheMaxMb = defaults.pixelCacheMaxMb;
                         needsSave = true;
                     }
                     if (!jsonObj.has("useDiskCache")) {
@@ -66,6 +98,36 @@ public class MapConfig {
                         this.data.enableTilePyramids = defaults.enableTilePyramids;
                         needsSave = true;
                     }
+                    if (!jsonObj.has("minZoom")) {
+                        this.data.minZoom = defaults.minZoom;
+                        needsSave = true;
+                    }
+                    // Composite quantization configuration
+                    if (!jsonObj.has("quantizeZoomLevels") || this.data.quantizeZoomLevels == null) {
+                        this.data.quantizeZoomLevels = defaults.quantizeZoomLevels;
+                        needsSave = true;
+                    }
+                    if (!jsonObj.has("quantizeMaxColors")) {
+                        this.data.quantizeMaxColors = defaults.quantizeMaxColors;
+                        needsSave = true;
+                    }
+                    if (!jsonObj.has("quantizeDither")) {
+                        this.data.quantizeDither = defaults.quantizeDither;
+                        needsSave = true;
+                    }
+                    if (!jsonObj.has("enableWebp")) {
+                        this.data.enableWebp = defaults.enableWebp;
+                        needsSave = true;
+                    }
+                    // Parallel compression configuration
+                    if (!jsonObj.has("parallelDeflateMinPixels")) {
+                        this.data.parallelDeflateMinPixels = defaults.parallelDeflateMinPixels;
+                        needsSave = true;
+                    }
+                    if (!jsonObj.has("parallelDeflateThreads")) {
+                        this.data.parallelDeflateThreads = defaults.parallelDeflateThreads;
+                        needsSave = true;
+                    }
                     // SSL configuration migration
                     if (!jsonObj.has("enableHttps")) {
                         this.data.enableHttps = defaults.enableHttps;
@@ -125,8 +187,28 @@ public class MapConfig {
         return this.data.updateIntervalMs;
     }
 
-    public int getTileCacheSize() {
-        return this.data.tileCacheSize;
+    public double getPositionPrecision() {
+        return this.data.positionPrecision > 0 ? this.data.positionPrecision : 0.1;
+    }
+
+    public int getWsWriteBufferLowBytes() {
+        return Math.min(this.data.wsWriteBufferLowKb, this.data.wsWriteBufferHighKb) * 1024;
+    }
+
+    public int getWsWriteBufferHighBytes() {
+        return this.data.wsWriteBufferHighKb * 1024;
+    }
+
+    public int getMaxClientLagMs() {
+        return this.data.maxClientLagMs;
+    }
+
+    public long getTileCacheMaxBytes() {
+        return this.data.tileCacheMaxMb * 1024L * 1024L;
+    }
+
+    public long getPixelCacheMaxBytes() {
+        return this.data.pixelCacheMaxMb * 1024L * 1024L;
     }
 
     public List<String> getEnabledWorlds() {
@@ -153,12 +235,20 @@ public class MapConfig {
         return this.data.chunkIndexCacheMs;
     }
 
-    public int getTileRefreshRadius() {
-        return this.data.tileRefreshRadius;
+    public int getRefreshRendersPerSecond() {
+        return this.data.refreshRendersPerSecond;
+    }
+
+    public int getRefreshRadius() {
+        return this.data.refreshRadius;
+    }
+
+    public long getFallbackRefreshIntervalMs() {
+        return this.data.fallbackRefreshIntervalMs;
     }
 
-    public long getTileRefreshIntervalMs() {
-        return this.data.tileRefreshIntervalMs;
+    public int getFallbackRefreshRadius() {
+        return this.data.fallbackRefreshRadius;
     }
 
     public boolean isUseDiskCache() {
@@ -169,6 +259,34 @@ public class MapConfig {
         return this.data.enableTilePyramids;
     }
 
+    public int getMinZoom() {
+        return this.data.minZoom;
+    }
+
+    public boolean isQuantizedZoom(int zoom) {
+        return this.data.quantizeZoomLevels.contains(zoom);
+    }
+
+    public int getQuantizeMaxColors() {
+        return this.data.quantizeMaxColors;
+    }
+
+    public boolean isQuantizeDither() {
+        return this.data.quantizeDither;
+    }
+
+    public boolean isEnableWebp() {
+        return this.data.enableWebp;
+    }
+
+    public int getParallelDeflateMinPixels() {
+        return this.data.parallelDeflateMinPixels;
+    }
+
+    public int getParallelDeflateThreads() {
+        return this.data.parallelDeflateThreads;
+    }
+
     public boolean isHttpsEnabled() {
         return this.data.enableHttps;
     }
@@ -192,16 +310,30 @@ public class MapConfig {
     private static class ConfigData {
         int httpPort = 8080;
         int updateIntervalMs = 1000;
-        int tileCacheSize = 20000;
+        double positionPrecision = 0.1;  // Blocks; player moves smaller than this are not sent to viewers
+        int wsWriteBufferLowKb = 32;  // A lagging viewer resumes once its unsent data drops below this
+        int wsWriteBufferHighKb = 64;  // A viewer with more unsent data than this skips player updates
+        int maxClientLagMs = 30000;  // Viewers unable to take data for longer are disconnected (0 = never)
+        int tileCacheMaxMb = 200;  // Memory budget for encoded tiles
+        int pixelCacheMaxMb = 64;  // Memory budget for raw pixels used to build composites
         List<String> enabledWorlds = new ArrayList<>();
         int tileSize = 256;
         int maxZoom = 4;
         boolean renderExploredChunksOnly = true;
         long chunkIndexCacheMs = 30000;
-        int tileRefreshRadius = 5;
-        long tileRefreshIntervalMs = 60000;
+        int refreshRendersPerSecond = 4;  // Background re-renders of changed chunks, 0 = only on request
+        int refreshRadius = 16;  // Changed chunks within this many chunks of a player re-render in the background
+        long fallbackRefreshIntervalMs = 600000;  // Chunks around players are marked changed this often, 0 = never
+        int fallbackRefreshRadius = 4;  // Radius in chunks of that periodic sweep
         boolean useDiskCache = true;
         boolean enableTilePyramids = true;  // Enable composite tiles for zoomed-out views
+        int minZoom = -4;  // Most zoomed-out level served, down to -8 for very large worlds
+        List<Integer> quantizeZoomLevels = new ArrayList<>();  // Lossy palette for these composite zooms, e.g. [-4, -3]
+        int quantizeMaxColors = 64;
+        boolean quantizeDither = false;
+        boolean enableWebp = true;  // Serve lossless WebP to clients that accept it
+        int parallelDeflateMinPixels = 256 * 256;  // Composite PNGs at least this large are compressed in parallel
+        int parallelDeflateThreads = 4;  // 0 or 1 disables parallel compression
 
         // SSL/HTTPS configuration
         boolean enableHttps = false;
@@ -0,0 +1,127 @@
+package com.easywebmap.map;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Signals that nobody wants the result of a tile request any more.
+ * A request token is cancelled by its owner (channel closed, client cancel message).
+ * A shared token stands for every request joined onto one load and is cancelled
+ * once all of them are, so shared work is only dropped when it is truly abandoned.
+ */
+public class CancellationToken {
+    /**
+     * Never cancelled, for background work such as pregeneration.
+     */
+    public static final CancellationToken NONE = new CancellationToken(false);
+
+    private final boolean shared;
+    private final List<Runnable> listeners = new ArrayList<>();
+    private volatile boolean cancelled;
+    // Shared tokens only: attached requesters not yet cancelled
+    private int interested;
+
+    private CancellationToken(boolean shared) {
+        this.shared = shared;
+    }
+
+    /**
+     * A request token, cancelled by its owner.
+     */
+    public static CancellationToken create() {
+        return new CancellationToken(false);
+    }
+
+    /**
+     * A token cancelled once every attached requester is.
+     */
+    public static CancellationToken shared() {
+        return new CancellationToken(true);
+    }
+
+    /**
+     * Add a requester to a shared token. Returns false if the token was already
+     * cancelled, in which case the caller must start a new load instead.
+     */
+    public boolean attach(CancellationToken requester) {
+        if (!this.shared) {
+            throw new IllegalStateException("Requesters can only attach to a shared token");
+        }
+        synchronized (this) {
+            if (this.cancelled) {
+                return false;
+            }
+            this.interested++;
+        }
+        if (requester != NONE) {
+            requester.onCancel(this::release);
+        }
+        return true;
+    }
+
+    private void release() {
+        List<Runnable> toRun;
+        synchronized (this) {
+            // Same critical section as attach, so no requester can join a token being cancelled
+            if (--this.interested > 0) {
+                return;
+            }
+            toRun = this.markCancelled();
+        }
+        runAll(toRun);
+    }
+
+    public void cancel() {
+        if (this == NONE) {
+            return;
+        }
+        List<Runnable> toRun;
+        synchronized (this) {
+            toRun = this.markCancelled();
+        }
+        runAll(toRun);
+    }
+
+    /**
+     * Flag the token cancelled and take its listeners, or null if it already was.
+     * Must be called holding the token's lock.
+     */
+    private List<Runnable> markCancelled() {
+        if (this.cancelled) {
+            return null;
+        }
+        this.cancelled = true;
+        List<Runnable> toRun = new ArrayList<>(this.listeners);
+        this.listeners.clear();
+        return toRun;
+    }
+
+    private static void runAll(List<Runnable> toRun) {
+        if (toRun == null) {
+            return;
+        }
+        for (Runnable listener : toRun) {
+            listener.run();
+        }
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * Run the listener on cancellation, or right away if already cancelled.
+     */
+    public void onCancel(Runnable listener) {
+        if (this == NONE) {
+            return;
+        }
+        synchronized (this) {
+            if (!this.cancelled) {
+                this.listeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+}
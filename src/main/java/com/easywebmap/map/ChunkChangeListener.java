@@ -0,0 +1,9 @@
+package com.easywebmap.map;
+
+/**
+ * Told when blocks in a chunk change. Server event hooks call it, and anything else
+ * that knows terrain changed can call it the same way.
+ */
+public interface ChunkChangeListener {
+    void onChunkChanged(String worldName, int chunkX, int chunkZ);
+}
@@ -0,0 +1,106 @@
+package com.easywebmap.map;
+
+import java.util.Arrays;
+
+/**
+ * Counts distinct RGB colors and assigns palette indices on the fly.
+ * Stops tracking once more than {@link #MAX_COLORS} colors are seen so
+ * truecolor tiles bail out after a handful of pixels.
+ */
+public class ColorPalette {
+    public static final int MAX_COLORS = 256;
+    private static final int TABLE_BITS = 10;
+    private static final int TABLE_SIZE = 1 << TABLE_BITS;
+    private static final int TABLE_MASK = TABLE_SIZE - 1;
+    private static final int NO_COLOR = -1;
+
+    private final int[] keys = new int[TABLE_SIZE];
+    private final short[] slots = new short[TABLE_SIZE];
+    private final int[] colors = new int[MAX_COLORS];
+    private int size;
+    private boolean overflowed;
+    private int lastColor;
+    private int lastIndex;
+    private byte[] indices = new byte[0];
+
+    public ColorPalette() {
+        this.reset();
+    }
+
+    public void reset() {
+        Arrays.fill(this.keys, NO_COLOR);
+        this.size = 0;
+        this.overflowed = false;
+        this.lastColor = NO_COLOR;
+        this.lastIndex = 0;
+    }
+
+    /**
+     * Get or assign the palette index for a 0xRRGGBB color.
+     * Returns -1 once the palette has overflowed.
+     */
+    public int indexOf(int rgb) {
+        if (rgb == this.lastColor) {
+            return this.lastIndex;
+        }
+        if (this.overflowed) {
+            return -1;
+        }
+        int slot = (rgb * 0x9E3779B1) >>> (32 - TABLE_BITS);
+        while (true) {
+            int key = this.keys[slot];
+            if (key == rgb) {
+                this.lastColor = rgb;
+                this.lastIndex = this.slots[slot];
+                return this.lastIndex;
+            }
+            if (key == NO_COLOR) {
+                break;
+            }
+            slot = (slot + 1) & TABLE_MASK;
+        }
+        if (this.size == MAX_COLORS) {
+            this.overflowed = true;
+            return -1;
+        }
+        int index = this.size++;
+        this.keys[slot] = rgb;
+        this.slots[slot] = (short) index;
+        this.colors[index] = rgb;
+        this.lastColor = rgb;
+        this.lastIndex = index;
+        return index;
+    }
+
+    /**
+     * Reusable buffer for per-pixel palette indices.
+     */
+    public byte[] getIndexBuffer(int length) {
+        if (this.indices.length < length) {
+            this.indices = new byte[length];
+        }
+        return this.indices;
+    }
+
+    public boolean isOverflowed() {
+        return this.overflowed;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int getColor(int index) {
+        return this.colors[index];
+    }
+
+    /**
+     * Smallest PNG bit depth (1, 2, 4 or 8) that can address every entry.
+     */
+    public int getBitDepth() {
+        if (this.size <= 2) return 1;
+        if (this.size <= 4) return 2;
+        if (this.size <= 16) return 4;
+        return 8;
+    }
+}
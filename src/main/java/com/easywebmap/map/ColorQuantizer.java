@@ -0,0 +1,325 @@
+package com.easywebmap.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Median-cut color quantizer for zoomed-out composite tiles.
+ * Works on a 15-bit (5 bits per channel) histogram, so cost depends on the
+ * number of distinct colors rather than on the tile size.
+ */
+public class ColorQuantizer {
+    private static final int HISTOGRAM_SIZE = 1 << 15;
+    private static final int NO_ENTRY = -1;
+    // 4x4 Bayer matrix, values 0-15
+    private static final int[] BAYER_4X4 = {
+        0, 8, 2, 10,
+        12, 4, 14, 6,
+        3, 11, 1, 9,
+        15, 7, 13, 5
+    };
+    // Dither amplitude in 8-bit units, roughly one 5-bit histogram step
+    private static final int DITHER_SPREAD = 8;
+
+    private static final ThreadLocal<ColorQuantizer> QUANTIZER = ThreadLocal.withInitial(ColorQuantizer::new);
+
+    private final int[] histogram = new int[HISTOGRAM_SIZE];
+    // Exact channel sums per bin so palette entries are true averages, not bin centers
+    private final long[] redSums = new long[HISTOGRAM_SIZE];
+    private final long[] greenSums = new long[HISTOGRAM_SIZE];
+    private final long[] blueSums = new long[HISTOGRAM_SIZE];
+    private final int[] inverseMap = new int[HISTOGRAM_SIZE];
+    private final ColorPalette exactColors = new ColorPalette();
+    private int[] palette = new int[0];
+
+    private ColorQuantizer() {
+    }
+
+    /**
+     * Reduce square RGB pixels (0xRRGGBB) to at most maxColors colors.
+     * Returns the input untouched when it already fits in the palette.
+     */
+    public static int[] quantize(int[] pixels, int size, int maxColors, boolean dither) {
+        return QUANTIZER.get().reduce(pixels, size, Math.max(2, Math.min(maxColors, ColorPalette.MAX_COLORS)), dither);
+    }
+
+    private int[] reduce(int[] pixels, int size, int maxColors, boolean dither) {
+        if (this.fitsPalette(pixels, maxColors)) {
+            return pixels;
+        }
+
+        Arrays.fill(this.histogram, 0);
+        Arrays.fill(this.redSums, 0);
+        Arrays.fill(this.greenSums, 0);
+        Arrays.fill(this.blueSums, 0);
+        for (int rgb : pixels) {
+            int bin = toBin(rgb);
+            this.histogram[bin]++;
+            this.redSums[bin] += (rgb >> 16) & 0xFF;
+            this.greenSums[bin] += (rgb >> 8) & 0xFF;
+            this.blueSums[bin] += rgb & 0xFF;
+        }
+        this.palette = this.medianCut(maxColors);
+        Arrays.fill(this.inverseMap, NO_ENTRY);
+
+        int[] result = new int[pixels.length];
+        for (int y = 0; y < size; y++) {
+            int row = y * size;
+            for (int x = 0; x < size; x++) {
+                int rgb = pixels[row + x];
+                if (dither) {
+                    int offset = (BAYER_4X4[((y & 3) << 2) | (x & 3)] - 8) * DITHER_SPREAD / 8;
+                    rgb = (clamp(((rgb >> 16) & 0xFF) + offset) << 16)
+                        | (clamp(((rgb >> 8) & 0xFF) + offset) << 8)
+                        | clamp((rgb & 0xFF) + offset);
+                }
+                result[row + x] = this.palette[this.nearest(toBin(rgb))];
+            }
+        }
+        return result;
+    }
+
+    private boolean fitsPalette(int[] pixels, int maxColors) {
+        ColorPalette colors = this.exactColors;
+        colors.reset();
+        for (int rgb : pixels) {
+            if (colors.indexOf(rgb) < 0) {
+                return false;
+            }
+        }
+        return colors.size() <= maxColors;
+    }
+
+    /**
+     * Nearest palette entry for a histogram bin, computed once per bin.
+     */
+    private int nearest(int bin) {
+        int cached = this.inverseMap[bin];
+        if (cached != NO_ENTRY) {
+            return cached;
+        }
+        int r = binRed(bin);
+        int g = binGreen(bin);
+        int b = binBlue(bin);
+        int best = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < this.palette.length; i++) {
+            int color = this.palette[i];
+            int dr = ((color >> 16) & 0xFF) - r;
+            int dg = ((color >> 8) & 0xFF) - g;
+            int db = (color & 0xFF) - b;
+            int distance = dr * dr + dg * dg + db * db;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        this.inverseMap[bin] = best;
+        return best;
+    }
+
+    private int[] medianCut(int maxColors) {
+        List<Box> boxes = new ArrayList<>();
+        Box initial = new Box(0, 31, 0, 31, 0, 31);
+        this.shrink(initial);
+        boxes.add(initial);
+
+        while (boxes.size() < maxColors) {
+            Box target = null;
+            long bestScore = 0;
+            for (Box box : boxes) {
+                long score = (long) box.count * box.longestSide();
+                if (box.count > 1 && box.longestSide() > 0 && score > bestScore) {
+                    bestScore = score;
+                    target = box;
+                }
+            }
+            if (target == null) {
+                break;
+            }
+            Box split = this.split(target);
+            if (split == null) {
+                break;
+            }
+            boxes.add(split);
+        }
+
+        int[] colors = new int[boxes.size()];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = this.average(boxes.get(i));
+        }
+        return colors;
+    }
+
+    /**
+     * Split a box at the weighted median of its longest axis.
+     * The given box keeps the lower half, the returned box is the upper half.
+     */
+    private Box split(Box box) {
+        int axis = box.longestAxis();
+        int low = box.min(axis);
+        int high = box.max(axis);
+        int half = box.count / 2;
+        int running = 0;
+        int cut = low;
+        for (int v = low; v < high; v++) {
+            running += this.countSlice(box, axis, v);
+            cut = v;
+            if (running >= half) {
+                break;
+            }
+        }
+
+        Box upper = box.copy();
+        box.setMax(axis, cut);
+        upper.setMin(axis, cut + 1);
+        this.shrink(box);
+        this.shrink(upper);
+        return upper.count > 0 ? upper : null;
+    }
+
+    private int countSlice(Box box, int axis, int value) {
+        Box slice = box.copy();
+        slice.setMin(axis, value);
+        slice.setMax(axis, value);
+        int count = 0;
+        for (int r = slice.rMin; r <= slice.rMax; r++) {
+            for (int g = slice.gMin; g <= slice.gMax; g++) {
+                int base = (r << 10) | (g << 5);
+                for (int b = slice.bMin; b <= slice.bMax; b++) {
+                    count += this.histogram[base | b];
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Tighten the box bounds to the populated bins and recount.
+     */
+    private void shrink(Box box) {
+        int rMin = 31, rMax = 0, gMin = 31, gMax = 0, bMin = 31, bMax = 0;
+        int count = 0;
+        for (int r = box.rMin; r <= box.rMax; r++) {
+            for (int g = box.gMin; g <= box.gMax; g++) {
+                int base = (r << 10) | (g << 5);
+                for (int b = box.bMin; b <= box.bMax; b++) {
+                    int n = this.histogram[base | b];
+                    if (n == 0) continue;
+                    count += n;
+                    rMin = Math.min(rMin, r);
+                    rMax = Math.max(rMax, r);
+                    gMin = Math.min(gMin, g);
+                    gMax = Math.max(gMax, g);
+                    bMin = Math.min(bMin, b);
+                    bMax = Math.max(bMax, b);
+                }
+            }
+        }
+        box.count = count;
+        if (count > 0) {
+            box.rMin = rMin;
+            box.rMax = rMax;
+            box.gMin = gMin;
+            box.gMax = gMax;
+            box.bMin = bMin;
+            box.bMax = bMax;
+        }
+    }
+
+    private int average(Box box) {
+        long rSum = 0, gSum = 0, bSum = 0, total = 0;
+        for (int r = box.rMin; r <= box.rMax; r++) {
+            for (int g = box.gMin; g <= box.gMax; g++) {
+                int base = (r << 10) | (g << 5);
+                for (int b = box.bMin; b <= box.bMax; b++) {
+                    int n = this.histogram[base | b];
+                    if (n == 0) continue;
+                    int bin = base | b;
+                    rSum += this.redSums[bin];
+                    gSum += this.greenSums[bin];
+                    bSum += this.blueSums[bin];
+                    total += n;
+                }
+            }
+        }
+        if (total == 0) {
+            return 0;
+        }
+        return ((int) (rSum / total) << 16) | ((int) (gSum / total) << 8) | (int) (bSum / total);
+    }
+
+    private static int toBin(int rgb) {
+        return ((rgb >> 9) & 0x7C00) | ((rgb >> 6) & 0x03E0) | ((rgb >> 3) & 0x001F);
+    }
+
+    // Bin centers in 8-bit space
+    private static int binRed(int bin) {
+        return ((bin >> 10) << 3) | 4;
+    }
+
+    private static int binGreen(int bin) {
+        return (((bin >> 5) & 0x1F) << 3) | 4;
+    }
+
+    private static int binBlue(int bin) {
+        return ((bin & 0x1F) << 3) | 4;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    private static class Box {
+        int rMin, rMax, gMin, gMax, bMin, bMax;
+        int count;
+
+        Box(int rMin, int rMax, int gMin, int gMax, int bMin, int bMax) {
+            this.rMin = rMin;
+            this.rMax = rMax;
+            this.gMin = gMin;
+            this.gMax = gMax;
+            this.bMin = bMin;
+            this.bMax = bMax;
+        }
+
+        Box copy() {
+            Box box = new Box(this.rMin, this.rMax, this.gMin, this.gMax, this.bMin, this.bMax);
+            box.count = this.count;
+            return box;
+        }
+
+        int longestSide() {
+            return Math.max(this.rMax - this.rMin, Math.max(this.gMax - this.gMin, this.bMax - this.bMin));
+        }
+
+        int longestAxis() {
+            int r = this.rMax - this.rMin;
+            int g = this.gMax - this.gMin;
+            int b = this.bMax - this.bMin;
+            if (r >= g && r >= b) return 0;
+            return g >= b ? 1 : 2;
+        }
+
+        int min(int axis) {
+            return axis == 0 ? this.rMin : (axis == 1 ? this.gMin : this.bMin);
+        }
+
+        int max(int axis) {
+            return axis == 0 ? this.rMax : (axis == 1 ? this.gMax : this.bMax);
+        }
+
+        void setMin(int axis, int value) {
+            if (axis == 0) this.rMin = value;
+            else if (axis == 1) this.gMin = value;
+            else this.bMin = value;
+        }
+
+        void setMax(int axis, int value) {
+            if (axis == 0) this.rMax = value;
+            else if (axis == 1) this.gMax = value;
+            else this.bMax = value;
+        }
+    }
+}
@@ -1,40 +1,58 @@
 package com.easywebmap.map;
 
 import com.easywebmap.EasyWebMap;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import it.unimi.dsi.fastutil.HashCommon;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import javax.imageio.IIOImage;
-import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.stream.ImageOutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Generates composite tiles at zoomed-out levels using raw pixel compositing.
- * Eliminates expensive PNG decode by caching raw RGB pixels.
+ * Each level is downsampled from the four tiles of the level above and its raw
+ * RGB pixels are cached, so no PNG decoding is needed anywhere in the pyramid.
  */
 public class CompositeTileGenerator {
     private final EasyWebMap plugin;
     private final TileManager tileManager;
-    private final ConcurrentHashMap<String, int[]> pixelCache;
-    private static final int MAX_PIXEL_CACHE = 512;
-
-    // Thread-local ImageWriter for fast PNG encoding
-    private static final ThreadLocal<ImageWriter> PNG_WRITER = ThreadLocal.withInitial(() -> {
-        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("png");
-        return writers.hasNext() ? writers.next() : null;
-    });
+    private final PixelCache pixelCache;
+    private final SingleFlight<int[]> pendingPixelRequests = new SingleFlight<>();
+    private static final int[] EMPTY_PIXELS = new int[0];
+    // Deepest supported zoom-out level, 256x256 chunks per tile
+    public static final int MIN_ZOOM = -8;
+    // Every Nth quantized tile is also encoded losslessly to measure savings
+    private static final int QUANTIZE_SAMPLE_RATE = 8;
+    private final ConcurrentHashMap<Integer, QuantizationStats> quantizationStats = new ConcurrentHashMap<>();
+    // Serializes read-patch-write of a parent's pixels, striped by key
+    private static final int PATCH_LOCK_STRIPES = 64;
+    private final Object[] patchLocks = new Object[PATCH_LOCK_STRIPES];
+    // Bounded pool for compressing large composites in row blocks, null when disabled
+    private final ExecutorService deflateExecutor;
+    private final int deflateThreads;
 
     public CompositeTileGenerator(EasyWebMap plugin, TileManager tileManager) {
         this.plugin = plugin;
         this.tileManager = tileManager;
-        this.pixelCache = new ConcurrentHashMap<>();
+        this.pixelCache = tileManager.getPixelCache();
+        for (int i = 0; i < PATCH_LOCK_STRIPES; i++) {
+            this.patchLocks[i] = new Object();
+        }
+        this.deflateThreads = plugin.getConfig().getParallelDeflateThreads();
+        if (this.deflateThreads > 1) {
+            // The generating thread compresses one block itself
+            this.deflateExecutor = Executors.newFixedThreadPool(this.deflateThreads - 1, r -> {
+                Thread t = new Thread(r, "EasyWebMap-Deflate");
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.deflateExecutor = null;
+        }
     }
 
     public int getChunksPerAxis(int zoom) {
@@ -42,135 +60,247 @@ public class CompositeTileGenerator {
         return 1 << (-zoom);
     }
 
-    public CompletableFuture<byte[]> generateCompositeTile(String worldName, int zoom, int tileX, int tileZ) {
+    public CompletableFuture<byte[]> generateCompositeTile(String worldName, int zoom, int tileX, int tileZ, TileFormat format,
+                                                           CancellationToken token) {
         if (zoom >= 0) {
-            return this.tileManager.getBaseTile(worldName, tileX, tileZ);
+            return this.tileManager.getBaseTile(worldName, tileX, tileZ, format, token);
         }
 
-        int chunksPerAxis = getChunksPerAxis(zoom);
         int tileSize = this.plugin.getConfig().getTileSize();
-        int baseChunkX = tileX * chunksPerAxis;
-        int baseChunkZ = tileZ * chunksPerAxis;
-
-        // Fetch all base tiles with pixels in parallel
-        List<CompletableFuture<TileWithPosition>> futures = new ArrayList<>();
-        for (int dz = 0; dz < chunksPerAxis; dz++) {
-            for (int dx = 0; dx < chunksPerAxis; dx++) {
-                int chunkX = baseChunkX + dx;
-                int chunkZ = baseChunkZ + dz;
-                final int posX = dx;
-                final int posZ = dz;
-
-                CompletableFuture<TileWithPosition> tileFuture =
-                    this.tileManager.getBaseTileWithPixels(worldName, chunkX, chunkZ)
-                        .thenApply(data -> new TileWithPosition(data, posX, posZ));
-                futures.add(tileFuture);
+        return this.getCompositePixels(worldName, zoom, tileX, tileZ, token).thenApply(pixels -> {
+            if (pixels.length == 0) {
+                return format.encodeEmpty(tileSize);
+            }
+            if (this.plugin.getConfig().isQuantizedZoom(zoom)) {
+                return this.encodeQuantized(pixels, zoom, tileSize, format);
+            }
+            return this.encode(pixels, tileSize, format);
+        });
+    }
+
+    /**
+     * Raw pixels of a composite tile, built from the four tiles one zoom level up.
+     * Each level is cached, so a request touches at most four children.
+     * Completes with an empty array when none of the children have content.
+     */
+    public CompletableFuture<int[]> getCompositePixels(String worldName, int zoom, int tileX, int tileZ,
+                                                       CancellationToken token) {
+        long cacheKey = TileKey.of(worldName, zoom, tileX, tileZ);
+
+        int[] cached = this.pixelCache.get(cacheKey);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return this.pendingPixelRequests.run(cacheKey, token,
+            interest -> this.buildCompositePixels(worldName, zoom, tileX, tileZ, interest));
+    }
+
+    private CompletableFuture<int[]> buildCompositePixels(String worldName, int zoom, int tileX, int tileZ,
+                                                          CancellationToken token) {
+        // Children in row-major order: (0,0), (1,0), (0,1), (1,1)
+        List<CompletableFuture<int[]>> children = new ArrayList<>(4);
+        for (int dz = 0; dz < 2; dz++) {
+            for (int dx = 0; dx < 2; dx++) {
+                children.add(this.getChildPixels(worldName, zoom + 1, tileX * 2 + dx, tileZ * 2 + dz, token));
             }
         }
 
-        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+        int tileSize = this.plugin.getConfig().getTileSize();
+        long cacheKey = TileKey.of(worldName, zoom, tileX, tileZ);
+        return CompletableFuture.allOf(children.toArray(new CompletableFuture[0]))
             .thenApply(v -> {
-                List<TileWithPosition> tiles = new ArrayList<>();
-                for (CompletableFuture<TileWithPosition> future : futures) {
-                    tiles.add(future.join());
+                List<int[]> quadrants = new ArrayList<>(4);
+                for (CompletableFuture<int[]> child : children) {
+                    quadrants.add(child.join());
+                }
+                int[] pixels = this.downsample(quadrants, tileSize);
+                // Don't cache empty composites - children may be explored later
+                if (pixels.length > 0) {
+                    this.pixelCache.put(cacheKey, pixels);
                 }
-                return this.compositeFromPixels(tiles, chunksPerAxis, tileSize);
+                return pixels;
             });
     }
 
+    private CompletableFuture<int[]> getChildPixels(String worldName, int zoom, int tileX, int tileZ,
+                                                    CancellationToken token) {
+        if (zoom < 0) {
+            return this.getCompositePixels(worldName, zoom, tileX, tileZ, token);
+        }
+        return this.tileManager.getBaseTileWithPixels(worldName, tileX, tileZ, token);
+    }
+
     /**
-     * Composite using raw pixel arrays - no PNG decoding needed.
+     * Push a changed base tile up the pyramid. At each level only the region covered by
+     * the base tile is re-sampled into the cached parent pixels, under a lock striped by
+     * the parent's key so siblings patching the same parent never drop each other's
+     * update. Where a level is not cached, it and every level above are dropped so they
+     * rebuild from children.
      */
-    private byte[] compositeFromPixels(List<TileWithPosition> tiles, int chunksPerAxis, int outputSize) {
-        int[] compositePixels = new int[outputSize * outputSize];
-        int subTileSize = outputSize / chunksPerAxis;
-        boolean hasAnyContent = false;
+    public void propagate(String worldName, int tileX, int tileZ, int[] basePixels, int minZoom) {
+        int[] child = basePixels.length > 0 ? basePixels : null;
+        int childSize = (int) Math.sqrt(basePixels.length);
+        int regionX = 0;
+        int regionY = 0;
+        int regionSize = childSize;
+        int x = tileX;
+        int z = tileZ;
 
-        for (TileWithPosition tile : tiles) {
-            if (tile.data == null || tile.data.pixels == null) {
+        for (int zoom = -1; zoom >= minZoom; zoom--) {
+            int quadrantX = x & 1;
+            int quadrantZ = z & 1;
+            x >>= 1;
+            z >>= 1;
+            long cacheKey = TileKey.of(worldName, zoom, x, z);
+            if (child == null) {
+                this.pixelCache.remove(cacheKey);
                 continue;
             }
 
-            int[] srcPixels = tile.data.pixels;
-            int srcSize = tile.data.size;
-
-            if (srcPixels.length == 0) continue;
-
-            hasAnyContent = true;
-            int destX = tile.posX * subTileSize;
-            int destY = tile.posZ * subTileSize;
-
-            // Scale and copy pixels directly
-            float scale = (float) srcSize / subTileSize;
-            for (int y = 0; y < subTileSize; y++) {
-                int destRowStart = (destY + y) * outputSize + destX;
-                int srcY = Math.min((int) (y * scale), srcSize - 1);
-                int srcRowStart = srcY * srcSize;
-                for (int x = 0; x < subTileSize; x++) {
-                    int srcX = Math.min((int) (x * scale), srcSize - 1);
-                    compositePixels[destRowStart + x] = srcPixels[srcRowStart + srcX];
+            int[] parent;
+            int size;
+            int fromX;
+            int fromY;
+            int toX;
+            int toY;
+            synchronized (this.patchLock(cacheKey)) {
+                // The cache hands out copies; patch ours and put it back before anyone else reads
+                parent = this.pixelCache.get(cacheKey);
+                if (parent == null) {
+                    child = null;
+                    continue;
                 }
+                size = (int) Math.sqrt(parent.length);
+                int half = size / 2;
+                // Child region scaled by half/childSize, rounded outward
+                fromX = regionX * half / childSize;
+                fromY = regionY * half / childSize;
+                toX = ((regionX + regionSize) * half + childSize - 1) / childSize;
+                toY = ((regionY + regionSize) * half + childSize - 1) / childSize;
+                copyScaled(child, childSize, parent, size, quadrantX * half, quadrantZ * half,
+                           fromX, fromY, toX - fromX, toY - fromY);
+                this.pixelCache.put(cacheKey, parent);
             }
-        }
 
-        if (!hasAnyContent) {
-            return PngEncoder.encodeEmpty(outputSize);
+            child = parent;
+            regionX = quadrantX * (size / 2) + fromX;
+            regionY = quadrantZ * (size / 2) + fromY;
+            regionSize = Math.max(toX - fromX, toY - fromY);
+            childSize = size;
         }
+    }
 
-        // Use RGB (no alpha) - faster encoding
-        BufferedImage composite = new BufferedImage(outputSize, outputSize, BufferedImage.TYPE_INT_RGB);
-        composite.setRGB(0, 0, outputSize, outputSize, compositePixels, 0, outputSize);
+    private Object patchLock(long key) {
+        return this.patchLocks[(int) (HashCommon.mix(key) >>> 58)];
+    }
 
-        return encodeFast(composite, outputSize);
+    /**
+     * Halve four child tiles into the quadrants of one output tile.
+     */
+    private int[] downsample(List<int[]> quadrants, int outputSize) {
+        int[] compositePixels = null;
+        int half = outputSize / 2;
+
+        for (int i = 0; i < quadrants.size(); i++) {
+            int[] srcPixels = quadrants.get(i);
+            if (srcPixels.length == 0) continue;
+            if (compositePixels == null) {
+                compositePixels = new int[outputSize * outputSize];
+            }
+
+            int srcSize = (int) Math.sqrt(srcPixels.length);
+            copyScaled(srcPixels, srcSize, compositePixels, outputSize, (i & 1) * half, (i >> 1) * half, 0, 0, half, half);
+        }
+        return compositePixels != null ? compositePixels : EMPTY_PIXELS;
     }
 
     /**
-     * Fast PNG encoding with minimal compression for composites.
+     * Scale a child tile into the quadrant at (offsetX, offsetY) of its parent, writing only
+     * the width x height region starting at (fromX, fromY) within the quadrant. Children at
+     * exactly twice the quadrant size are box-filtered, anything else is point-sampled.
      */
-    private byte[] encodeFast(BufferedImage image, int outputSize) {
-        ByteArrayOutputStream out = new ByteArrayOutputStream(outputSize * outputSize / 2);
-
-        ImageWriter writer = PNG_WRITER.get();
-        if (writer == null) {
-            try {
-                ImageIO.write(image, "png", out);
-            } catch (IOException e) {
-                return PngEncoder.encodeEmpty(outputSize);
+    private static void copyScaled(int[] src, int srcSize, int[] dest, int destSize,
+                                   int offsetX, int offsetY, int fromX, int fromY, int width, int height) {
+        int half = destSize / 2;
+        if (srcSize == half * 2) {
+            PixelKernels.downsample2x(src, srcSize, fromX * 2, fromY * 2,
+                                      dest, destSize, offsetX + fromX, offsetY + fromY, width, height);
+            return;
+        }
+        for (int y = fromY; y < fromY + height; y++) {
+            int destRowStart = (offsetY + y) * destSize + offsetX;
+            int srcRowStart = (y * srcSize / half) * srcSize;
+            for (int x = fromX; x < fromX + width; x++) {
+                dest[destRowStart + x] = src[srcRowStart + x * srcSize / half];
             }
-            return out.toByteArray();
         }
+    }
 
-        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
-            writer.setOutput(ios);
+    /**
+     * Encode a composite, splitting compression across the deflate pool for large PNGs.
+     */
+    private byte[] encode(int[] pixels, int outputSize, TileFormat format) {
+        if (format == TileFormat.PNG && this.deflateExecutor != null
+                && pixels.length >= this.plugin.getConfig().getParallelDeflateMinPixels()) {
+            return PngEncoder.encodeParallel(pixels, outputSize, this.deflateExecutor, this.deflateThreads);
+        }
+        return format.encode(pixels, outputSize);
+    }
 
-            ImageWriteParam param = writer.getDefaultWriteParam();
-            if (param.canWriteCompressed()) {
-                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-                param.setCompressionQuality(1.0f); // Fastest
-            }
+    /**
+     * Reduce a composite to a bounded palette before encoding.
+     * Savings are tracked per zoom level by sampling a lossless encode.
+     */
+    private byte[] encodeQuantized(int[] pixels, int zoom, int outputSize, TileFormat format) {
+        int maxColors = this.plugin.getConfig().getQuantizeMaxColors();
+        boolean dither = this.plugin.getConfig().isQuantizeDither();
+        byte[] quantized = this.encode(ColorQuantizer.quantize(pixels, outputSize, maxColors, dither), outputSize, format);
 
-            writer.write(null, new IIOImage(image, null, null), param);
-            writer.reset();
-        } catch (IOException e) {
-            return PngEncoder.encodeEmpty(outputSize);
+        QuantizationStats stats = this.quantizationStats.computeIfAbsent(zoom, z -> new QuantizationStats());
+        if (stats.tiles.getAndIncrement() % QUANTIZE_SAMPLE_RATE == 0) {
+            byte[] lossless = this.encode(pixels, outputSize, format);
+            stats.sampledLosslessBytes.addAndGet(lossless.length);
+            stats.sampledQuantizedBytes.addAndGet(quantized.length);
         }
+        return quantized;
+    }
+
+    /**
+     * Quantization savings per zoom level, ordered from most zoomed-out.
+     */
+    public Map<Integer, QuantizationStats> getQuantizationStats() {
+        return new TreeMap<>(this.quantizationStats);
+    }
 
-        return out.toByteArray();
+    public long getDeduplicatedRequests() {
+        return this.pendingPixelRequests.getDeduplicated();
     }
 
-    public void clearPixelCache() {
-        this.pixelCache.clear();
+    public void shutdown() {
+        if (this.deflateExecutor != null) {
+            this.deflateExecutor.shutdown();
+        }
     }
 
-    public static class TileWithPosition {
-        final PngEncoder.TileData data;
-        final int posX;
-        final int posZ;
+    public static class QuantizationStats {
+        final AtomicLong tiles = new AtomicLong();
+        final AtomicLong sampledLosslessBytes = new AtomicLong();
+        final AtomicLong sampledQuantizedBytes = new AtomicLong();
 
-        TileWithPosition(PngEncoder.TileData data, int posX, int posZ) {
-            this.data = data;
-            this.posX = posX;
-            this.posZ = posZ;
+        public long getTiles() {
+            return this.tiles.get();
+        }
+
+        /**
+         * Percentage of bytes saved versus lossless encoding, from sampled tiles.
+         */
+        public double getSavingsPercent() {
+            long lossless = this.sampledLosslessBytes.get();
+            if (lossless == 0) {
+                return 0.0;
+            }
+            return 100.0 * (lossless - this.sampledQuantizedBytes.get()) / lossless;
         }
     }
 }
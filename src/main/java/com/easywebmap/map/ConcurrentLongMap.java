@@ -0,0 +1,118 @@
+package com.easywebmap.map;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import java.util.function.LongPredicate;
+
+/**
+ * Concurrent map from primitive long keys, so lookups never box or allocate.
+ * Lock-striped over fastutil open-addressing maps; each call holds one stripe briefly.
+ */
+public class ConcurrentLongMap<V> {
+    private static final int STRIPE_BITS = 4;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+
+    private final Long2ObjectOpenHashMap<V>[] stripes;
+
+    @SuppressWarnings("unchecked")
+    public ConcurrentLongMap() {
+        this.stripes = new Long2ObjectOpenHashMap[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            this.stripes[i] = new Long2ObjectOpenHashMap<>();
+        }
+    }
+
+    private Long2ObjectOpenHashMap<V> stripe(long key) {
+        // High bits of the mixed hash, the stripe maps use the low bits for slots
+        return this.stripes[(int) (HashCommon.mix(key) >>> (64 - STRIPE_BITS))];
+    }
+
+    public V get(long key) {
+        Long2ObjectOpenHashMap<V> map = this.stripe(key);
+        synchronized (map) {
+            return map.get(key);
+        }
+    }
+
+    public boolean containsKey(long key) {
+        Long2ObjectOpenHashMap<V> map = this.stripe(key);
+        synchronized (map) {
+            return map.containsKey(key);
+        }
+    }
+
+    public V put(long key, V value) {
+        Long2ObjectOpenHashMap<V> map = this.stripe(key);
+        synchronized (map) {
+            return map.put(key, value);
+        }
+    }
+
+    public V putIfAbsent(long key, V value) {
+        Long2ObjectOpenHashMap<V> map = this.stripe(key);
+        synchronized (map) {
+            return map.putIfAbsent(key, value);
+        }
+    }
+
+    public V remove(long key) {
+        Long2ObjectOpenHashMap<V> map = this.stripe(key);
+        synchronized (map) {
+            return map.remove(key);
+        }
+    }
+
+    /**
+     * Remove only if the key still maps to this exact value.
+     */
+    public boolean remove(long key, V value) {
+        Long2ObjectOpenHashMap<V> map = this.stripe(key);
+        synchronized (map) {
+            if (map.get(key) != value) {
+                return false;
+            }
+            map.remove(key);
+            return true;
+        }
+    }
+
+    public void removeIf(LongPredicate predicate) {
+        for (Long2ObjectOpenHashMap<V> map : this.stripes) {
+            synchronized (map) {
+                map.long2ObjectEntrySet().removeIf(entry -> predicate.test(entry.getLongKey()));
+            }
+        }
+    }
+
+    /**
+     * Snapshot of the keys, taken one stripe at a time.
+     */
+    public long[] keys() {
+        LongArrayList keys = new LongArrayList();
+        for (Long2ObjectOpenHashMap<V> map : this.stripes) {
+            synchronized (map) {
+                keys.addAll(map.keySet());
+            }
+        }
+        return keys.toLongArray();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Long2ObjectOpenHashMap<V> map : this.stripes) {
+            synchronized (map) {
+                size += map.size();
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Long2ObjectOpenHashMap<V> map : this.stripes) {
+            synchronized (map) {
+                map.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.easywebmap.map;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Chunks whose cached tiles no longer match the world because blocks in them changed.
+ * A chunk stays dirty until a render of it starts, so changes made while it renders
+ * mark it again. The owner is told the first time a chunk turns dirty, not on every
+ * change. The set is saved whenever it changed, from the refresh worker's tick, and on
+ * shutdown, so edits made before a restart or a crash still re-render.
+ */
+public class DirtyChunkTracker implements ChunkChangeListener {
+    private final Path file;
+    private final ChunkChangeListener onDirty;
+    private final ConcurrentHashMap<String, ConcurrentLongMap<Boolean>> dirtyByWorld = new ConcurrentHashMap<>();
+    private final LongAdder changes = new LongAdder();
+    // Bumped whenever the set changes, so unchanged sets are not rewritten
+    private final AtomicLong modifications = new AtomicLong();
+    private long savedModifications = -1;
+
+    public DirtyChunkTracker(Path file, ChunkChangeListener onDirty) {
+        this.file = file;
+        this.onDirty = onDirty;
+    }
+
+    @Override
+    public void onChunkChanged(String worldName, int chunkX, int chunkZ) {
+        this.changes.increment();
+        ConcurrentLongMap<Boolean> chunks = this.dirtyByWorld.computeIfAbsent(worldName, name -> new ConcurrentLongMap<>());
+        if (chunks.putIfAbsent(pack(chunkX, chunkZ), Boolean.TRUE) == null) {
+            this.modifications.incrementAndGet();
+            this.onDirty.onChunkChanged(worldName, chunkX, chunkZ);
+        }
+    }
+
+    public boolean isDirty(String worldName, int chunkX, int chunkZ) {
+        ConcurrentLongMap<Boolean> chunks = this.dirtyByWorld.get(worldName);
+        return chunks != null && chunks.containsKey(pack(chunkX, chunkZ));
+    }
+
+    /**
+     * Clear a chunk as its render starts. Returns whether it was dirty.
+     */
+    public boolean markClean(String worldName, int chunkX, int chunkZ) {
+        ConcurrentLongMap<Boolean> chunks = this.dirtyByWorld.get(worldName);
+        if (chunks == null || chunks.remove(pack(chunkX, chunkZ)) == null) {
+            return false;
+        }
+        this.modifications.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Snapshot of a world's dirty chunks, unpacked with {@link #chunkX} and {@link #chunkZ}.
+     */
+    public long[] getDirtyChunks(String worldName) {
+        ConcurrentLongMap<Boolean> chunks = this.dirtyByWorld.get(worldName);
+        return chunks != null ? chunks.keys() : new long[0];
+    }
+
+    public int size() {
+        int size = 0;
+        for (ConcurrentLongMap<Boolean> chunks : this.dirtyByWorld.values()) {
+            size += chunks.size();
+        }
+        return size;
+    }
+
+    /**
+     * Change notifications received, including ones for chunks already dirty.
+     */
+    public long getChanges() {
+        return this.changes.sum();
+    }
+
+    public void clear() {
+        this.dirtyByWorld.clear();
+        this.modifications.incrementAndGet();
+    }
+
+    /**
+     * Re-mark the chunks saved before the last shutdown or crash, one "x z world" line each.
+     * The file is kept until the next save replaces it.
+     */
+    public void load() {
+        if (!Files.exists(this.file)) {
+            return;
+        }
+        try {
+            List<String> lines = Files.readAllLines(this.file);
+            for (String line : lines) {
+                String[] parts = line.split(" ", 3);
+                if (parts.length == 3) {
+                    this.onChunkChanged(parts[2], Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("[EasyWebMap] Failed to load dirty chunks: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Save the set if it changed since the last save.
+     */
+    public synchronized void saveIfChanged() {
+        if (this.modifications.get() != this.savedModifications) {
+            this.save();
+        }
+    }
+
+    /**
+     * Write the set to a temporary file and move it into place, so a crash mid-save
+     * leaves the previous copy intact.
+     */
+    public synchronized void save() {
+        long modifications = this.modifications.get();
+        try {
+            if (this.size() == 0) {
+                Files.deleteIfExists(this.file);
+                this.savedModifications = modifications;
+                return;
+            }
+            Path temp = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(temp)) {
+                for (Map.Entry<String, ConcurrentLongMap<Boolean>> entry : this.dirtyByWorld.entrySet()) {
+                    for (long chunk : entry.getValue().keys()) {
+                        writer.write(chunkX(chunk) + " " + chunkZ(chunk) + " " + entry.getKey());
+                        writer.newLine();
+                    }
+                }
+            }
+            Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.savedModifications = modifications;
+        } catch (IOException e) {
+            System.err.println("[EasyWebMap] Failed to save dirty chunks: " + e.getMessage());
+        }
+    }
+
+    private static long pack(int chunkX, int chunkZ) {
+        return (long) chunkX << 32 | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    public static int chunkX(long chunk) {
+        return (int) (chunk >> 32);
+    }
+
+    public static int chunkZ(long chunk) {
+        return (int) chunk;
+    }
+}
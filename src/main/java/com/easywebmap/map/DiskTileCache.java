@@ -3,24 +3,22 @@ package com.easywebmap.map;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 /**
  * Async disk cache for tiles - prevents blocking Netty event loop.
+ * Writes and deletes run on one thread, in the order they were queued.
  */
 public class DiskTileCache {
     private final Path cacheDirectory;
-    private final ConcurrentHashMap<String, Long> tileTimestamps;
     private final ExecutorService diskExecutor;
 
     public DiskTileCache(Path dataDirectory) {
         this.cacheDirectory = dataDirectory.resolve("tilecache");
-        this.tileTimestamps = new ConcurrentHashMap<>();
-        this.diskExecutor = Executors.newFixedThreadPool(2, r -> {
+        // Single thread so a delete can never be overtaken by an earlier write of the same tile
+        this.diskExecutor = Executors.newSingleThreadExecutor(r -> {
             Thread t = new Thread(r, "EasyWebMap-DiskIO");
             t.setDaemon(true);
             return t;
@@ -36,7 +34,11 @@ public class DiskTileCache {
      * Synchronous get - for use in cached paths where blocking is acceptable.
      */
     public byte[] get(String worldName, int zoom, int x, int z) {
-        Path tilePath = getTilePath(worldName, zoom, x, z);
+        return get(worldName, zoom, x, z, TileFormat.PNG);
+    }
+
+    public byte[] get(String worldName, int zoom, int x, int z, TileFormat format) {
+        Path tilePath = getTilePath(worldName, zoom, x, z, format);
         if (!Files.exists(tilePath)) {
             return null;
         }
@@ -58,22 +60,22 @@ public class DiskTileCache {
      * Async put - fire and forget disk write.
      */
     public void putAsync(String worldName, int zoom, int x, int z, byte[] data) {
-        String key = createKey(worldName, zoom, x, z);
-        this.tileTimestamps.put(key, System.currentTimeMillis());
-        this.diskExecutor.execute(() -> putSync(worldName, zoom, x, z, data));
+        putAsync(worldName, zoom, x, z, TileFormat.PNG, data);
+    }
+
+    public void putAsync(String worldName, int zoom, int x, int z, TileFormat format, byte[] data) {
+        this.diskExecutor.execute(() -> putSync(worldName, zoom, x, z, format, data));
     }
 
     /**
      * Synchronous put - for direct calls.
      */
     public void put(String worldName, int zoom, int x, int z, byte[] data) {
-        putSync(worldName, zoom, x, z, data);
-        String key = createKey(worldName, zoom, x, z);
-        this.tileTimestamps.put(key, System.currentTimeMillis());
+        putSync(worldName, zoom, x, z, TileFormat.PNG, data);
     }
 
-    private void putSync(String worldName, int zoom, int x, int z, byte[] data) {
-        Path tilePath = getTilePath(worldName, zoom, x, z);
+    private void putSync(String worldName, int zoom, int x, int z, TileFormat format, byte[] data) {
+        Path tilePath = getTilePath(worldName, zoom, x, z, format);
         try {
             Files.createDirectories(tilePath.getParent());
             Files.write(tilePath, data);
@@ -82,35 +84,24 @@ public class DiskTileCache {
         }
     }
 
-    public long getTileAge(String worldName, int zoom, int x, int z) {
-        String key = createKey(worldName, zoom, x, z);
-        Long cachedTimestamp = this.tileTimestamps.get(key);
-
-        if (cachedTimestamp != null) {
-            return System.currentTimeMillis() - cachedTimestamp;
-        }
-
-        Path tilePath = getTilePath(worldName, zoom, x, z);
-        if (!Files.exists(tilePath)) {
-            return Long.MAX_VALUE;
-        }
-
-        try {
-            BasicFileAttributes attrs = Files.readAttributes(tilePath, BasicFileAttributes.class);
-            long fileTime = attrs.lastModifiedTime().toMillis();
-            this.tileTimestamps.put(key, fileTime);
-            return System.currentTimeMillis() - fileTime;
-        } catch (IOException e) {
-            return Long.MAX_VALUE;
-        }
+    /**
+     * Async delete, queued behind earlier writes.
+     */
+    public void deleteAsync(String worldName, int zoom, int x, int z, TileFormat format) {
+        this.diskExecutor.execute(() -> {
+            try {
+                Files.deleteIfExists(getTilePath(worldName, zoom, x, z, format));
+            } catch (IOException e) {
+                System.err.println("[EasyWebMap] Failed to delete cached tile: " + e.getMessage());
+            }
+        });
     }
 
     public boolean exists(String worldName, int zoom, int x, int z) {
-        return Files.exists(getTilePath(worldName, zoom, x, z));
+        return Files.exists(getTilePath(worldName, zoom, x, z, TileFormat.PNG));
     }
 
     public void clear() {
-        this.tileTimestamps.clear();
         try {
             if (Files.exists(this.cacheDirectory)) {
                 Files.walk(this.cacheDirectory)
@@ -143,20 +134,15 @@ public class DiskTileCache {
         } catch (IOException e) {
             System.err.println("[EasyWebMap] Failed to clear world cache: " + e.getMessage());
         }
-        this.tileTimestamps.entrySet().removeIf(entry -> entry.getKey().startsWith(worldName + "/"));
     }
 
     public void shutdown() {
         this.diskExecutor.shutdown();
     }
 
-    private Path getTilePath(String worldName, int zoom, int x, int z) {
+    private Path getTilePath(String worldName, int zoom, int x, int z, TileFormat format) {
         return this.cacheDirectory.resolve(worldName).resolve(String.valueOf(zoom))
-                .resolve(x + "_" + z + ".png");
-    }
-
-    private String createKey(String worldName, int zoom, int x, int z) {
-        return worldName + "/" + zoom + "/" + x + "/" + z;
+                .resolve(x + "_" + z + "." + format.getExtension());
     }
 
     public Path getCacheDirectory() {
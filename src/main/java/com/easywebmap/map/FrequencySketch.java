@@ -0,0 +1,87 @@
+package com.easywebmap.map;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import java.util.Arrays;
+
+/**
+ * Count-Min sketch of recent access frequency with 4-bit counters, used by
+ * {@link TileCache} to decide which tile is worth keeping. Counters are halved
+ * periodically so old popularity fades. Not thread-safe; callers hold the cache lock.
+ */
+class FrequencySketch {
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int expectedEntries) {
+        // One long holds sixteen counters, four per row
+        int length = HashCommon.nextPowerOfTwo(Math.max(16, expectedEntries));
+        this.table = new long[length];
+        this.tableMask = length - 1;
+        this.sampleSize = Math.max(160, expectedEntries * 10);
+    }
+
+    int frequency(long key) {
+        int hash = spread(key);
+        int start = (hash & 3) << 2;
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < 4; i++) {
+            int index = this.indexOf(hash, i);
+            int count = (int) ((this.table[index] >>> ((start + i) << 2)) & 0xF);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    void increment(long key) {
+        int hash = spread(key);
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= this.incrementAt(this.indexOf(hash, i), start + i);
+        }
+        if (added && ++this.additions >= this.sampleSize) {
+            this.halve();
+        }
+    }
+
+    void clear() {
+        Arrays.fill(this.table, 0L);
+        this.additions = 0;
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int shift = counter << 2;
+        long mask = 0xFL << shift;
+        if ((this.table[index] & mask) != mask) {
+            this.table[index] += 1L << shift;
+            return true;
+        }
+        return false;
+    }
+
+    private void halve() {
+        for (int i = 0; i < this.table.length; i++) {
+            this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+        }
+        this.additions >>>= 1;
+    }
+
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & this.tableMask;
+    }
+
+    private static int spread(long key) {
+        long h = HashCommon.mix(key);
+        return (int) (h ^ (h >>> 32));
+    }
+}
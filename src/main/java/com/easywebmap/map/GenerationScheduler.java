@@ -0,0 +1,213 @@
+package com.easywebmap.map;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs tile generations with a fixed concurrency limit, without blocking callers.
+ * Jobs beyond the limit wait in a priority queue and callers get a future straight
+ * away, so a Netty thread asking for a tile never parks. A finishing job starts the
+ * next one in priority order, oldest first within a priority.
+ *
+ * Queued jobs whose {@link CancellationToken} is cancelled are dropped without running;
+ * their futures fail with a {@link CancellationException}.
+ */
+public class GenerationScheduler {
+    /**
+     * Job priorities, most urgent first.
+     */
+    public enum Priority {
+        VIEWPORT,
+        COMPOSITE,
+        REFRESH,
+        PREGENERATE
+    }
+
+    private final int maxConcurrent;
+    private final PriorityQueue<Job<?>> queue = new PriorityQueue<>();
+    // Queued jobs by tile key, so a more urgent request can promote them
+    private final Long2ObjectOpenHashMap<Job<?>> queuedByKey = new Long2ObjectOpenHashMap<>();
+    private int running;
+    private long sequence;
+    private long maxWaitNanos;
+
+    private final LongAdder started = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+
+    public GenerationScheduler(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * Run the task now if a slot is free, otherwise queue it. The returned future
+     * completes with the task's result.
+     */
+    public <T> CompletableFuture<T> submit(long key, Priority priority, CancellationToken token,
+                                           Supplier<CompletableFuture<T>> task) {
+        Job<T> job;
+        boolean queued;
+        synchronized (this) {
+            job = new Job<>(key, priority, this.sequence++, token, task);
+            queued = this.running >= this.maxConcurrent;
+            if (queued) {
+                this.queue.add(job);
+                this.queuedByKey.put(key, job);
+            } else {
+                this.running++;
+            }
+        }
+        if (queued) {
+            token.onCancel(() -> this.dropQueued(job));
+        } else {
+            this.start(job);
+        }
+        return job.result;
+    }
+
+    private void dropQueued(Job<?> job) {
+        synchronized (this) {
+            if (!this.queue.remove(job)) {
+                // Already started
+                return;
+            }
+            this.queuedByKey.remove(job.key, job);
+        }
+        this.dropped.increment();
+        job.result.completeExceptionally(new CancellationException("Tile request abandoned"));
+    }
+
+    /**
+     * Raise a queued job to a more urgent priority; no-op if it already started.
+     */
+    public synchronized void promote(long key, Priority priority) {
+        Job<?> job = this.queuedByKey.get(key);
+        if (job != null && priority.ordinal() < job.priority.ordinal()) {
+            this.queue.remove(job);
+            job.priority = priority;
+            this.queue.add(job);
+        }
+    }
+
+    /**
+     * Run jobs in this slot until one is still in flight; its completion picks up from
+     * there. Looping rather than recursing keeps jobs that finish inline off the stack.
+     */
+    private void start(Job<?> first) {
+        Job<?> job = first;
+        while (job != null) {
+            CompletableFuture<?> task = this.launch(job);
+            if (!task.isDone()) {
+                task.whenComplete((value, ex) -> this.start(this.next()));
+                return;
+            }
+            job = this.next();
+        }
+    }
+
+    private <T> CompletableFuture<T> launch(Job<T> job) {
+        if (job.token.isCancelled()) {
+            // Abandoned between leaving the queue and starting
+            this.dropped.increment();
+            job.result.completeExceptionally(new CancellationException("Tile request abandoned"));
+            return job.result;
+        }
+        long waited = System.nanoTime() - job.queuedAt;
+        this.started.increment();
+        this.totalWaitNanos.add(waited);
+        synchronized (this) {
+            this.maxWaitNanos = Math.max(this.maxWaitNanos, waited);
+        }
+
+        CompletableFuture<T> task;
+        try {
+            task = job.task.get();
+        } catch (RuntimeException e) {
+            task = CompletableFuture.failedFuture(e);
+        }
+        task.whenComplete((value, ex) -> {
+            if (ex != null) {
+                job.result.completeExceptionally(ex);
+            } else {
+                job.result.complete(value);
+            }
+        });
+        return task;
+    }
+
+    /**
+     * Hand a finished slot to the most urgent queued job, or free it.
+     */
+    private synchronized Job<?> next() {
+        Job<?> next = this.queue.poll();
+        if (next == null) {
+            this.running--;
+            return null;
+        }
+        this.queuedByKey.remove(next.key, next);
+        return next;
+    }
+
+    public synchronized int getQueueDepth() {
+        return this.queue.size();
+    }
+
+    public synchronized int getRunning() {
+        return this.running;
+    }
+
+    public int getMaxConcurrent() {
+        return this.maxConcurrent;
+    }
+
+    public long getStarted() {
+        return this.started.sum();
+    }
+
+    /**
+     * Jobs dropped because every request waiting on them was cancelled.
+     */
+    public long getDropped() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * Mean time jobs spent queued before starting, in milliseconds.
+     */
+    public double getAverageWaitMs() {
+        long count = this.started.sum();
+        return count == 0 ? 0.0 : this.totalWaitNanos.sum() / 1_000_000.0 / count;
+    }
+
+    public synchronized double getMaxWaitMs() {
+        return this.maxWaitNanos / 1_000_000.0;
+    }
+
+    private static class Job<T> implements Comparable<Job<?>> {
+        final long key;
+        final long sequence;
+        final long queuedAt = System.nanoTime();
+        final CancellationToken token;
+        final Supplier<CompletableFuture<T>> task;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        Priority priority;
+
+        Job(long key, Priority priority, long sequence, CancellationToken token, Supplier<CompletableFuture<T>> task) {
+            this.key = key;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.token = token;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Job<?> other) {
+            int byPriority = Integer.compare(this.priority.ordinal(), other.priority.ordinal());
+            return byPriority != 0 ? byPriority : Long.compare(this.sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.easywebmap.map;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Byte-bounded LRU cache of raw tile pixels for compositing, keyed by packed {@link TileKey}.
+ * Pixels are stored compactly: as palette indices when a tile has at most 256 colors,
+ * otherwise as packed 3-byte RGB. They are expanded back to 0xRRGGBB ints on read.
+ */
+public class PixelCache {
+    // Approximate cost of the entry object, arrays and map slot per tile
+    private static final int ENTRY_OVERHEAD = 96;
+
+    // Thread-local palette so callers can compact tiles concurrently
+    private static final ThreadLocal<ColorPalette> PALETTE = ThreadLocal.withInitial(ColorPalette::new);
+
+    private final Long2ObjectLinkedOpenHashMap<CompactPixels> entries = new Long2ObjectLinkedOpenHashMap<>();
+    private final long maxBytes;
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public PixelCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Expanded copy of a tile's pixels, or null. The caller may modify the array.
+     */
+    public int[] get(long key) {
+        CompactPixels compact;
+        synchronized (this) {
+            compact = this.entries.getAndMoveToLast(key);
+        }
+        if (compact == null) {
+            this.misses.increment();
+            return null;
+        }
+        this.hits.increment();
+        return compact.expand();
+    }
+
+    public void put(long key, int[] pixels) {
+        // Compact outside the lock, this is the expensive part
+        CompactPixels compact = CompactPixels.of(pixels);
+        if (compact.weight() > this.maxBytes) {
+            return;
+        }
+        synchronized (this) {
+            CompactPixels previous = this.entries.putAndMoveToLast(key, compact);
+            if (previous != null) {
+                this.bytes -= previous.weight();
+            }
+            this.bytes += compact.weight();
+            while (this.bytes > this.maxBytes) {
+                this.bytes -= this.entries.removeFirst().weight();
+                this.evictions.increment();
+            }
+        }
+    }
+
+    public synchronized void remove(long key) {
+        CompactPixels removed = this.entries.remove(key);
+        if (removed != null) {
+            this.bytes -= removed.weight();
+        }
+    }
+
+    public synchronized void clear() {
+        this.entries.clear();
+        this.bytes = 0;
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public synchronized long getWeightedBytes() {
+        return this.bytes;
+    }
+
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    public double getHitRate() {
+        long hits = this.hits.sum();
+        long total = hits + this.misses.sum();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    /**
+     * Immutable compact form of a pixel array: one byte per pixel plus a palette,
+     * or three bytes per pixel when there are too many colors.
+     */
+    private static class CompactPixels {
+        final byte[] data;
+        final int[] palette;
+        final int length;
+
+        private CompactPixels(byte[] data, int[] palette, int length) {
+            this.data = data;
+            this.palette = palette;
+            this.length = length;
+        }
+
+        static CompactPixels of(int[] pixels) {
+            ColorPalette colors = PALETTE.get();
+            colors.reset();
+            byte[] indices = new byte[pixels.length];
+            for (int i = 0; i < pixels.length; i++) {
+                int index = colors.indexOf(pixels[i]);
+                if (index < 0) {
+                    return packRgb(pixels);
+                }
+                indices[i] = (byte) index;
+            }
+            int[] palette = new int[colors.size()];
+            for (int i = 0; i < palette.length; i++) {
+                palette[i] = colors.getColor(i);
+            }
+            return new CompactPixels(indices, palette, pixels.length);
+        }
+
+        private static CompactPixels packRgb(int[] pixels) {
+            byte[] rgb = new byte[pixels.length * 3];
+            for (int i = 0, j = 0; i < pixels.length; i++, j += 3) {
+                int pixel = pixels[i];
+                rgb[j] = (byte) (pixel >>> 16);
+                rgb[j + 1] = (byte) (pixel >>> 8);
+                rgb[j + 2] = (byte) pixel;
+            }
+            return new CompactPixels(rgb, null, pixels.length);
+        }
+
+        int[] expand() {
+            int[] pixels = new int[this.length];
+            if (this.palette != null) {
+                if (this.palette.length == 1) {
+                    Arrays.fill(pixels, this.palette[0]);
+                    return pixels;
+                }
+                for (int i = 0; i < pixels.length; i++) {
+                    pixels[i] = this.palette[this.data[i] & 0xFF];
+                }
+                return pixels;
+            }
+            for (int i = 0, j = 0; i < pixels.length; i++, j += 3) {
+                pixels[i] = (this.data[j] & 0xFF) << 16 | (this.data[j + 1] & 0xFF) << 8 | (this.data[j + 2] & 0xFF);
+            }
+            return pixels;
+        }
+
+        int weight() {
+            return this.data.length + (this.palette != null ? this.palette.length * 4 : 0) + ENTRY_OVERHEAD;
+        }
+    }
+}
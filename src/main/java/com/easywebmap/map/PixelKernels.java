@@ -0,0 +1,134 @@
+package com.easywebmap.map;
+
+/**
+ * Shared pixel loops for tile conversion and compositing.
+ * Uses the incubating Vector API when the JVM was started with
+ * {@code --add-modules jdk.incubator.vector}, and plain scalar loops otherwise.
+ */
+public class PixelKernels {
+    private static final boolean VECTORIZED = detectVectorSupport();
+
+    private PixelKernels() {
+    }
+
+    public static boolean isVectorized() {
+        return VECTORIZED;
+    }
+
+    /**
+     * Nearest-neighbour scale RGBA pixels (0xRRGGBBAA) to a square of opaque RGB (0xRRGGBB).
+     * Source coordinates use integer steps, and destination rows that sample the same
+     * source row are copied instead of recomputed.
+     */
+    public static void scaleToRgb(int[] src, int srcWidth, int srcHeight, int[] dest, int destSize) {
+        scaleToRgb(src, srcWidth, srcHeight, dest, destSize, null);
+    }
+
+    /**
+     * {@link #scaleToRgb}, also indexing each row into the palette while it is still in
+     * cache. Rows copied from the one above copy its indices too. Indexing stops once the
+     * palette overflows; the caller then writes truecolor.
+     */
+    public static void scaleToRgb(int[] src, int srcWidth, int srcHeight, int[] dest, int destSize,
+                                  ColorPalette palette) {
+        byte[] indices = palette != null ? palette.getIndexBuffer(dest.length) : null;
+        int[] columns = new int[destSize];
+        for (int x = 0; x < destSize; x++) {
+            columns[x] = (int) ((long) x * srcWidth / destSize);
+        }
+
+        int previousSrcY = -1;
+        for (int y = 0; y < destSize; y++) {
+            int srcY = (int) ((long) y * srcHeight / destSize);
+            int destRowStart = y * destSize;
+            if (srcY == previousSrcY) {
+                System.arraycopy(dest, destRowStart - destSize, dest, destRowStart, destSize);
+                if (indices != null && !palette.isOverflowed()) {
+                    System.arraycopy(indices, destRowStart - destSize, indices, destRowStart, destSize);
+                }
+                continue;
+            }
+            previousSrcY = srcY;
+            int srcRowStart = srcY * srcWidth;
+            if (srcWidth == destSize) {
+                rgbaToRgb(src, srcRowStart, dest, destRowStart, destSize);
+            } else if (VECTORIZED) {
+                VectorPixelKernels.gatherRgbaToRgb(src, srcRowStart, columns, dest, destRowStart, destSize);
+            } else {
+                for (int x = 0; x < destSize; x++) {
+                    dest[destRowStart + x] = src[srcRowStart + columns[x]] >>> 8;
+                }
+            }
+            if (indices != null && !palette.isOverflowed()) {
+                indexRow(dest, destRowStart, destSize, palette, indices);
+            }
+        }
+    }
+
+    private static void indexRow(int[] pixels, int offset, int length, ColorPalette palette, byte[] indices) {
+        for (int i = offset; i < offset + length; i++) {
+            int index = palette.indexOf(pixels[i]);
+            if (index < 0) {
+                return;
+            }
+            indices[i] = (byte) index;
+        }
+    }
+
+    /**
+     * Drop the alpha byte: 0xRRGGBBAA becomes 0x00RRGGBB.
+     */
+    public static void rgbaToRgb(int[] src, int srcOffset, int[] dest, int destOffset, int length) {
+        if (VECTORIZED) {
+            VectorPixelKernels.rgbaToRgb(src, srcOffset, dest, destOffset, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            dest[destOffset + i] = src[srcOffset + i] >>> 8;
+        }
+    }
+
+    /**
+     * Average each 2x2 block of src into one dest pixel (rounded, per channel).
+     * Reads src starting at (srcX, srcY) and writes a width x height region at (destX, destY).
+     */
+    public static void downsample2x(int[] src, int srcSize, int srcX, int srcY,
+                                    int[] dest, int destSize, int destX, int destY, int width, int height) {
+        for (int y = 0; y < height; y++) {
+            int top = (srcY + y * 2) * srcSize + srcX;
+            int bottom = top + srcSize;
+            int destRowStart = (destY + y) * destSize + destX;
+            int x = 0;
+            if (VECTORIZED) {
+                x = VectorPixelKernels.downsample2xRow(src, top, bottom, dest, destRowStart, width);
+            }
+            for (; x < width; x++) {
+                dest[destRowStart + x] = average4(src[top + x * 2], src[top + x * 2 + 1],
+                                                  src[bottom + x * 2], src[bottom + x * 2 + 1]);
+            }
+        }
+    }
+
+    /**
+     * Rounded per-channel mean of four 0xRRGGBB pixels. Red and blue are summed
+     * together in 16-bit fields, green on its own.
+     */
+    static int average4(int a, int b, int c, int d) {
+        int redBlue = (a & 0xFF00FF) + (b & 0xFF00FF) + (c & 0xFF00FF) + (d & 0xFF00FF);
+        int green = (a & 0x00FF00) + (b & 0x00FF00) + (c & 0x00FF00) + (d & 0x00FF00);
+        return (((redBlue + 0x020002) >>> 2) & 0xFF00FF) | (((green + 0x000200) >>> 2) & 0x00FF00);
+    }
+
+    private static boolean detectVectorSupport() {
+        if (!Boolean.parseBoolean(System.getProperty("easywebmap.vector", "true"))) {
+            return false;
+        }
+        try {
+            Class.forName("jdk.incubator.vector.IntVector");
+            return VectorPixelKernels.isUsable();
+        } catch (Throwable e) {
+            // Module not added to the JVM - stay scalar
+            return false;
+        }
+    }
+}
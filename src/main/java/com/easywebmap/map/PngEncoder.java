@@ -1,142 +1,100 @@
 package com.easywebmap.map;
 
 import com.hypixel.hytale.protocol.packets.worldmap.MapImage;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
-import javax.imageio.IIOImage;
-import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.stream.ImageOutputStream;
+import java.util.concurrent.Executor;
 
 /**
- * High-performance PNG encoder with minimal compression for reduced CPU usage.
+ * High-performance PNG encoder for map tiles.
+ * Converts MapImage data to RGB and hands it straight to {@link PngWriter}.
  */
 public class PngEncoder {
     // Cache empty tiles by size - they're always identical
     private static final ConcurrentHashMap<Integer, byte[]> EMPTY_TILE_CACHE = new ConcurrentHashMap<>();
 
-    // Thread-local ImageWriter to avoid repeated lookups
-    private static final ThreadLocal<ImageWriter> PNG_WRITER = ThreadLocal.withInitial(() -> {
-        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("png");
-        return writers.hasNext() ? writers.next() : null;
-    });
+    // Thread-local palette so colors can be counted during RGBA to RGB conversion
+    private static final ThreadLocal<ColorPalette> PALETTE = ThreadLocal.withInitial(ColorPalette::new);
 
     public static byte[] encode(MapImage mapImage, int outputSize) {
-        int srcWidth = mapImage.width;
-        int srcHeight = mapImage.height;
-        int[] srcData = mapImage.data;
-
-        // Pre-allocate output pixel array for bulk setRGB
-        int[] destData = new int[outputSize * outputSize];
-        float scaleX = (float) srcWidth / outputSize;
-        float scaleY = (float) srcHeight / outputSize;
-
-        // Batch process all pixels - convert RGBA to RGB (drop alpha, use opaque)
-        for (int y = 0; y < outputSize; y++) {
-            int destRowStart = y * outputSize;
-            int srcY = Math.min((int) (y * scaleY), srcHeight - 1);
-            int srcRowStart = srcY * srcWidth;
-            for (int x = 0; x < outputSize; x++) {
-                int srcX = Math.min((int) (x * scaleX), srcWidth - 1);
-                int rgba = srcData[srcRowStart + srcX];
-                // Convert RGBA to RGB (opaque)
-                int r = (rgba >> 24) & 0xFF;
-                int g = (rgba >> 16) & 0xFF;
-                int b = (rgba >> 8) & 0xFF;
-                destData[destRowStart + x] = (r << 16) | (g << 8) | b;
-            }
-        }
-
-        // Use RGB (no alpha) - faster encoding
-        BufferedImage buffered = new BufferedImage(outputSize, outputSize, BufferedImage.TYPE_INT_RGB);
-        buffered.setRGB(0, 0, outputSize, outputSize, destData, 0, outputSize);
-
-        return encodeFast(buffered, outputSize);
+        ColorPalette palette = PALETTE.get();
+        int[] destData = convert(mapImage, outputSize, palette);
+        return encodeCounted(destData, palette, outputSize);
     }
 
     /**
      * Encode MapImage and return both PNG bytes and raw RGB pixels for compositing.
      */
     public static TileData encodeWithPixels(MapImage mapImage, int outputSize) {
-        int srcWidth = mapImage.width;
-        int srcHeight = mapImage.height;
-        int[] srcData = mapImage.data;
-
-        int[] destData = new int[outputSize * outputSize];
-        float scaleX = (float) srcWidth / outputSize;
-        float scaleY = (float) srcHeight / outputSize;
-
-        for (int y = 0; y < outputSize; y++) {
-            int destRowStart = y * outputSize;
-            int srcY = Math.min((int) (y * scaleY), srcHeight - 1);
-            int srcRowStart = srcY * srcWidth;
-            for (int x = 0; x < outputSize; x++) {
-                int srcX = Math.min((int) (x * scaleX), srcWidth - 1);
-                int rgba = srcData[srcRowStart + srcX];
-                int r = (rgba >> 24) & 0xFF;
-                int g = (rgba >> 16) & 0xFF;
-                int b = (rgba >> 8) & 0xFF;
-                destData[destRowStart + x] = (r << 16) | (g << 8) | b;
-            }
-        }
-
-        BufferedImage buffered = new BufferedImage(outputSize, outputSize, BufferedImage.TYPE_INT_RGB);
-        buffered.setRGB(0, 0, outputSize, outputSize, destData, 0, outputSize);
-
-        byte[] pngBytes = encodeFast(buffered, outputSize);
+        ColorPalette palette = PALETTE.get();
+        int[] destData = convert(mapImage, outputSize, palette);
+        byte[] pngBytes = encodeCounted(destData, palette, outputSize);
         return new TileData(pngBytes, destData, outputSize);
     }
 
     /**
-     * Fast PNG encoding with minimal compression.
-     * Uses compression level 1 (fastest) instead of default ~6.
+     * Scale MapImage to outputSize and convert to opaque RGB pixels, for other encoders.
      */
-    private static byte[] encodeFast(BufferedImage image, int outputSize) {
-        ByteArrayOutputStream out = new ByteArrayOutputStream(outputSize * outputSize / 2);
+    public static int[] toRgbPixels(MapImage mapImage, int outputSize) {
+        return convert(mapImage, outputSize, null);
+    }
 
-        ImageWriter writer = PNG_WRITER.get();
-        if (writer == null) {
-            // Fallback to standard ImageIO
-            try {
-                ImageIO.write(image, "png", out);
-            } catch (IOException e) {
-                return new byte[0];
-            }
-            return out.toByteArray();
+    /**
+     * Nearest-neighbour scale and RGBA to RGB conversion. When a palette is given,
+     * distinct colors are counted and indexed row by row inside the scaling loop.
+     */
+    private static int[] convert(MapImage mapImage, int outputSize, ColorPalette palette) {
+        int[] destData = new int[outputSize * outputSize];
+        if (palette != null) {
+            palette.reset();
         }
+        PixelKernels.scaleToRgb(mapImage.data, mapImage.width, mapImage.height, destData, outputSize, palette);
+        return destData;
+    }
 
-        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
-            writer.setOutput(ios);
+    /**
+     * Encode square RGB pixels (0xRRGGBB) as PNG.
+     * Low-color images are written indexed, everything else as truecolor.
+     */
+    public static byte[] encodeFast(int[] pixels, int outputSize) {
+        return PngWriter.encode(pixels, outputSize, outputSize);
+    }
 
-            ImageWriteParam param = writer.getDefaultWriteParam();
-            if (param.canWriteCompressed()) {
-                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-                // Compression quality 1.0 = fastest (least compression)
-                // This is counterintuitive but for PNG: 1.0 = less compression = faster
-                param.setCompressionQuality(1.0f);
-            }
+    /**
+     * Encode square RGB pixels, deflating row blocks concurrently on the executor.
+     */
+    public static byte[] encodeParallel(int[] pixels, int outputSize, Executor executor, int blocks) {
+        return PngWriter.encodeParallel(pixels, outputSize, outputSize, executor, blocks);
+    }
 
-            writer.write(null, new IIOImage(image, null, null), param);
-            writer.reset();
-        } catch (IOException e) {
-            return new byte[0];
+    private static byte[] encodeCounted(int[] pixels, ColorPalette palette, int outputSize) {
+        if (palette.isOverflowed()) {
+            return PngWriter.encodeRgb(pixels, outputSize, outputSize);
         }
-
-        return out.toByteArray();
+        return PngWriter.encodeIndexed(palette.getIndexBuffer(pixels.length), palette, outputSize, outputSize);
     }
 
     /**
      * Get cached empty tile - generates once per size, reuses forever.
      */
     public static byte[] encodeEmpty(int size) {
-        return EMPTY_TILE_CACHE.computeIfAbsent(size, s -> {
-            BufferedImage buffered = new BufferedImage(s, s, BufferedImage.TYPE_INT_RGB);
-            return encodeFast(buffered, s);
-        });
+        return EMPTY_TILE_CACHE.computeIfAbsent(size, s -> encodeFast(new int[s * s], s));
+    }
+
+    /**
+     * Check whether PNG bytes are missing or one of the cached empty tiles.
+     * Compressed real tiles can be tiny, so size alone is not a reliable signal.
+     */
+    public static boolean isEmptyTile(byte[] data) {
+        if (data == null || data.length == 0) {
+            return true;
+        }
+        for (byte[] empty : EMPTY_TILE_CACHE.values()) {
+            if (data == empty || Arrays.equals(data, empty)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public static class TileData {
@@ -151,7 +109,7 @@ public class PngEncoder {
         }
 
         public boolean isEmpty() {
-            return pngBytes == null || pngBytes.length < 500;
+            return this.pixels == null || this.pixels.length == 0 || isEmptyTile(this.pngBytes);
         }
     }
 }
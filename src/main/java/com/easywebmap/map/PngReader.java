@@ -0,0 +1,226 @@
+package com.easywebmap.map;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Minimal PNG decoder for tiles read back from the disk cache, so composites can be
+ * rebuilt without re-rendering their base tiles. Handles what {@link PngWriter} writes
+ * (8-bit truecolor and 1/2/4/8-bit indexed) plus 8-bit gray and alpha variants.
+ * Interlaced or 16-bit images are not supported.
+ */
+public class PngReader {
+    private static final int CHUNK_IHDR = 0x49484452;
+    private static final int CHUNK_PLTE = 0x504C5445;
+    private static final int CHUNK_IDAT = 0x49444154;
+    private static final int CHUNK_IEND = 0x49454E44;
+    private static final int COLOR_TYPE_GRAY = 0;
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int COLOR_TYPE_INDEXED = 3;
+    private static final int COLOR_TYPE_GRAY_ALPHA = 4;
+    private static final int COLOR_TYPE_RGBA = 6;
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_AVERAGE = 3;
+    private static final int FILTER_PAETH = 4;
+
+    private PngReader() {
+    }
+
+    /**
+     * Decode a square PNG to opaque RGB pixels (0xRRGGBB), dropping any alpha.
+     * Returns null if the data is not a supported PNG of the expected size.
+     */
+    public static int[] decode(byte[] png, int expectedSize) {
+        try {
+            return decodeChecked(png, expectedSize);
+        } catch (DataFormatException | RuntimeException e) {
+            // Truncated or corrupt file - the caller re-renders instead
+            return null;
+        }
+    }
+
+    private static int[] decodeChecked(byte[] png, int expectedSize) throws DataFormatException {
+        if (png == null || png.length < 8 + 25 || readInt(png, 0) != 0x89504E47 || readInt(png, 4) != 0x0D0A1A0A) {
+            return null;
+        }
+        int width = 0;
+        int height = 0;
+        int bitDepth = 0;
+        int colorType = 0;
+        int[] palette = null;
+        byte[] raw = null;
+        int rawLength = 0;
+        Inflater inflater = new Inflater();
+        try {
+            int pos = 8;
+            while (pos + 8 <= png.length) {
+                int length = readInt(png, pos);
+                int type = readInt(png, pos + 4);
+                int data = pos + 8;
+                if (length < 0 || data + length > png.length) {
+                    return null;
+                }
+                if (type == CHUNK_IHDR) {
+                    width = readInt(png, data);
+                    height = readInt(png, data + 4);
+                    bitDepth = png[data + 8] & 0xFF;
+                    colorType = png[data + 9] & 0xFF;
+                    int interlace = png[data + 12] & 0xFF;
+                    if (width != expectedSize || height != expectedSize || interlace != 0 || !isSupported(bitDepth, colorType)) {
+                        return null;
+                    }
+                    raw = new byte[height * (1 + bytesPerRow(width, bitDepth, colorType))];
+                } else if (type == CHUNK_PLTE) {
+                    palette = new int[length / 3];
+                    for (int i = 0; i < palette.length; i++) {
+                        int p = data + i * 3;
+                        palette[i] = (png[p] & 0xFF) << 16 | (png[p + 1] & 0xFF) << 8 | (png[p + 2] & 0xFF);
+                    }
+                } else if (type == CHUNK_IDAT) {
+                    if (raw == null) {
+                        return null;
+                    }
+                    inflater.setInput(png, data, length);
+                    while (!inflater.needsInput() && rawLength < raw.length) {
+                        int read = inflater.inflate(raw, rawLength, raw.length - rawLength);
+                        if (read == 0 && (inflater.finished() || inflater.needsDictionary())) {
+                            break;
+                        }
+                        rawLength += read;
+                    }
+                } else if (type == CHUNK_IEND) {
+                    break;
+                }
+                // Skip data and CRC
+                pos = data + length + 4;
+            }
+        } finally {
+            inflater.end();
+        }
+        if (raw == null || rawLength != raw.length || (colorType == COLOR_TYPE_INDEXED && palette == null)) {
+            return null;
+        }
+        return toPixels(raw, width, height, bitDepth, colorType, palette);
+    }
+
+    private static boolean isSupported(int bitDepth, int colorType) {
+        if (colorType == COLOR_TYPE_INDEXED) {
+            return bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8;
+        }
+        return bitDepth == 8 && (colorType == COLOR_TYPE_GRAY || colorType == COLOR_TYPE_RGB
+            || colorType == COLOR_TYPE_GRAY_ALPHA || colorType == COLOR_TYPE_RGBA);
+    }
+
+    private static int channels(int colorType) {
+        return switch (colorType) {
+            case COLOR_TYPE_RGB -> 3;
+            case COLOR_TYPE_GRAY_ALPHA -> 2;
+            case COLOR_TYPE_RGBA -> 4;
+            default -> 1;
+        };
+    }
+
+    private static int bytesPerRow(int width, int bitDepth, int colorType) {
+        return (width * channels(colorType) * bitDepth + 7) / 8;
+    }
+
+    /**
+     * Undo the per-row filters in place and convert each row to RGB.
+     */
+    private static int[] toPixels(byte[] raw, int width, int height, int bitDepth, int colorType, int[] palette) {
+        int stride = bytesPerRow(width, bitDepth, colorType);
+        // Filters work on whole bytes, one pixel back (at least one byte)
+        int bpp = Math.max(1, channels(colorType) * bitDepth / 8);
+        int[] pixels = new int[width * height];
+        int previous = -1;
+
+        for (int y = 0; y < height; y++) {
+            int row = y * (stride + 1);
+            int filter = raw[row];
+            int start = row + 1;
+            unfilter(raw, filter, start, previous, stride, bpp);
+            previous = start;
+
+            int out = y * width;
+            switch (colorType) {
+                case COLOR_TYPE_RGB -> {
+                    for (int x = 0, p = start; x < width; x++, p += 3) {
+                        pixels[out + x] = (raw[p] & 0xFF) << 16 | (raw[p + 1] & 0xFF) << 8 | (raw[p + 2] & 0xFF);
+                    }
+                }
+                case COLOR_TYPE_RGBA -> {
+                    for (int x = 0, p = start; x < width; x++, p += 4) {
+                        pixels[out + x] = (raw[p] & 0xFF) << 16 | (raw[p + 1] & 0xFF) << 8 | (raw[p + 2] & 0xFF);
+                    }
+                }
+                case COLOR_TYPE_GRAY, COLOR_TYPE_GRAY_ALPHA -> {
+                    int step = channels(colorType);
+                    for (int x = 0, p = start; x < width; x++, p += step) {
+                        pixels[out + x] = (raw[p] & 0xFF) * 0x010101;
+                    }
+                }
+                default -> {
+                    int perByte = 8 / bitDepth;
+                    int mask = (1 << bitDepth) - 1;
+                    for (int x = 0; x < width; x++) {
+                        int b = raw[start + x / perByte] & 0xFF;
+                        int shift = 8 - bitDepth * (x % perByte + 1);
+                        int index = (b >>> shift) & mask;
+                        pixels[out + x] = index < palette.length ? palette[index] : 0;
+                    }
+                }
+            }
+        }
+        return pixels;
+    }
+
+    private static void unfilter(byte[] raw, int filter, int start, int previous, int stride, int bpp) {
+        switch (filter) {
+            case FILTER_NONE -> {
+            }
+            case FILTER_SUB -> {
+                for (int i = bpp; i < stride; i++) {
+                    raw[start + i] += raw[start + i - bpp];
+                }
+            }
+            case FILTER_UP -> {
+                if (previous < 0) return;
+                for (int i = 0; i < stride; i++) {
+                    raw[start + i] += raw[previous + i];
+                }
+            }
+            case FILTER_AVERAGE -> {
+                for (int i = 0; i < stride; i++) {
+                    int left = i >= bpp ? raw[start + i - bpp] & 0xFF : 0;
+                    int up = previous >= 0 ? raw[previous + i] & 0xFF : 0;
+                    raw[start + i] += (byte) ((left + up) >>> 1);
+                }
+            }
+            case FILTER_PAETH -> {
+                for (int i = 0; i < stride; i++) {
+                    int left = i >= bpp ? raw[start + i - bpp] & 0xFF : 0;
+                    int up = previous >= 0 ? raw[previous + i] & 0xFF : 0;
+                    int upLeft = i >= bpp && previous >= 0 ? raw[previous + i - bpp] & 0xFF : 0;
+                    raw[start + i] += (byte) paethPredictor(left, up, upLeft);
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown PNG filter " + filter);
+        }
+    }
+
+    private static int paethPredictor(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) return a;
+        if (pb <= pc) return b;
+        return c;
+    }
+
+    private static int readInt(byte[] data, int pos) {
+        return (data[pos] & 0xFF) << 24 | (data[pos + 1] & 0xFF) << 16 | (data[pos + 2] & 0xFF) << 8 | (data[pos + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,450 @@
+package com.easywebmap.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Streaming PNG writer that encodes packed RGB pixel arrays directly.
+ * Writes IHDR/(PLTE)/IDAT/IEND without BufferedImage or ImageIO, reusing a per-thread
+ * Deflater and row buffers. Truecolor scanlines get the filter with the smallest
+ * sum of absolute differences (the usual libpng heuristic); tiles with at most
+ * 256 colors are written as 1/2/4/8-bit indexed PNGs instead.
+ * Large truecolor images can be split into row blocks that are filtered and
+ * deflated concurrently, pigz-style, then stitched into a single zlib stream.
+ */
+public class PngWriter {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int CHUNK_IHDR = 0x49484452;
+    private static final int CHUNK_PLTE = 0x504C5445;
+    private static final int CHUNK_IDAT = 0x49444154;
+    private static final int CHUNK_IEND = 0x49454E44;
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int COLOR_TYPE_INDEXED = 3;
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_AVERAGE = 3;
+    private static final int FILTER_PAETH = 4;
+    private static final int FILTER_COUNT = 5;
+    // Level 1 with row filtering is both faster and smaller than ImageIO's stored output
+    private static final int COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+    // zlib header for deflate with a 32K window at the fastest level
+    private static final byte[] ZLIB_HEADER = {0x78, 0x01};
+    private static final int DEFLATE_WINDOW = 32 * 1024;
+    private static final int ADLER_BASE = 65521;
+
+    private static final ThreadLocal<PngWriter> WRITER = ThreadLocal.withInitial(PngWriter::new);
+
+    private final Deflater deflater = new Deflater(COMPRESSION_LEVEL);
+    // Headerless deflater for blocks of a parallel encode
+    private final Deflater blockDeflater = new Deflater(COMPRESSION_LEVEL, true);
+    private final Adler32 adler = new Adler32();
+    private byte[] dictionary = new byte[DEFLATE_WINDOW];
+    private final CRC32 crc = new CRC32();
+    private final ColorPalette palette = new ColorPalette();
+    private final byte[][] filtered = new byte[FILTER_COUNT][];
+    private byte[] previousRow = new byte[0];
+    private byte[] currentRow = new byte[0];
+    private byte[] idat = new byte[64 * 1024];
+    private int idatLength;
+
+    private PngWriter() {
+    }
+
+    /**
+     * Encode opaque 0xRRGGBB pixels, using an indexed PNG when the image has
+     * at most 256 colors and falling back to truecolor otherwise.
+     */
+    public static byte[] encode(int[] pixels, int width, int height) {
+        PngWriter writer = WRITER.get();
+        if (!writer.indexColors(pixels, width * height)) {
+            return writer.writeRgb(pixels, width, height);
+        }
+        return writer.writeIndexed(writer.palette.getIndexBuffer(width * height), writer.palette, width, height);
+    }
+
+    /**
+     * Like {@link #encode}, but truecolor images are split into {@code blocks} row ranges
+     * deflated concurrently on the executor. The calling thread compresses the first block.
+     * Indexed images are small and cheap, so they are still written on one thread.
+     */
+    public static byte[] encodeParallel(int[] pixels, int width, int height, Executor executor, int blocks) {
+        PngWriter writer = WRITER.get();
+        if (writer.indexColors(pixels, width * height)) {
+            return writer.writeIndexed(writer.palette.getIndexBuffer(width * height), writer.palette, width, height);
+        }
+        blocks = Math.min(blocks, height);
+        if (blocks <= 1) {
+            return writer.writeRgb(pixels, width, height);
+        }
+
+        int rowsPerBlock = (height + blocks - 1) / blocks;
+        List<CompletableFuture<DeflateBlock>> pending = new ArrayList<>();
+        for (int start = rowsPerBlock; start < height; start += rowsPerBlock) {
+            int blockStart = start;
+            int blockEnd = Math.min(start + rowsPerBlock, height);
+            pending.add(CompletableFuture.supplyAsync(
+                    () -> WRITER.get().deflateRows(pixels, width, blockStart, blockEnd, blockEnd == height), executor));
+        }
+        DeflateBlock first = writer.deflateRows(pixels, width, 0, rowsPerBlock, false);
+
+        // zlib header, raw deflate blocks in order, then the combined Adler-32 of all filtered rows
+        writer.idatLength = 0;
+        writer.appendIdat(ZLIB_HEADER, ZLIB_HEADER.length);
+        writer.appendIdat(first.data, first.data.length);
+        long checksum = first.adler;
+        for (CompletableFuture<DeflateBlock> future : pending) {
+            DeflateBlock block = future.join();
+            writer.appendIdat(block.data, block.data.length);
+            checksum = combineAdler(checksum, block.adler, block.inputLength);
+        }
+        byte[] trailer = new byte[4];
+        writeInt(trailer, 0, (int) checksum);
+        writer.appendIdat(trailer, 4);
+        return writer.assemble(width, height, 8, COLOR_TYPE_RGB, null);
+    }
+
+    /**
+     * Encode opaque 0xRRGGBB pixels as a truecolor PNG.
+     */
+    public static byte[] encodeRgb(int[] pixels, int width, int height) {
+        return WRITER.get().writeRgb(pixels, width, height);
+    }
+
+    /**
+     * Encode pre-computed palette indices (row-major, one byte per pixel).
+     */
+    public static byte[] encodeIndexed(byte[] indices, ColorPalette palette, int width, int height) {
+        return WRITER.get().writeIndexed(indices, palette, width, height);
+    }
+
+    /**
+     * Index every pixel into the writer's palette. Returns false once it overflows.
+     */
+    private boolean indexColors(int[] pixels, int count) {
+        ColorPalette palette = this.palette;
+        palette.reset();
+        byte[] indices = palette.getIndexBuffer(count);
+        for (int i = 0; i < count; i++) {
+            int index = palette.indexOf(pixels[i]);
+            if (index < 0) {
+                return false;
+            }
+            indices[i] = (byte) index;
+        }
+        return true;
+    }
+
+    private byte[] writeRgb(int[] pixels, int width, int height) {
+        int stride = width * 3;
+        this.ensureRowCapacity(stride);
+        this.deflater.reset();
+        this.idatLength = 0;
+
+        for (int y = 0; y < height; y++) {
+            byte[] line = this.filterPixelRow(pixels, width, y);
+            this.deflater.setInput(line, 0, stride + 1);
+            this.drainDeflater(this.deflater);
+        }
+
+        this.finishDeflater(this.deflater);
+        return this.assemble(width, height, 8, COLOR_TYPE_RGB, null);
+    }
+
+    /**
+     * Filter and raw-deflate rows [startRow, endRow). The deflater is primed with the
+     * filtered rows just before the block so matches can reach back across the seam.
+     * Non-final blocks end on a sync flush so they can be concatenated byte-aligned.
+     */
+    private DeflateBlock deflateRows(int[] pixels, int width, int startRow, int endRow, boolean last) {
+        int stride = width * 3;
+        this.ensureRowCapacity(stride);
+        this.blockDeflater.reset();
+        this.adler.reset();
+        this.idatLength = 0;
+
+        int primeRows = startRow > 0 ? Math.min(startRow, (DEFLATE_WINDOW + stride) / (stride + 1)) : 0;
+        int dictionaryLength = 0;
+        if (primeRows > 0) {
+            if (this.dictionary.length < primeRows * (stride + 1)) {
+                this.dictionary = new byte[primeRows * (stride + 1)];
+            }
+            // The row above the primed range seeds the Up/Average/Paeth predictors
+            this.loadRow(pixels, width, startRow - primeRows - 1, this.previousRow);
+        }
+        for (int y = startRow - primeRows; y < endRow; y++) {
+            byte[] line = this.filterPixelRow(pixels, width, y);
+            if (y < startRow) {
+                System.arraycopy(line, 0, this.dictionary, dictionaryLength, stride + 1);
+                dictionaryLength += stride + 1;
+                if (y == startRow - 1) {
+                    int window = Math.min(dictionaryLength, DEFLATE_WINDOW);
+                    this.blockDeflater.setDictionary(this.dictionary, dictionaryLength - window, window);
+                }
+                continue;
+            }
+            this.adler.update(line, 0, stride + 1);
+            this.blockDeflater.setInput(line, 0, stride + 1);
+            this.drainDeflater(this.blockDeflater);
+        }
+
+        if (last) {
+            this.finishDeflater(this.blockDeflater);
+        } else {
+            // A flush that fills the buffer may have more pending output
+            do {
+                this.deflateInto(this.blockDeflater, Deflater.SYNC_FLUSH);
+            } while (this.idatLength == this.idat.length);
+        }
+        long inputLength = (long) (endRow - startRow) * (stride + 1);
+        return new DeflateBlock(Arrays.copyOf(this.idat, this.idatLength), this.adler.getValue(), inputLength);
+    }
+
+    /**
+     * Convert pixel row y into the current row and filter it against the previous one.
+     * Returns the chosen filtered line; the raw row becomes the new previous row.
+     */
+    private byte[] filterPixelRow(int[] pixels, int width, int y) {
+        byte[] row = this.currentRow;
+        this.loadRow(pixels, width, y, row);
+        byte[] line = this.filterRow(width * 3, 3);
+        this.currentRow = this.previousRow;
+        this.previousRow = row;
+        return line;
+    }
+
+    private void loadRow(int[] pixels, int width, int y, byte[] row) {
+        if (y < 0) {
+            Arrays.fill(row, 0, width * 3, (byte) 0);
+            return;
+        }
+        int src = y * width;
+        for (int x = 0, i = 0; x < width; x++, i += 3) {
+            int rgb = pixels[src + x];
+            row[i] = (byte) (rgb >> 16);
+            row[i + 1] = (byte) (rgb >> 8);
+            row[i + 2] = (byte) rgb;
+        }
+    }
+
+    private byte[] writeIndexed(byte[] indices, ColorPalette palette, int width, int height) {
+        int bitDepth = palette.getBitDepth();
+        int stride = (width * bitDepth + 7) >>> 3;
+        this.ensureRowCapacity(stride);
+        this.deflater.reset();
+        this.idatLength = 0;
+
+        // Filtering rarely helps palette data, so every row uses filter type 0
+        byte[] line = this.filtered[FILTER_NONE];
+        int pixelsPerByte = 8 / bitDepth;
+        for (int y = 0; y < height; y++) {
+            int src = y * width;
+            if (bitDepth == 8) {
+                System.arraycopy(indices, src, line, 1, width);
+            } else {
+                Arrays.fill(line, 1, stride + 1, (byte) 0);
+                for (int x = 0; x < width; x++) {
+                    int shift = 8 - bitDepth * (x % pixelsPerByte + 1);
+                    line[1 + x / pixelsPerByte] |= (byte) ((indices[src + x] & 0xFF) << shift);
+                }
+            }
+            this.deflater.setInput(line, 0, stride + 1);
+            this.drainDeflater(this.deflater);
+        }
+
+        this.finishDeflater(this.deflater);
+        return this.assemble(width, height, bitDepth, COLOR_TYPE_INDEXED, palette);
+    }
+
+    /**
+     * Apply all five PNG filters to the current row and return the cheapest one,
+     * including its leading filter-type byte.
+     */
+    private byte[] filterRow(int stride, int bpp) {
+        byte[] row = this.currentRow;
+        byte[] prev = this.previousRow;
+        byte[] none = this.filtered[FILTER_NONE];
+        byte[] sub = this.filtered[FILTER_SUB];
+        byte[] up = this.filtered[FILTER_UP];
+        byte[] avg = this.filtered[FILTER_AVERAGE];
+        byte[] paeth = this.filtered[FILTER_PAETH];
+
+        int sumNone = 0;
+        int sumSub = 0;
+        int sumUp = 0;
+        int sumAvg = 0;
+        int sumPaeth = 0;
+
+        for (int i = 0; i < stride; i++) {
+            int x = row[i] & 0xFF;
+            int b = prev[i] & 0xFF;
+            int a = 0;
+            int c = 0;
+            if (i >= bpp) {
+                a = row[i - bpp] & 0xFF;
+                c = prev[i - bpp] & 0xFF;
+            }
+
+            byte vSub = (byte) (x - a);
+            byte vUp = (byte) (x - b);
+            byte vAvg = (byte) (x - ((a + b) >>> 1));
+            byte vPaeth = (byte) (x - paethPredictor(a, b, c));
+
+            none[i + 1] = (byte) x;
+            sub[i + 1] = vSub;
+            up[i + 1] = vUp;
+            avg[i + 1] = vAvg;
+            paeth[i + 1] = vPaeth;
+
+            sumNone += x < 128 ? x : 256 - x;
+            sumSub += Math.abs(vSub);
+            sumUp += Math.abs(vUp);
+            sumAvg += Math.abs(vAvg);
+            sumPaeth += Math.abs(vPaeth);
+        }
+
+        int best = FILTER_NONE;
+        int bestSum = sumNone;
+        if (sumSub < bestSum) { best = FILTER_SUB; bestSum = sumSub; }
+        if (sumUp < bestSum) { best = FILTER_UP; bestSum = sumUp; }
+        if (sumAvg < bestSum) { best = FILTER_AVERAGE; bestSum = sumAvg; }
+        if (sumPaeth < bestSum) { best = FILTER_PAETH; }
+        return this.filtered[best];
+    }
+
+    private static int paethPredictor(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) return a;
+        if (pb <= pc) return b;
+        return c;
+    }
+
+    private void drainDeflater(Deflater deflater) {
+        while (!deflater.needsInput()) {
+            this.deflateInto(deflater, Deflater.NO_FLUSH);
+        }
+    }
+
+    private void finishDeflater(Deflater deflater) {
+        deflater.finish();
+        while (!deflater.finished()) {
+            this.deflateInto(deflater, Deflater.NO_FLUSH);
+        }
+    }
+
+    private void deflateInto(Deflater deflater, int flush) {
+        this.growIdat(1);
+        this.idatLength += deflater.deflate(this.idat, this.idatLength, this.idat.length - this.idatLength, flush);
+    }
+
+    private void appendIdat(byte[] data, int length) {
+        this.growIdat(length);
+        System.arraycopy(data, 0, this.idat, this.idatLength, length);
+        this.idatLength += length;
+    }
+
+    private void growIdat(int needed) {
+        if (this.idat.length - this.idatLength < needed) {
+            this.idat = Arrays.copyOf(this.idat, Math.max(this.idat.length * 2, this.idatLength + needed));
+        }
+    }
+
+    /**
+     * Adler-32 of two concatenated byte ranges from their separate checksums (zlib's adler32_combine).
+     */
+    private static long combineAdler(long adler1, long adler2, long length2) {
+        long remainder = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (remainder * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + ADLER_BASE - remainder;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum2 >= ((long) ADLER_BASE << 1)) sum2 -= ((long) ADLER_BASE << 1);
+        if (sum2 >= ADLER_BASE) sum2 -= ADLER_BASE;
+        return (sum2 << 16) | sum1;
+    }
+
+    private byte[] assemble(int width, int height, int bitDepth, int colorType, ColorPalette palette) {
+        // signature + IHDR(13) + [PLTE] + IDAT + IEND, each chunk framed by length/type/crc
+        int paletteLength = palette != null ? palette.size() * 3 : 0;
+        int plteChunk = palette != null ? 12 + paletteLength : 0;
+        byte[] png = new byte[SIGNATURE.length + (12 + 13) + plteChunk + (12 + this.idatLength) + 12];
+        System.arraycopy(SIGNATURE, 0, png, 0, SIGNATURE.length);
+        int pos = SIGNATURE.length;
+
+        byte[] header = new byte[13];
+        writeInt(header, 0, width);
+        writeInt(header, 4, height);
+        header[8] = (byte) bitDepth;
+        header[9] = (byte) colorType;
+        header[10] = 0; // deflate
+        header[11] = 0; // adaptive filtering
+        header[12] = 0; // no interlace
+        pos = this.writeChunk(png, pos, CHUNK_IHDR, header, 13);
+        if (palette != null) {
+            byte[] entries = new byte[paletteLength];
+            for (int i = 0, j = 0; i < palette.size(); i++, j += 3) {
+                int rgb = palette.getColor(i);
+                entries[j] = (byte) (rgb >> 16);
+                entries[j + 1] = (byte) (rgb >> 8);
+                entries[j + 2] = (byte) rgb;
+            }
+            pos = this.writeChunk(png, pos, CHUNK_PLTE, entries, paletteLength);
+        }
+        pos = this.writeChunk(png, pos, CHUNK_IDAT, this.idat, this.idatLength);
+        this.writeChunk(png, pos, CHUNK_IEND, header, 0);
+        return png;
+    }
+
+    private int writeChunk(byte[] dest, int pos, int type, byte[] data, int length) {
+        writeInt(dest, pos, length);
+        writeInt(dest, pos + 4, type);
+        System.arraycopy(data, 0, dest, pos + 8, length);
+        this.crc.reset();
+        this.crc.update(dest, pos + 4, length + 4);
+        writeInt(dest, pos + 8 + length, (int) this.crc.getValue());
+        return pos + 12 + length;
+    }
+
+    private static void writeInt(byte[] dest, int pos, int value) {
+        dest[pos] = (byte) (value >>> 24);
+        dest[pos + 1] = (byte) (value >>> 16);
+        dest[pos + 2] = (byte) (value >>> 8);
+        dest[pos + 3] = (byte) value;
+    }
+
+    private void ensureRowCapacity(int stride) {
+        if (this.currentRow.length < stride) {
+            this.currentRow = new byte[stride];
+            this.previousRow = new byte[stride];
+            for (int f = 0; f < FILTER_COUNT; f++) {
+                this.filtered[f] = new byte[stride + 1];
+                this.filtered[f][0] = (byte) f;
+            }
+        } else {
+            Arrays.fill(this.previousRow, 0, stride, (byte) 0);
+        }
+    }
+
+    private static class DeflateBlock {
+        final byte[] data;
+        final long adler;
+        final long inputLength;
+
+        DeflateBlock(byte[] data, long adler, long inputLength) {
+            this.data = data;
+            this.adler = adler;
+            this.inputLength = inputLength;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.easywebmap.map;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Collapses concurrent loads of the same packed key into one. The first caller claims
+ * the key atomically and runs the loader; everyone else shares its future until it
+ * completes. Loaders should fill their caches before completing, so a request arriving
+ * right after the key is released finds the result cached.
+ *
+ * Each load gets a shared {@link CancellationToken} that every joining request is
+ * attached to; it is cancelled only when all of them have given up. A load whose
+ * token is already cancelled is not joined, a fresh one replaces it.
+ */
+public class SingleFlight<T> {
+    private final ConcurrentLongMap<Flight<T>> inFlight = new ConcurrentLongMap<>();
+    private final LongAdder deduplicated = new LongAdder();
+
+    /**
+     * The running load for a key, or null if there is none.
+     */
+    public CompletableFuture<T> join(long key, CancellationToken requester) {
+        Flight<T> running = this.inFlight.get(key);
+        if (running == null || !running.interest.attach(requester)) {
+            return null;
+        }
+        this.deduplicated.increment();
+        return running.result;
+    }
+
+    /**
+     * Join the running load for a key, or start one with the loader. The loader gets
+     * the load's shared token to pass on to the work it starts.
+     */
+    public CompletableFuture<T> run(long key, CancellationToken requester,
+                                   Function<CancellationToken, CompletableFuture<T>> loader) {
+        Flight<T> claimed = new Flight<>();
+        claimed.interest.attach(requester);
+        while (true) {
+            Flight<T> running = this.inFlight.putIfAbsent(key, claimed);
+            if (running == null) {
+                break;
+            }
+            if (running.interest.attach(requester)) {
+                this.deduplicated.increment();
+                return running.result;
+            }
+            // Abandoned by everyone, about to be dropped - replace it
+            this.inFlight.remove(key, running);
+        }
+        this.start(key, claimed, loader);
+        return claimed.result;
+    }
+
+    /**
+     * Start a new load even if one is running, for callers that know the running one is
+     * stale. Later callers join the new load.
+     */
+    public CompletableFuture<T> restart(long key, CancellationToken requester,
+                                       Function<CancellationToken, CompletableFuture<T>> loader) {
+        Flight<T> claimed = new Flight<>();
+        claimed.interest.attach(requester);
+        this.inFlight.put(key, claimed);
+        this.start(key, claimed, loader);
+        return claimed.result;
+    }
+
+    private void start(long key, Flight<T> claimed, Function<CancellationToken, CompletableFuture<T>> loader) {
+        // The loader runs outside the map's lock; the placeholder is what others wait on
+        CompletableFuture<T> load;
+        try {
+            load = loader.apply(claimed.interest);
+        } catch (RuntimeException e) {
+            load = CompletableFuture.failedFuture(e);
+        }
+        load.whenComplete((value, ex) -> {
+            this.inFlight.remove(key, claimed);
+            if (ex != null) {
+                claimed.result.completeExceptionally(ex);
+            } else {
+                claimed.result.complete(value);
+            }
+        });
+    }
+
+    /**
+     * Whether a load for the key is in progress.
+     */
+    public boolean isRunning(long key) {
+        return this.inFlight.containsKey(key);
+    }
+
+    /**
+     * Whether the load owning this shared token is still the one registered for the key,
+     * i.e. it has not been replaced by {@link #restart}. Loaders can check this before
+     * caching their result.
+     */
+    public boolean isCurrent(long key, CancellationToken interest) {
+        Flight<T> running = this.inFlight.get(key);
+        return running != null && running.interest == interest;
+    }
+
+    public int size() {
+        return this.inFlight.size();
+    }
+
+    public long getDeduplicated() {
+        return this.deduplicated.sum();
+    }
+
+    private static class Flight<T> {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final CancellationToken interest = CancellationToken.shared();
+    }
+}
@@ -1,68 +1,383 @@
 package com.easywebmap.map;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.atomic.AtomicInteger;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Lock-free tile cache using ConcurrentHashMap.
- * Uses a deque to track access order for LRU eviction.
+ * Byte-bounded tile cache keyed by packed {@link TileKey} longs, using W-TinyLFU.
+ * New tiles enter a small LRU window; when they leave it they must beat the main
+ * region's eviction victim on estimated frequency to stay. The main region is a
+ * segmented LRU (probation + protected), so a single pan across the map cannot
+ * flush tiles that are requested over and over.
+ *
+ * Reads never block on the cache-wide lock: a lookup holds one of the map's stripe
+ * locks and the node's own lock only long enough to retain its buffer. Reordering on
+ * a hit is done under a tryLock and skipped when the lock is busy.
+ *
+ * Tile bytes live off-heap in buffers from a pooled (arena) allocator. The cache owns
+ * one reference per tile and releases it on eviction; readers get retained slices,
+ * taken under the node's lock so they never retain a buffer already handed back.
  */
 public class TileCache {
-    private final ConcurrentHashMap<String, byte[]> cache;
-    private final ConcurrentLinkedDeque<String> accessOrder;
-    private final int maxSize;
-    private final AtomicInteger size;
-
-    public TileCache(int maxSize) {
-        this.maxSize = maxSize;
-        this.cache = new ConcurrentHashMap<>(maxSize);
-        this.accessOrder = new ConcurrentLinkedDeque<>();
-        this.size = new AtomicInteger(0);
-    }
-
-    public byte[] get(String key) {
-        byte[] value = this.cache.get(key);
-        if (value != null) {
-            // Move to end for LRU (async, non-blocking)
-            this.accessOrder.remove(key);
-            this.accessOrder.addLast(key);
-        }
-        return value;
-    }
-
-    public void put(String key, byte[] data) {
-        if (this.cache.putIfAbsent(key, data) == null) {
-            this.accessOrder.addLast(key);
-            int currentSize = this.size.incrementAndGet();
-            // Evict if over capacity
-            while (currentSize > this.maxSize) {
-                String oldest = this.accessOrder.pollFirst();
-                if (oldest != null && this.cache.remove(oldest) != null) {
-                    currentSize = this.size.decrementAndGet();
-                } else {
-                    break;
+    // Approximate cost of a node, map slot and buffer wrapper per tile
+    private static final int ENTRY_OVERHEAD = 128;
+    private static final int AVERAGE_TILE_BYTES = 8 * 1024;
+    private static final byte WINDOW = 0;
+    private static final byte PROBATION = 1;
+    private static final byte PROTECTED = 2;
+
+    private final ConcurrentLongMap<Node> data;
+    private final ByteBufAllocator allocator;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final NodeList window = new NodeList();
+    private final NodeList probation = new NodeList();
+    private final NodeList protectedList = new NodeList();
+    private final long maxBytes;
+    private final long windowMaxBytes;
+    private final long protectedMaxBytes;
+    private long windowBytes;
+    private long probationBytes;
+    private long protectedBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public TileCache(long maxBytes, ByteBufAllocator allocator) {
+        this.maxBytes = maxBytes;
+        this.allocator = allocator;
+        // 1% admission window, 80% of the main region protected (Caffeine's defaults)
+        this.windowMaxBytes = Math.max(1, maxBytes / 100);
+        this.protectedMaxBytes = (maxBytes - this.windowMaxBytes) * 4 / 5;
+        this.data = new ConcurrentLongMap<>();
+        this.sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE >> 4, maxBytes / AVERAGE_TILE_BYTES));
+    }
+
+    /**
+     * Heap copy of a cached tile, for callers that need a byte[].
+     */
+    public byte[] get(long key) {
+        ByteBuf buffer = this.getRetained(key);
+        if (buffer == null) {
+            return null;
+        }
+        try {
+            return ByteBufUtil.getBytes(buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Zero-copy slice of a cached tile. The caller owns one reference and must release
+     * it; writing the buffer to a channel does so.
+     */
+    public ByteBuf getRetained(long key) {
+        Node node = this.data.get(key);
+        ByteBuf slice = node != null ? node.retainedSlice() : null;
+        if (slice == null) {
+            this.misses.increment();
+            if (this.lock.tryLock()) {
+                try {
+                    this.sketch.increment(key);
+                } finally {
+                    this.lock.unlock();
                 }
             }
-        } else {
-            // Update existing
-            this.cache.put(key, data);
-            this.accessOrder.remove(key);
-            this.accessOrder.addLast(key);
+            return null;
+        }
+        this.hits.increment();
+        if (this.lock.tryLock()) {
+            try {
+                this.onAccess(node);
+            } finally {
+                this.lock.unlock();
+            }
+        }
+        return slice;
+    }
+
+    /**
+     * Whether a tile is cached, without counting a hit or miss.
+     */
+    public boolean containsKey(long key) {
+        return this.data.containsKey(key);
+    }
+
+    public void put(long key, byte[] value) {
+        int weight = value.length + ENTRY_OVERHEAD;
+        if (weight > this.maxBytes) {
+            return;
+        }
+        ByteBuf buffer = this.allocator.directBuffer(value.length, value.length).writeBytes(value);
+        this.lock.lock();
+        try {
+            Node existing = this.data.get(key);
+            if (existing != null) {
+                this.addBytes(existing.queue, weight - existing.weight);
+                existing.replace(buffer).release();
+                existing.weight = weight;
+                this.onAccess(existing);
+            } else {
+                Node node = new Node(key, buffer, weight);
+                this.data.put(key, node);
+                this.window.addLast(node);
+                this.windowBytes += weight;
+                this.sketch.increment(key);
+            }
+            this.evict();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Drop a tile. Returns whether it was cached.
+     */
+    public boolean remove(long key) {
+        this.lock.lock();
+        try {
+            Node node = this.data.remove(key);
+            if (node == null) {
+                return false;
+            }
+            this.unlink(node);
+            node.detach().release();
+            return true;
+        } finally {
+            this.lock.unlock();
         }
     }
 
     public void clear() {
-        this.cache.clear();
-        this.accessOrder.clear();
-        this.size.set(0);
+        this.lock.lock();
+        try {
+            this.data.clear();
+            // Unlink and release every node; readers still holding one skip reordering it
+            this.window.clear();
+            this.probation.clear();
+            this.protectedList.clear();
+            this.windowBytes = 0;
+            this.probationBytes = 0;
+            this.protectedBytes = 0;
+            this.sketch.clear();
+        } finally {
+            this.lock.unlock();
+        }
     }
 
     public int size() {
-        return this.size.get();
+        return this.data.size();
+    }
+
+    public long getWeightedBytes() {
+        this.lock.lock();
+        try {
+            return this.windowBytes + this.probationBytes + this.protectedBytes;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    public double getHitRate() {
+        long hits = this.hits.sum();
+        long total = hits + this.misses.sum();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    private void onAccess(Node node) {
+        this.sketch.increment(node.key);
+        // The node may have been evicted between the map lookup and taking the lock
+        if (node.prev == null) {
+            return;
+        }
+        switch (node.queue) {
+            case WINDOW -> this.window.moveToEnd(node);
+            case PROBATION -> {
+                // Second hit promotes to protected; overflow demotes its LRU back
+                this.probation.remove(node);
+                this.probationBytes -= node.weight;
+                node.queue = PROTECTED;
+                this.protectedList.addLast(node);
+                this.protectedBytes += node.weight;
+                while (this.protectedBytes > this.protectedMaxBytes && this.protectedList.first() != node) {
+                    Node demoted = this.protectedList.first();
+                    this.protectedList.remove(demoted);
+                    this.protectedBytes -= demoted.weight;
+                    demoted.queue = PROBATION;
+                    this.probation.addLast(demoted);
+                    this.probationBytes += demoted.weight;
+                }
+            }
+            default -> this.protectedList.moveToEnd(node);
+        }
     }
 
-    public static String createKey(String worldName, int zoom, int x, int z) {
-        return worldName + "/" + zoom + "/" + x + "/" + z;
+    private void evict() {
+        // Tiles leaving the window compete with the probation LRU for a place in the main region
+        while (this.windowBytes > this.windowMaxBytes) {
+            Node candidate = this.window.first();
+            this.window.remove(candidate);
+            this.windowBytes -= candidate.weight;
+            candidate.queue = PROBATION;
+            this.probation.addLast(candidate);
+            this.probationBytes += candidate.weight;
+
+            while (this.totalBytes() > this.maxBytes) {
+                Node victim = this.probation.first();
+                if (victim == candidate || this.sketch.frequency(candidate.key) <= this.sketch.frequency(victim.key)) {
+                    this.evictNode(candidate);
+                    break;
+                }
+                this.evictNode(victim);
+            }
+        }
+        while (this.totalBytes() > this.maxBytes) {
+            Node victim = this.probation.first();
+            if (victim == null) victim = this.protectedList.first();
+            if (victim == null) victim = this.window.first();
+            this.evictNode(victim);
+        }
+    }
+
+    private void evictNode(Node node) {
+        this.data.remove(node.key, node);
+        this.unlink(node);
+        node.detach().release();
+        this.evictions.increment();
+    }
+
+    private void unlink(Node node) {
+        if (node.prev == null) {
+            return;
+        }
+        this.listFor(node.queue).remove(node);
+        this.addBytes(node.queue, -node.weight);
+    }
+
+    private NodeList listFor(byte queue) {
+        return queue == WINDOW ? this.window : (queue == PROBATION ? this.probation : this.protectedList);
+    }
+
+    private void addBytes(byte queue, long delta) {
+        if (queue == WINDOW) {
+            this.windowBytes += delta;
+        } else if (queue == PROBATION) {
+            this.probationBytes += delta;
+        } else {
+            this.protectedBytes += delta;
+        }
+    }
+
+    private long totalBytes() {
+        return this.windowBytes + this.probationBytes + this.protectedBytes;
+    }
+
+    private static class Node {
+        final long key;
+        // Guarded by the node's monitor. Pooled buffers are recycled once released, so a
+        // reader must retain under the same lock that swaps the buffer out.
+        private ByteBuf value;
+        int weight;
+        byte queue = WINDOW;
+        Node prev;
+        Node next;
+
+        Node(long key, ByteBuf value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+
+        /**
+         * Retained slice of the current buffer, or null once the node has been released.
+         */
+        synchronized ByteBuf retainedSlice() {
+            return this.value != null ? this.value.retainedSlice() : null;
+        }
+
+        /**
+         * Swap in a new buffer; the caller releases the returned one.
+         */
+        synchronized ByteBuf replace(ByteBuf buffer) {
+            ByteBuf previous = this.value;
+            this.value = buffer;
+            return previous;
+        }
+
+        /**
+         * Take the buffer out for release; readers arriving later miss.
+         */
+        synchronized ByteBuf detach() {
+            return this.replace(null);
+        }
+    }
+
+    /**
+     * Intrusive doubly-linked list with a sentinel; unlinked nodes have null prev/next.
+     */
+    private static class NodeList {
+        private final Node sentinel = new Node(0, null, 0);
+
+        NodeList() {
+            this.sentinel.prev = this.sentinel;
+            this.sentinel.next = this.sentinel;
+        }
+
+        Node first() {
+            return this.sentinel.next == this.sentinel ? null : this.sentinel.next;
+        }
+
+        void addLast(Node node) {
+            node.prev = this.sentinel.prev;
+            node.next = this.sentinel;
+            this.sentinel.prev.next = node;
+            this.sentinel.prev = node;
+        }
+
+        void remove(Node node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+        }
+
+        void moveToEnd(Node node) {
+            this.remove(node);
+            this.addLast(node);
+        }
+
+        void clear() {
+            Node node = this.sentinel.next;
+            while (node != this.sentinel) {
+                Node next = node.next;
+                node.detach().release();
+                node.prev = null;
+                node.next = null;
+                node = next;
+            }
+            this.sentinel.prev = this.sentinel;
+            this.sentinel.next = this.sentinel;
+        }
     }
 }
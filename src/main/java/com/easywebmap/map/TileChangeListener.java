@@ -0,0 +1,9 @@
+package com.easywebmap.map;
+
+/**
+ * Told when a cached tile was replaced by a newer render, so viewers can reload it.
+ * The version increases with every change to the same tile.
+ */
+public interface TileChangeListener {
+    void onTileChanged(String worldName, int zoom, int tileX, int tileZ, long version);
+}
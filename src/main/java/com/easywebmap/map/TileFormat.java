@@ -0,0 +1,66 @@
+package com.easywebmap.map;
+
+import com.hypixel.hytale.protocol.packets.worldmap.MapImage;
+
+/**
+ * Image formats tiles can be served in. PNG is always available;
+ * lossless WebP is used when the client advertises support for it.
+ */
+public enum TileFormat {
+    PNG("png", "image/png"),
+    WEBP("webp", "image/webp");
+
+    private final String extension;
+    private final String contentType;
+
+    TileFormat(String extension, String contentType) {
+        this.extension = extension;
+        this.contentType = contentType;
+    }
+
+    public String getExtension() {
+        return this.extension;
+    }
+
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    public byte[] encode(MapImage mapImage, int outputSize) {
+        if (this == WEBP) {
+            return WebpEncoder.encode(PngEncoder.toRgbPixels(mapImage, outputSize), outputSize);
+        }
+        return PngEncoder.encode(mapImage, outputSize);
+    }
+
+    public byte[] encode(int[] pixels, int outputSize) {
+        if (this == WEBP) {
+            return WebpEncoder.encode(pixels, outputSize);
+        }
+        return PngEncoder.encodeFast(pixels, outputSize);
+    }
+
+    public byte[] encodeEmpty(int size) {
+        if (this == WEBP) {
+            return WebpEncoder.encodeEmpty(size);
+        }
+        return PngEncoder.encodeEmpty(size);
+    }
+
+    public boolean isEmptyTile(byte[] data) {
+        if (this == WEBP) {
+            return WebpEncoder.isEmptyTile(data);
+        }
+        return PngEncoder.isEmptyTile(data);
+    }
+
+    /**
+     * Pick WebP when the Accept header lists image/webp, PNG otherwise.
+     */
+    public static TileFormat fromAccept(String accept) {
+        if (accept != null && accept.contains(WEBP.contentType)) {
+            return WEBP;
+        }
+        return PNG;
+    }
+}
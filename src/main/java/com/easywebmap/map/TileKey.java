@@ -0,0 +1,109 @@
+package com.easywebmap.map;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Packs a tile's identity into one long so caches can key on primitives.
+ * Layout, high to low: world id (10 bits), zoom (6), format (2), x (23), z (23).
+ * World names are interned to small ids once and looked up without allocating.
+ */
+public class TileKey {
+    private static final int COORD_BITS = 23;
+    private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+    private static final int FORMAT_SHIFT = COORD_BITS * 2;
+    private static final int ZOOM_SHIFT = FORMAT_SHIFT + 2;
+    private static final int WORLD_SHIFT = ZOOM_SHIFT + 6;
+    private static final int MAX_WORLDS = 1 << (64 - WORLD_SHIFT);
+    // Signed coordinate range of base tiles (chunks)
+    private static final long MIN_COORD = -(1L << (COORD_BITS - 1));
+    private static final long MAX_COORD = (1L << (COORD_BITS - 1)) - 1;
+    private static final int MIN_ZOOM = -32;
+    private static final int MAX_ZOOM = 31;
+
+    private static final ConcurrentHashMap<String, Integer> WORLD_IDS = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_WORLD_ID = new AtomicInteger();
+    private static final String[] WORLD_NAMES = new String[MAX_WORLDS];
+
+    private TileKey() {
+    }
+
+    public static long of(String worldName, int zoom, int x, int z) {
+        return of(worldId(worldName), zoom, x, z, TileFormat.PNG);
+    }
+
+    public static long of(String worldName, int zoom, int x, int z, TileFormat format) {
+        return of(worldId(worldName), zoom, x, z, format);
+    }
+
+    public static long of(int worldId, int zoom, int x, int z, TileFormat format) {
+        return ((long) worldId << WORLD_SHIFT)
+            | ((long) (zoom & 0x3F) << ZOOM_SHIFT)
+            | ((long) format.ordinal() << FORMAT_SHIFT)
+            | ((x & COORD_MASK) << COORD_BITS)
+            | (z & COORD_MASK);
+    }
+
+    /**
+     * Whether a tile can be packed, including the base tiles under a composite.
+     */
+    public static boolean isValid(int zoom, int x, int z) {
+        if (zoom < MIN_ZOOM || zoom > MAX_ZOOM) {
+            return false;
+        }
+        int shift = Math.max(0, -zoom);
+        return inRange((long) x << shift) && inRange(((long) x << shift) + (1L << shift) - 1)
+            && inRange((long) z << shift) && inRange(((long) z << shift) + (1L << shift) - 1);
+    }
+
+    private static boolean inRange(long coord) {
+        return coord >= MIN_COORD && coord <= MAX_COORD;
+    }
+
+    /**
+     * Small stable id for a world name, assigned on first use. Ids are never freed, so
+     * callers must only pass names of worlds that exist, never raw client input.
+     */
+    public static int worldId(String worldName) {
+        Integer id = WORLD_IDS.get(worldName);
+        if (id != null) {
+            return id;
+        }
+        return WORLD_IDS.computeIfAbsent(worldName, name -> {
+            int next = NEXT_WORLD_ID.getAndIncrement();
+            if (next >= MAX_WORLDS) {
+                throw new IllegalStateException("Too many worlds for tile keys: " + name);
+            }
+            WORLD_NAMES[next] = name;
+            return next;
+        });
+    }
+
+    /**
+     * World name for an id handed out by {@link #worldId(String)}.
+     */
+    public static String worldName(int worldId) {
+        return WORLD_NAMES[worldId];
+    }
+
+    public static int worldId(long key) {
+        return (int) (key >>> WORLD_SHIFT);
+    }
+
+    public static int zoom(long key) {
+        // Sign-extend the 6-bit field
+        return (int) (key << (64 - WORLD_SHIFT) >> 58);
+    }
+
+    public static TileFormat format(long key) {
+        return TileFormat.values()[(int) ((key >>> FORMAT_SHIFT) & 0x3)];
+    }
+
+    public static int x(long key) {
+        return (int) (key << (64 - FORMAT_SHIFT) >> (64 - COORD_BITS));
+    }
+
+    public static int z(long key) {
+        return (int) (key << (64 - COORD_BITS) >> (64 - COORD_BITS));
+    }
+}
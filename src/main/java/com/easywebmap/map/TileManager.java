@@ -7,117 +7,178 @@ import com.hypixel.hytale.server.core.universe.world.World;
 import com.hypixel.hytale.server.core.universe.world.storage.ChunkStore;
 import com.hypixel.hytale.server.core.universe.world.storage.IChunkLoader;
 import com.hypixel.hytale.server.core.universe.world.worldmap.WorldMapManager;
-import com.hypixel.hytale.server.core.universe.PlayerRef;
-import com.hypixel.hytale.math.vector.Transform;
-import com.hypixel.hytale.math.vector.Vector3d;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import it.unimi.dsi.fastutil.longs.LongSet;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class TileManager {
     private final EasyWebMap plugin;
     private final TileCache memoryCache;
     private final DiskTileCache diskCache;
-    private final ConcurrentHashMap<String, CompletableFuture<byte[]>> pendingRequests;
-    private final ConcurrentHashMap<String, CompletableFuture<PngEncoder.TileData>> pendingPixelRequests;
+    // Single-flight loads: encoded tiles per format, base tile renders, base pixels for compositing
+    private final SingleFlight<byte[]> pendingRequests = new SingleFlight<>();
+    private final SingleFlight<PngEncoder.TileData> pendingRenders = new SingleFlight<>();
+    private final SingleFlight<int[]> pendingPixelRequests = new SingleFlight<>();
     private final ConcurrentHashMap<String, CachedChunkIndexes> chunkIndexCache;
-    private final ConcurrentHashMap<String, PngEncoder.TileData> pixelCache;
+    private final PixelCache pixelCache;
+    // Composite tiles whose cached bytes are stale because a base tile below them changed
+    private final ConcurrentLongMap<Boolean> dirtyTiles = new ConcurrentLongMap<>();
+    // Chunks changed in the world since their tile was rendered
+    private final DirtyChunkTracker dirtyChunks;
+    // Renders that started on a dirty chunk, so their result replaces what viewers have
+    private final ConcurrentLongMap<Boolean> dirtyRenders = new ConcurrentLongMap<>();
+    private final TileRefreshWorker refreshWorker;
+    private volatile TileChangeListener tileChangeListener;
+    // Versions of re-rendered tiles: strictly increasing, seeded from the clock so they
+    // also stay above anything a viewer kept from before a restart
+    private final AtomicLong tileVersions = new AtomicLong(System.currentTimeMillis());
+    private static final int[] EMPTY_PIXELS = new int[0];
+    // Tokens of in-flight client requests by client-chosen id, for explicit cancel messages
+    private final ConcurrentHashMap<String, CancellationToken> clientRequests = new ConcurrentHashMap<>();
     private CompositeTileGenerator compositeTileGenerator;
-    private static final int MAX_PIXEL_CACHE = 512;
-    // Limit concurrent tile generations to prevent CPU spikes
+    // Limit concurrent tile generations to prevent CPU spikes; the rest queue by priority
     private static final int MAX_CONCURRENT_GENERATIONS = 4;
-    private final Semaphore generationSemaphore = new Semaphore(MAX_CONCURRENT_GENERATIONS);
-    // Empty tiles are ~270 bytes, real tiles are 10KB+
-    private static final int EMPTY_TILE_THRESHOLD = 500;
+    private final GenerationScheduler generationScheduler = new GenerationScheduler(MAX_CONCURRENT_GENERATIONS);
 
     public TileManager(EasyWebMap plugin) {
         this.plugin = plugin;
-        this.memoryCache = new TileCache(plugin.getConfig().getTileCacheSize());
+        this.memoryCache = new TileCache(plugin.getConfig().getTileCacheMaxBytes(), PooledByteBufAllocator.DEFAULT);
         this.diskCache = new DiskTileCache(plugin.getDataDirectory());
-        this.pendingRequests = new ConcurrentHashMap<>();
-        this.pendingPixelRequests = new ConcurrentHashMap<>();
         this.chunkIndexCache = new ConcurrentHashMap<>();
-        this.pixelCache = new ConcurrentHashMap<>();
+        // Shared by base tiles and every composite level
+        this.pixelCache = new PixelCache(plugin.getConfig().getPixelCacheMaxBytes());
         this.compositeTileGenerator = new CompositeTileGenerator(plugin, this);
+        this.dirtyChunks = new DirtyChunkTracker(plugin.getDataDirectory().resolve("dirty-chunks.txt"), this::invalidateChunk);
+        this.dirtyChunks.load();
+        this.refreshWorker = new TileRefreshWorker(plugin, this);
+    }
+
+    public void start() {
+        this.refreshWorker.start();
     }
 
     public CompletableFuture<byte[]> getTile(String worldName, int zoom, int tileX, int tileZ) {
+        return this.getTile(worldName, zoom, tileX, tileZ, TileFormat.PNG);
+    }
+
+    public CompletableFuture<byte[]> getTile(String worldName, int zoom, int tileX, int tileZ, TileFormat format) {
+        return this.getTile(worldName, zoom, tileX, tileZ, format, CancellationToken.NONE);
+    }
+
+    /**
+     * Get a tile on behalf of a request that may give up. Once every request waiting on
+     * a generation is cancelled, its queued renders are dropped and the future fails
+     * with a CancellationException.
+     */
+    public CompletableFuture<byte[]> getTile(String worldName, int zoom, int tileX, int tileZ, TileFormat format,
+                                             CancellationToken token) {
+        // Unknown worlds never reach TileKey, which would give every name a permanent id
+        if (zoom < this.getMinZoom() || !TileKey.isValid(zoom, tileX, tileZ) || Universe.get().getWorld(worldName) == null) {
+            return CompletableFuture.completedFuture(format.encodeEmpty(this.plugin.getConfig().getTileSize()));
+        }
+
         // Route negative zoom levels to composite tile generator
         if (zoom < 0 && this.plugin.getConfig().isEnableTilePyramids()) {
-            return this.getCompositeTile(worldName, zoom, tileX, tileZ);
+            return this.getCompositeTile(worldName, zoom, tileX, tileZ, format, token);
         }
 
         // For zoom >= 0, use base tile logic
-        return this.getBaseTile(worldName, tileX, tileZ);
+        return this.getBaseTile(worldName, tileX, tileZ, format, token);
+    }
+
+    /**
+     * Zero-copy view of a tile already in the memory cache, or null if it has to be
+     * loaded or generated through {@link #getTile}. The caller must release the buffer.
+     */
+    public ByteBuf getCachedTile(String worldName, int zoom, int tileX, int tileZ, TileFormat format) {
+        if (zoom < this.getMinZoom() || !TileKey.isValid(zoom, tileX, tileZ) || Universe.get().getWorld(worldName) == null) {
+            return null;
+        }
+        if (zoom < 0 && !this.plugin.getConfig().isEnableTilePyramids()) {
+            zoom = 0;
+        }
+        long cacheKey = TileKey.of(worldName, Math.min(zoom, 0), tileX, tileZ, format);
+        if (this.dirtyTiles.containsKey(cacheKey)) {
+            return null;
+        }
+        return this.memoryCache.getRetained(cacheKey);
     }
 
     /**
      * Get a composite tile at a negative zoom level.
      * Composite tiles combine multiple base tiles into one.
      */
-    private CompletableFuture<byte[]> getCompositeTile(String worldName, int zoom, int tileX, int tileZ) {
-        String cacheKey = TileCache.createKey(worldName, zoom, tileX, tileZ);
+    private CompletableFuture<byte[]> getCompositeTile(String worldName, int zoom, int tileX, int tileZ, TileFormat format,
+                                                       CancellationToken token) {
+        long cacheKey = TileKey.of(worldName, zoom, tileX, tileZ, format);
+        // Dirty tiles were evicted when marked; they supersede an encode still running
+        boolean dirty = this.dirtyTiles.remove(cacheKey) != null;
 
         // 1. Check memory cache first
-        byte[] memoryCached = this.memoryCache.get(cacheKey);
+        byte[] memoryCached = dirty ? null : this.memoryCache.get(cacheKey);
         if (memoryCached != null) {
             return CompletableFuture.completedFuture(memoryCached);
         }
 
         // 2. Check if already generating
-        CompletableFuture<byte[]> pending = this.pendingRequests.get(cacheKey);
+        CompletableFuture<byte[]> pending = dirty ? null : this.pendingRequests.join(cacheKey, token);
         if (pending != null) {
             return pending;
         }
 
         // 3. Check disk cache
-        if (this.plugin.getConfig().isUseDiskCache()) {
-            byte[] diskCached = this.diskCache.get(worldName, zoom, tileX, tileZ);
+        if (!dirty && this.plugin.getConfig().isUseDiskCache()) {
+            byte[] diskCached = this.diskCache.get(worldName, zoom, tileX, tileZ, format);
+            // A changed chunk below deletes this tile from disk, so what is there is current
             if (diskCached != null) {
-                long tileAge = this.diskCache.getTileAge(worldName, zoom, tileX, tileZ);
-                // Use longer refresh interval for composite tiles (they're more expensive)
-                long refreshInterval = this.plugin.getConfig().getTileRefreshIntervalMs() * 2;
-
-                if (tileAge < refreshInterval) {
-                    this.memoryCache.put(cacheKey, diskCached);
-                    return CompletableFuture.completedFuture(diskCached);
-                }
-
-                // Check if any players are in the area covered by this composite tile
-                int chunksPerAxis = this.compositeTileGenerator.getChunksPerAxis(zoom);
-                int baseChunkX = tileX * chunksPerAxis;
-                int baseChunkZ = tileZ * chunksPerAxis;
-                World world = Universe.get().getWorld(worldName);
-
-                if (world == null || !this.arePlayersInArea(world, baseChunkX, baseChunkZ, chunksPerAxis)) {
-                    this.memoryCache.put(cacheKey, diskCached);
-                    return CompletableFuture.completedFuture(diskCached);
-                }
+                this.memoryCache.put(cacheKey, diskCached);
+                return CompletableFuture.completedFuture(diskCached);
             }
         }
 
-        // 4. Generate composite tile
-        CompletableFuture<byte[]> future = this.compositeTileGenerator.generateCompositeTile(worldName, zoom, tileX, tileZ);
-        this.pendingRequests.put(cacheKey, future);
-        future.whenComplete((data, ex) -> {
-            this.pendingRequests.remove(cacheKey);
-            if (data != null && data.length > EMPTY_TILE_THRESHOLD && ex == null) {
+        // 4. Generate composite tile; a dirty tile supersedes any encode already running
+        if (dirty) {
+            return this.pendingRequests.restart(cacheKey, token,
+                interest -> this.generateCompositeTile(worldName, zoom, tileX, tileZ, format, interest));
+        }
+        return this.pendingRequests.run(cacheKey, token,
+            interest -> this.generateCompositeTile(worldName, zoom, tileX, tileZ, format, interest));
+    }
+
+    private CompletableFuture<byte[]> generateCompositeTile(String worldName, int zoom, int tileX, int tileZ, TileFormat format,
+                                                            CancellationToken token) {
+        long cacheKey = TileKey.of(worldName, zoom, tileX, tileZ, format);
+        // Changed chunks below are rendered first; each patches the cached pixels above it
+        return this.renderDirtyBelow(worldName, zoom, tileX, tileZ, token).thenCompose(v -> {
+            // Those renders marked this tile dirty, but the pixels read next already include them
+            this.dirtyTiles.remove(cacheKey);
+            return this.compositeTileGenerator.generateCompositeTile(worldName, zoom, tileX, tileZ, format, token);
+        }).thenApply(data -> {
+            // Encodes superseded by a restart or marked dirty while running hand their bytes
+            // to their waiters but must not put stale bytes back in the caches
+            boolean current = this.pendingRequests.isCurrent(cacheKey, token) && !this.dirtyTiles.containsKey(cacheKey);
+            if (current && !format.isEmptyTile(data)) {
                 this.memoryCache.put(cacheKey, data);
                 if (this.plugin.getConfig().isUseDiskCache()) {
-                    this.diskCache.putAsync(worldName, zoom, tileX, tileZ, data);
+                    this.diskCache.putAsync(worldName, zoom, tileX, tileZ, format, data);
                 }
             }
+            return data;
         });
-        return future;
     }
 
     /**
      * Get a base tile (zoom level 0) for a single chunk.
      * This is called by the composite tile generator.
      */
-    public CompletableFuture<byte[]> getBaseTile(String worldName, int tileX, int tileZ) {
-        String cacheKey = TileCache.createKey(worldName, 0, tileX, tileZ);
+    public CompletableFuture<byte[]> getBaseTile(String worldName, int tileX, int tileZ, TileFormat format,
+                                                 CancellationToken token) {
+        long cacheKey = TileKey.of(worldName, 0, tileX, tileZ, format);
 
         // 1. Check memory cache first (fastest)
         byte[] memoryCached = this.memoryCache.get(cacheKey);
@@ -126,221 +187,296 @@ public class TileManager {
         }
 
         // 2. Check if already generating
-        CompletableFuture<byte[]> pending = this.pendingRequests.get(cacheKey);
+        CompletableFuture<byte[]> pending = this.pendingRequests.join(cacheKey, token);
         if (pending != null) {
             return pending;
         }
 
         // 3. Check disk cache if enabled
         if (this.plugin.getConfig().isUseDiskCache()) {
-            byte[] diskCached = this.diskCache.get(worldName, 0, tileX, tileZ);
-            if (diskCached != null) {
-                long tileAge = this.diskCache.getTileAge(worldName, 0, tileX, tileZ);
-                long refreshInterval = this.plugin.getConfig().getTileRefreshIntervalMs();
-
-                // If tile is fresh enough, serve from disk
-                if (tileAge < refreshInterval) {
-                    this.memoryCache.put(cacheKey, diskCached);
-                    return CompletableFuture.completedFuture(diskCached);
-                }
-
-                // Tile is old - check if players are nearby
-                World world = Universe.get().getWorld(worldName);
-                if (world == null || !this.arePlayersNearby(world, tileX, tileZ)) {
-                    // No players nearby - terrain can't have changed, serve cached
-                    this.memoryCache.put(cacheKey, diskCached);
-                    return CompletableFuture.completedFuture(diskCached);
-                }
-
-                // Players nearby and tile is old - regenerate
+            byte[] diskCached = this.diskCache.get(worldName, 0, tileX, tileZ, format);
+            if (diskCached != null && !this.dirtyChunks.isDirty(worldName, tileX, tileZ)) {
+                this.memoryCache.put(cacheKey, diskCached);
+                return CompletableFuture.completedFuture(diskCached);
             }
+            // Blocks in the chunk changed since it was saved - regenerate
         }
 
-        // 4. Generate new tile
-        CompletableFuture<byte[]> future = this.generateTile(worldName, 0, tileX, tileZ);
-        this.pendingRequests.put(cacheKey, future);
-        future.whenComplete((data, ex) -> {
-            this.pendingRequests.remove(cacheKey);
-            // Don't cache empty tiles - they should regenerate when chunk gets explored
-            if (data != null && data.length > EMPTY_TILE_THRESHOLD && ex == null) {
-                this.memoryCache.put(cacheKey, data);
-                if (this.plugin.getConfig().isUseDiskCache()) {
-                    this.diskCache.putAsync(worldName, 0, tileX, tileZ, data);
-                }
+        // 4. Generate new tile, sharing the render with composites and other formats
+        GenerationScheduler.Priority priority = GenerationScheduler.Priority.VIEWPORT;
+        return this.pendingRequests.run(cacheKey, token, interest -> this.renderBaseTile(worldName, tileX, tileZ, priority, interest).thenApply(data -> {
+            if (format == TileFormat.PNG) {
+                return data.pngBytes;
             }
-        });
-        return future;
+            int tileSize = this.plugin.getConfig().getTileSize();
+            if (data.isEmpty()) {
+                return format.encodeEmpty(tileSize);
+            }
+            byte[] encoded = format.encode(data.pixels, tileSize);
+            this.memoryCache.put(cacheKey, encoded);
+            if (this.plugin.getConfig().isUseDiskCache()) {
+                this.diskCache.putAsync(worldName, 0, tileX, tileZ, format, encoded);
+            }
+            return encoded;
+        }));
     }
 
     /**
-     * Get a base tile with raw pixels for compositing.
-     * Returns TileData containing both PNG bytes and raw ARGB pixels.
+     * Get the raw RGB pixels of a base tile for compositing.
+     * Completes with an empty array when the chunk has no content.
      */
-    public CompletableFuture<PngEncoder.TileData> getBaseTileWithPixels(String worldName, int tileX, int tileZ) {
-        String cacheKey = TileCache.createKey(worldName, 0, tileX, tileZ);
+    public CompletableFuture<int[]> getBaseTileWithPixels(String worldName, int tileX, int tileZ, CancellationToken token) {
+        long cacheKey = TileKey.of(worldName, 0, tileX, tileZ);
 
         // 1. Check pixel cache
-        PngEncoder.TileData cached = this.pixelCache.get(cacheKey);
+        int[] cached = this.pixelCache.get(cacheKey);
         if (cached != null) {
             return CompletableFuture.completedFuture(cached);
         }
 
-        // 2. Check pending
-        CompletableFuture<PngEncoder.TileData> pending = this.pendingPixelRequests.get(cacheKey);
-        if (pending != null) {
-            return pending;
+        // 2. Decode our own PNG from disk, render only if there is none or the chunk changed
+        return this.pendingPixelRequests.run(cacheKey, token, interest -> this.loadBaseTilePixels(worldName, tileX, tileZ)
+            .thenCompose(pixels -> pixels != null
+                ? CompletableFuture.completedFuture(pixels)
+                : this.renderBaseTile(worldName, tileX, tileZ, GenerationScheduler.Priority.COMPOSITE, interest)
+                    .thenApply(data -> data.pixels)));
+    }
+
+    /**
+     * Read a current base tile PNG from the disk cache and decode it on the disk thread.
+     * Completes with null when the tile has to be rendered.
+     */
+    private CompletableFuture<int[]> loadBaseTilePixels(String worldName, int tileX, int tileZ) {
+        if (!this.plugin.getConfig().isUseDiskCache()) {
+            return CompletableFuture.completedFuture(null);
         }
+        int tileSize = this.plugin.getConfig().getTileSize();
+        return this.diskCache.getAsync(worldName, 0, tileX, tileZ).thenApply(png -> {
+            if (png == null || this.dirtyChunks.isDirty(worldName, tileX, tileZ)) {
+                return null;
+            }
+            // Null for a different tile size or a damaged file
+            int[] pixels = PngReader.decode(png, tileSize);
+            if (pixels != null) {
+                long cacheKey = TileKey.of(worldName, 0, tileX, tileZ);
+                this.pixelCache.put(cacheKey, pixels);
+                this.memoryCache.put(cacheKey, png);
+            }
+            return pixels;
+        }).exceptionally(ex -> null);
+    }
 
-        // 3. Generate with pixels
-        CompletableFuture<PngEncoder.TileData> future = this.generateTileWithPixels(worldName, tileX, tileZ);
-        this.pendingPixelRequests.put(cacheKey, future);
-        future.whenComplete((data, ex) -> {
-            this.pendingPixelRequests.remove(cacheKey);
+    /**
+     * Render a base tile once for every caller that needs it, producing both the PNG and
+     * the raw pixels. Results are cached before the render is released. A render still
+     * queued is promoted if a more urgent caller joins it.
+     */
+    private CompletableFuture<PngEncoder.TileData> renderBaseTile(String worldName, int tileX, int tileZ,
+                                                                  GenerationScheduler.Priority priority,
+                                                                  CancellationToken token) {
+        long cacheKey = TileKey.of(worldName, 0, tileX, tileZ);
+        this.generationScheduler.promote(cacheKey, priority);
+        return this.pendingRenders.run(cacheKey, token,
+            interest -> this.generateBaseTile(worldName, tileX, tileZ, priority, interest).thenApply(data -> {
+            boolean changed = this.dirtyRenders.remove(cacheKey) != null;
             // Don't cache empty tiles - they should regenerate when chunk gets explored
-            if (data != null && !data.isEmpty() && data.pngBytes.length > EMPTY_TILE_THRESHOLD && ex == null) {
-                // Cache pixels for compositing, evict if too many
-                if (this.pixelCache.size() < MAX_PIXEL_CACHE) {
-                    this.pixelCache.put(cacheKey, data);
-                }
-                // Also cache PNG bytes
-                this.memoryCache.put(cacheKey, data.pngBytes);
-                if (this.plugin.getConfig().isUseDiskCache()) {
-                    this.diskCache.putAsync(worldName, 0, tileX, tileZ, data.pngBytes);
+            if (data.isEmpty()) {
+                return data;
+            }
+            if (this.plugin.getConfig().isEnableTilePyramids()) {
+                // Fresh compositing pixels for the levels above
+                this.pixelCache.put(TileKey.of(worldName, 0, tileX, tileZ), data.pixels);
+                if (changed) {
+                    this.onBaseTileChanged(worldName, tileX, tileZ, data.pixels);
                 }
             }
-        });
-        return future;
+            this.memoryCache.put(cacheKey, data.pngBytes);
+            if (this.plugin.getConfig().isUseDiskCache()) {
+                this.diskCache.putAsync(worldName, 0, tileX, tileZ, data.pngBytes);
+            }
+            // Changed again while rendering - drop what was just cached from memory
+            if (this.dirtyChunks.isDirty(worldName, tileX, tileZ)) {
+                this.invalidateChunk(worldName, tileX, tileZ);
+            }
+            if (changed) {
+                // Other formats encoded before this render finished are stale too
+                this.dropDerivedBaseTiles(worldName, tileX, tileZ);
+                this.notifyTileChanged(worldName, tileX, tileZ);
+            }
+            return data;
+        }));
     }
 
-    private CompletableFuture<PngEncoder.TileData> generateTileWithPixels(String worldName, int tileX, int tileZ) {
+    private CompletableFuture<PngEncoder.TileData> generateBaseTile(String worldName, int tileX, int tileZ,
+                                                                    GenerationScheduler.Priority priority,
+                                                                    CancellationToken token) {
         World world = Universe.get().getWorld(worldName);
         int tileSize = this.plugin.getConfig().getTileSize();
         if (world == null) {
             return CompletableFuture.completedFuture(new PngEncoder.TileData(
-                PngEncoder.encodeEmpty(tileSize), new int[0], tileSize));
+                PngEncoder.encodeEmpty(tileSize), EMPTY_PIXELS, tileSize));
         }
 
         if (this.plugin.getConfig().isRenderExploredChunksOnly()) {
             if (!this.isChunkExplored(world, tileX, tileZ)) {
+                // Nothing to show yet; it renders on request once explored
+                this.dirtyChunks.markClean(worldName, tileX, tileZ);
                 return CompletableFuture.completedFuture(new PngEncoder.TileData(
-                    PngEncoder.encodeEmpty(tileSize), new int[0], tileSize));
+                    PngEncoder.encodeEmpty(tileSize), EMPTY_PIXELS, tileSize));
             }
         }
 
         WorldMapManager mapManager = world.getWorldMapManager();
 
-        // Acquire semaphore to limit concurrent generations
-        try {
-            this.generationSemaphore.acquire();
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            return CompletableFuture.completedFuture(new PngEncoder.TileData(
-                PngEncoder.encodeEmpty(tileSize), new int[0], tileSize));
-        }
-
-        return mapManager.getImageAsync(tileX, tileZ)
+        // Queue behind the concurrency limit instead of blocking the calling (often Netty) thread
+        long jobKey = TileKey.of(worldName, 0, tileX, tileZ);
+        return this.generationScheduler.submit(jobKey, priority, token, () -> {
+            // Changes from here on are not in this render and mark the chunk again
+            if (this.dirtyChunks.markClean(worldName, tileX, tileZ)) {
+                this.dirtyRenders.put(jobKey, Boolean.TRUE);
+            }
+            return mapManager.getImageAsync(tileX, tileZ)
                 .thenApply(mapImage -> {
                     if (mapImage == null) {
-                        return new PngEncoder.TileData(PngEncoder.encodeEmpty(tileSize), new int[0], tileSize);
+                        return new PngEncoder.TileData(PngEncoder.encodeEmpty(tileSize), EMPTY_PIXELS, tileSize);
                     }
                     return PngEncoder.encodeWithPixels(mapImage, tileSize);
                 })
                 .exceptionally(ex -> {
                     System.err.println("[EasyWebMap] Failed to generate tile: " + ex.getMessage());
-                    return new PngEncoder.TileData(PngEncoder.encodeEmpty(tileSize), new int[0], tileSize);
-                })
-                .whenComplete((result, ex) -> this.generationSemaphore.release());
+                    return new PngEncoder.TileData(PngEncoder.encodeEmpty(tileSize), EMPTY_PIXELS, tileSize);
+                });
+        });
     }
 
-    private boolean arePlayersNearby(World world, int tileX, int tileZ) {
-        int radius = this.plugin.getConfig().getTileRefreshRadius();
-
-        for (PlayerRef playerRef : world.getPlayerRefs()) {
-            try {
-                Transform transform = playerRef.getTransform();
-                if (transform == null) continue;
-
-                Vector3d pos = transform.getPosition();
-                int playerChunkX = ChunkUtil.chunkCoordinate((int) pos.x);
-                int playerChunkZ = ChunkUtil.chunkCoordinate((int) pos.z);
-
-                int dx = Math.abs(playerChunkX - tileX);
-                int dz = Math.abs(playerChunkZ - tileZ);
+    /**
+     * A dirty chunk was re-rendered: patch its quadrant into the cached pixels of every
+     * level above it and mark the encoded ancestors dirty so they re-encode on request.
+     */
+    private void onBaseTileChanged(String worldName, int tileX, int tileZ, int[] pixels) {
+        this.compositeTileGenerator.propagate(worldName, tileX, tileZ, pixels, this.getMinZoom());
+        this.markAncestorsDirty(worldName, tileX, tileZ);
+    }
 
-                if (dx <= radius && dz <= radius) {
-                    return true;
-                }
-            } catch (Exception e) {
-                // Skip this player
-            }
+    /**
+     * Blocks in a chunk changed: drop its tiles and pixels from memory. The cached pixels
+     * of the composites above it are kept and patched when the chunk re-renders; any
+     * composite encoded before that renders its dirty chunks first. Its disk tile is
+     * skipped while the chunk stays dirty.
+     */
+    private void invalidateChunk(String worldName, int chunkX, int chunkZ) {
+        for (TileFormat format : TileFormat.values()) {
+            this.memoryCache.remove(TileKey.of(worldName, 0, chunkX, chunkZ, format));
+        }
+        this.pixelCache.remove(TileKey.of(worldName, 0, chunkX, chunkZ));
+        this.dropDerivedBaseTiles(worldName, chunkX, chunkZ);
+        if (this.plugin.getConfig().isEnableTilePyramids()) {
+            this.markAncestorsDirty(worldName, chunkX, chunkZ);
         }
-        return false;
     }
 
     /**
-     * Check if any players are within the area covered by a composite tile.
+     * Drop a base tile's non-PNG encodings from memory and disk. Only the PNG is rewritten
+     * by a render, so the others would otherwise be served stale once the chunk is clean.
      */
-    private boolean arePlayersInArea(World world, int baseChunkX, int baseChunkZ, int chunksPerAxis) {
-        int radius = this.plugin.getConfig().getTileRefreshRadius();
-
-        for (PlayerRef playerRef : world.getPlayerRefs()) {
-            try {
-                Transform transform = playerRef.getTransform();
-                if (transform == null) continue;
-
-                Vector3d pos = transform.getPosition();
-                int playerChunkX = ChunkUtil.chunkCoordinate((int) pos.x);
-                int playerChunkZ = ChunkUtil.chunkCoordinate((int) pos.z);
-
-                // Check if player is within the area (with buffer for refresh radius)
-                if (playerChunkX >= baseChunkX - radius &&
-                    playerChunkX < baseChunkX + chunksPerAxis + radius &&
-                    playerChunkZ >= baseChunkZ - radius &&
-                    playerChunkZ < baseChunkZ + chunksPerAxis + radius) {
-                    return true;
-                }
-            } catch (Exception e) {
-                // Skip this player
+    private void dropDerivedBaseTiles(String worldName, int chunkX, int chunkZ) {
+        for (TileFormat format : TileFormat.values()) {
+            if (format == TileFormat.PNG) {
+                continue;
+            }
+            this.memoryCache.remove(TileKey.of(worldName, 0, chunkX, chunkZ, format));
+            if (this.plugin.getConfig().isUseDiskCache()) {
+                this.diskCache.deleteAsync(worldName, 0, chunkX, chunkZ, format);
             }
         }
-        return false;
     }
 
-    private CompletableFuture<byte[]> generateTile(String worldName, int zoom, int tileX, int tileZ) {
-        World world = Universe.get().getWorld(worldName);
-        if (world == null) {
-            return CompletableFuture.completedFuture(PngEncoder.encodeEmpty(this.plugin.getConfig().getTileSize()));
+    /**
+     * Mark a chunk dirty if it has a cached base tile, for changes no event reports.
+     * Returns whether it was marked.
+     */
+    public boolean markStale(String worldName, int chunkX, int chunkZ) {
+        boolean cached = this.memoryCache.containsKey(TileKey.of(worldName, 0, chunkX, chunkZ))
+            || (this.plugin.getConfig().isUseDiskCache() && this.diskCache.exists(worldName, 0, chunkX, chunkZ));
+        if (cached) {
+            this.dirtyChunks.onChunkChanged(worldName, chunkX, chunkZ);
         }
+        return cached;
+    }
 
-        // Check if we should only render explored chunks
-        if (this.plugin.getConfig().isRenderExploredChunksOnly()) {
-            if (!this.isChunkExplored(world, tileX, tileZ)) {
-                return CompletableFuture.completedFuture(PngEncoder.encodeEmpty(this.plugin.getConfig().getTileSize()));
+    /**
+     * Render the dirty chunks under a composite, so their quadrants are patched into the
+     * cached pixels before it is encoded. Completes right away when none are dirty.
+     */
+    private CompletableFuture<Void> renderDirtyBelow(String worldName, int zoom, int tileX, int tileZ, CancellationToken token) {
+        int shift = -zoom;
+        List<CompletableFuture<PngEncoder.TileData>> renders = new ArrayList<>();
+        for (long chunk : this.dirtyChunks.getDirtyChunks(worldName)) {
+            int chunkX = DirtyChunkTracker.chunkX(chunk);
+            int chunkZ = DirtyChunkTracker.chunkZ(chunk);
+            if (chunkX >> shift == tileX && chunkZ >> shift == tileZ) {
+                renders.add(this.renderBaseTile(worldName, chunkX, chunkZ, GenerationScheduler.Priority.COMPOSITE, token));
             }
         }
+        if (renders.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.allOf(renders.toArray(new CompletableFuture[0]));
+    }
 
-        WorldMapManager mapManager = world.getWorldMapManager();
+    /**
+     * Re-render a changed chunk in the background, for the refresh worker.
+     */
+    public CompletableFuture<Void> refreshChunk(String worldName, int chunkX, int chunkZ) {
+        return this.renderBaseTile(worldName, chunkX, chunkZ, GenerationScheduler.Priority.REFRESH, CancellationToken.NONE)
+            .thenAccept(data -> {});
+    }
 
-        // Acquire semaphore to limit concurrent generations
-        try {
-            this.generationSemaphore.acquire();
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            return CompletableFuture.completedFuture(PngEncoder.encodeEmpty(this.plugin.getConfig().getTileSize()));
+    /**
+     * Report a re-rendered base tile and the composites above it, which re-encode on
+     * their next request.
+     */
+    private void notifyTileChanged(String worldName, int tileX, int tileZ) {
+        TileChangeListener listener = this.tileChangeListener;
+        if (listener == null) {
+            return;
         }
+        long version = this.tileVersions.incrementAndGet();
+        listener.onTileChanged(worldName, 0, tileX, tileZ, version);
+        if (this.plugin.getConfig().isEnableTilePyramids()) {
+            for (int zoom = -1; zoom >= this.getMinZoom(); zoom--) {
+                listener.onTileChanged(worldName, zoom, tileX >> -zoom, tileZ >> -zoom, version);
+            }
+        }
+    }
 
-        return mapManager.getImageAsync(tileX, tileZ)
-                .thenApply(mapImage -> {
-                    if (mapImage == null) {
-                        return PngEncoder.encodeEmpty(this.plugin.getConfig().getTileSize());
-                    }
-                    return PngEncoder.encode(mapImage, this.plugin.getConfig().getTileSize());
-                })
-                .exceptionally(ex -> {
-                    System.err.println("[EasyWebMap] Failed to generate tile: " + ex.getMessage());
-                    return PngEncoder.encodeEmpty(this.plugin.getConfig().getTileSize());
-                })
-                .whenComplete((result, ex) -> this.generationSemaphore.release());
+    public void setTileChangeListener(TileChangeListener listener) {
+        this.tileChangeListener = listener;
+    }
+
+    /**
+     * Mark the encoded composites above a chunk stale. Their memory and disk copies are
+     * dropped, so a cancelled or failed re-encode never leaves stale bytes to be served.
+     * Formats that were in memory or are being encoded are flagged so a running encode is
+     * superseded rather than joined.
+     */
+    private void markAncestorsDirty(String worldName, int tileX, int tileZ) {
+        boolean useDiskCache = this.plugin.getConfig().isUseDiskCache();
+        for (int zoom = -1; zoom >= this.getMinZoom(); zoom--) {
+            int shift = -zoom;
+            int x = tileX >> shift;
+            int z = tileZ >> shift;
+            for (TileFormat format : TileFormat.values()) {
+                long cacheKey = TileKey.of(worldName, zoom, x, z, format);
+                boolean cached = this.memoryCache.remove(cacheKey);
+                if (cached || this.pendingRequests.isRunning(cacheKey)) {
+                    this.dirtyTiles.put(cacheKey, Boolean.TRUE);
+                }
+                if (useDiskCache) {
+                    this.diskCache.deleteAsync(worldName, zoom, x, z, format);
+                }
+            }
+        }
     }
 
     private boolean isChunkExplored(World world, int chunkX, int chunkZ) {
@@ -404,10 +540,10 @@ public class TileManager {
                     }
 
                     try {
-                        // Generate and wait
-                        byte[] tile = this.generateTile(worldName, 0, x, z).join();
-                        if (tile != null && tile.length > 100) {
-                            this.diskCache.put(worldName, 0, x, z, tile);
+                        // Generate and wait; the render queues its own disk write
+                        byte[] tile = this.renderBaseTile(worldName, x, z, GenerationScheduler.Priority.PREGENERATE,
+                            CancellationToken.NONE).join().pngBytes;
+                        if (!PngEncoder.isEmptyTile(tile)) {
                             count++;
                         }
                         // Small delay to not overload
@@ -421,9 +557,38 @@ public class TileManager {
         });
     }
 
+    public void registerClientRequest(String requestId, CancellationToken token) {
+        this.clientRequests.put(requestId, token);
+    }
+
+    public void unregisterClientRequest(String requestId, CancellationToken token) {
+        this.clientRequests.remove(requestId, token);
+    }
+
+    /**
+     * Cancel a client request by id, when the client says it no longer needs it.
+     */
+    public boolean cancelClientRequest(String requestId) {
+        CancellationToken token = this.clientRequests.remove(requestId);
+        if (token == null) {
+            return false;
+        }
+        token.cancel();
+        return true;
+    }
+
+    /**
+     * Most zoomed-out level served, clamped to what the composite pyramid supports.
+     */
+    public int getMinZoom() {
+        return Math.max(CompositeTileGenerator.MIN_ZOOM, Math.min(0, this.plugin.getConfig().getMinZoom()));
+    }
+
     public void clearCache() {
         this.memoryCache.clear();
         this.pixelCache.clear();
+        this.dirtyTiles.clear();
+        this.dirtyChunks.clear();
         this.diskCache.clear();
         this.chunkIndexCache.clear();
     }
@@ -434,13 +599,53 @@ public class TileManager {
     }
 
     public void shutdown() {
+        this.refreshWorker.shutdown();
+        // Return the off-heap tile buffers to the pool
+        this.memoryCache.clear();
+        this.dirtyChunks.save();
         this.diskCache.shutdown();
+        this.compositeTileGenerator.shutdown();
+    }
+
+    /**
+     * Requests that joined a load already in progress instead of starting their own.
+     */
+    public long getDeduplicatedRequests() {
+        return this.pendingRequests.getDeduplicated() + this.pendingRenders.getDeduplicated()
+            + this.pendingPixelRequests.getDeduplicated() + this.compositeTileGenerator.getDeduplicatedRequests();
+    }
+
+    /**
+     * Where server events report changed chunks.
+     */
+    public DirtyChunkTracker getDirtyChunkTracker() {
+        return this.dirtyChunks;
+    }
+
+    public TileRefreshWorker getRefreshWorker() {
+        return this.refreshWorker;
+    }
+
+    public GenerationScheduler getGenerationScheduler() {
+        return this.generationScheduler;
     }
 
     public int getMemoryCacheSize() {
         return this.memoryCache.size();
     }
 
+    public TileCache getMemoryCache() {
+        return this.memoryCache;
+    }
+
+    public PixelCache getPixelCache() {
+        return this.pixelCache;
+    }
+
+    public CompositeTileGenerator getCompositeTileGenerator() {
+        return this.compositeTileGenerator;
+    }
+
     public DiskTileCache getDiskCache() {
         return this.diskCache;
     }
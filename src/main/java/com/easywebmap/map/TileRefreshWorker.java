@@ -0,0 +1,163 @@
+package com.easywebmap.map;
+
+import com.easywebmap.EasyWebMap;
+import com.easywebmap.tracker.PlayerGrid;
+import com.hypixel.hytale.server.core.universe.Universe;
+import com.hypixel.hytale.server.core.universe.world.World;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Re-renders changed chunks near players in the background, so viewers see new terrain
+ * without requesting it again. Once a second it starts renders for the dirty chunks
+ * closest to a player, up to the configured rate; the rest wait for the next second or
+ * for a tile request. Each tick also saves the dirty chunk set if it changed, so it
+ * survives a crash.
+ *
+ * Block events miss fluids, explosions, commands and other plugins, so as a fallback the
+ * cached chunks right around each player are marked dirty every fallback interval.
+ */
+public class TileRefreshWorker {
+    private static final long TICK_MS = 1000;
+
+    private final EasyWebMap plugin;
+    private final TileManager tileManager;
+    // Background renders not yet finished, never more than one second's budget
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder refreshed = new LongAdder();
+    private final LongAdder fallbackMarked = new LongAdder();
+    private long lastFallbackSweep = System.currentTimeMillis();
+    private ScheduledExecutorService scheduler;
+
+    public TileRefreshWorker(EasyWebMap plugin, TileManager tileManager) {
+        this.plugin = plugin;
+        this.tileManager = tileManager;
+    }
+
+    public void start() {
+        // Runs even with background renders off, to keep saving the dirty chunk set
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "EasyWebMap-TileRefresh");
+            t.setDaemon(true);
+            return t;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::tick, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdown();
+        }
+    }
+
+    private void tick() {
+        try {
+            this.tileManager.getDirtyChunkTracker().saveIfChanged();
+            this.fallbackSweep();
+            int budget = this.plugin.getConfig().getRefreshRendersPerSecond() - this.inFlight.get();
+            if (budget <= 0 || this.tileManager.getDirtyChunkTracker().size() == 0) {
+                return;
+            }
+            for (World world : Universe.get().getWorlds().values()) {
+                if (budget <= 0) {
+                    break;
+                }
+                if (this.plugin.getConfig().isWorldEnabled(world.getName())) {
+                    budget -= this.refreshWorld(world, budget);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("[EasyWebMap] Tile refresh failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Once per fallback interval, mark the cached chunks around every player dirty.
+     */
+    private void fallbackSweep() {
+        long interval = this.plugin.getConfig().getFallbackRefreshIntervalMs();
+        long now = System.currentTimeMillis();
+        if (interval <= 0 || now - this.lastFallbackSweep < interval) {
+            return;
+        }
+        this.lastFallbackSweep = now;
+        int radius = this.plugin.getConfig().getFallbackRefreshRadius();
+        for (World world : Universe.get().getWorlds().values()) {
+            String worldName = world.getName();
+            if (!this.plugin.getConfig().isWorldEnabled(worldName)) {
+                continue;
+            }
+            int[] players = this.plugin.getPlayerTracker().getPlayerGrid(worldName).chunks();
+            for (int i = 0; i < players.length; i += 2) {
+                for (int x = players[i] - radius; x <= players[i] + radius; x++) {
+                    for (int z = players[i + 1] - radius; z <= players[i + 1] + radius; z++) {
+                        if (!this.tileManager.getDirtyChunkTracker().isDirty(worldName, x, z)
+                                && this.tileManager.markStale(worldName, x, z)) {
+                            this.fallbackMarked.increment();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Start renders for up to budget dirty chunks of a world, nearest to a player first.
+     */
+    private int refreshWorld(World world, int budget) {
+        String worldName = world.getName();
+        long[] dirty = this.tileManager.getDirtyChunkTracker().getDirtyChunks(worldName);
+        if (dirty.length == 0) {
+            return 0;
+        }
+        PlayerGrid players = this.plugin.getPlayerTracker().getPlayerGrid(worldName);
+        if (players.size() == 0) {
+            return 0;
+        }
+
+        int radius = this.plugin.getConfig().getRefreshRadius();
+        // Distance in the high bits so sorting orders by it
+        LongArrayList candidates = new LongArrayList();
+        for (int i = 0; i < dirty.length; i++) {
+            int chunkX = DirtyChunkTracker.chunkX(dirty[i]);
+            int chunkZ = DirtyChunkTracker.chunkZ(dirty[i]);
+            int distance = players.nearestDistance(chunkX, chunkZ, radius);
+            if (distance <= radius) {
+                candidates.add((long) distance << 32 | i);
+            }
+        }
+        long[] ordered = candidates.toLongArray();
+        Arrays.sort(ordered);
+
+        int started = Math.min(budget, ordered.length);
+        for (int n = 0; n < started; n++) {
+            long chunk = dirty[(int) ordered[n]];
+            this.inFlight.incrementAndGet();
+            this.tileManager.refreshChunk(worldName, DirtyChunkTracker.chunkX(chunk), DirtyChunkTracker.chunkZ(chunk))
+                .whenComplete((v, ex) -> {
+                    this.inFlight.decrementAndGet();
+                    this.refreshed.increment();
+                });
+        }
+        return started;
+    }
+
+    /**
+     * Changed chunks re-rendered in the background.
+     */
+    public long getRefreshed() {
+        return this.refreshed.sum();
+    }
+
+    /**
+     * Chunks marked dirty by the periodic fallback sweep rather than a block event.
+     */
+    public long getFallbackMarked() {
+        return this.fallbackMarked.sum();
+    }
+}
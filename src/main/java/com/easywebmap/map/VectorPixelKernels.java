@@ -0,0 +1,82 @@
+package com.easywebmap.map;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API versions of the {@link PixelKernels} loops.
+ * Only loaded once PixelKernels has confirmed the incubator module is present.
+ */
+class VectorPixelKernels {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    // Lane i reads element 2i (even) or 2i + 1 (odd) of a row pair
+    private static final int[] EVEN_LANES = new int[LANES];
+    private static final int[] ODD_LANES = new int[LANES];
+
+    static {
+        for (int i = 0; i < LANES; i++) {
+            EVEN_LANES[i] = i * 2;
+            ODD_LANES[i] = i * 2 + 1;
+        }
+    }
+
+    private VectorPixelKernels() {
+    }
+
+    /**
+     * Vectors narrower than four ints are slower than the scalar loops.
+     */
+    static boolean isUsable() {
+        return LANES >= 4;
+    }
+
+    static void rgbaToRgb(int[] src, int srcOffset, int[] dest, int destOffset, int length) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += LANES) {
+            IntVector.fromArray(SPECIES, src, srcOffset + i)
+                .lanewise(VectorOperators.LSHR, 8)
+                .intoArray(dest, destOffset + i);
+        }
+        for (; i < length; i++) {
+            dest[destOffset + i] = src[srcOffset + i] >>> 8;
+        }
+    }
+
+    static void gatherRgbaToRgb(int[] src, int srcRowStart, int[] columns, int[] dest, int destOffset, int length) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += LANES) {
+            IntVector.fromArray(SPECIES, src, srcRowStart, columns, i)
+                .lanewise(VectorOperators.LSHR, 8)
+                .intoArray(dest, destOffset + i);
+        }
+        for (; i < length; i++) {
+            dest[destOffset + i] = src[srcRowStart + columns[i]] >>> 8;
+        }
+    }
+
+    /**
+     * Box-filter as many whole vectors of one output row as fit; returns pixels written.
+     */
+    static int downsample2xRow(int[] src, int top, int bottom, int[] dest, int destOffset, int width) {
+        int x = 0;
+        int bound = SPECIES.loopBound(width);
+        for (; x < bound; x += LANES) {
+            int offset = x * 2;
+            IntVector a = IntVector.fromArray(SPECIES, src, top + offset, EVEN_LANES, 0);
+            IntVector b = IntVector.fromArray(SPECIES, src, top + offset, ODD_LANES, 0);
+            IntVector c = IntVector.fromArray(SPECIES, src, bottom + offset, EVEN_LANES, 0);
+            IntVector d = IntVector.fromArray(SPECIES, src, bottom + offset, ODD_LANES, 0);
+
+            IntVector redBlue = a.and(0xFF00FF).add(b.and(0xFF00FF)).add(c.and(0xFF00FF)).add(d.and(0xFF00FF));
+            IntVector green = a.and(0x00FF00).add(b.and(0x00FF00)).add(c.and(0x00FF00)).add(d.and(0x00FF00));
+            redBlue = redBlue.add(0x020002).lanewise(VectorOperators.LSHR, 2).and(0xFF00FF);
+            green = green.add(0x000200).lanewise(VectorOperators.LSHR, 2).and(0x00FF00);
+            redBlue.or(green).intoArray(dest, destOffset + x);
+        }
+        return x;
+    }
+}
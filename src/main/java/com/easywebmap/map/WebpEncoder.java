@@ -0,0 +1,736 @@
+package com.easywebmap.map;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pure-Java lossless WebP (VP8L) encoder for opaque map tiles.
+ * Low-color tiles use the color-indexing transform with pixel bundling;
+ * everything else uses subtract-green plus a per-block spatial predictor.
+ * Pixels are LZ77-coded against a hash chain and written with a single
+ * group of canonical prefix codes.
+ */
+public class WebpEncoder {
+    private static final ConcurrentHashMap<Integer, byte[]> EMPTY_TILE_CACHE = new ConcurrentHashMap<>();
+    private static final ThreadLocal<WebpEncoder> ENCODER = ThreadLocal.withInitial(WebpEncoder::new);
+
+    private static final int VP8L_SIGNATURE = 0x2F;
+    private static final int TRANSFORM_PREDICTOR = 0;
+    private static final int TRANSFORM_SUBTRACT_GREEN = 2;
+    private static final int TRANSFORM_COLOR_INDEXING = 3;
+
+    private static final int NUM_LITERAL_CODES = 256;
+    private static final int NUM_LENGTH_CODES = 24;
+    private static final int NUM_DISTANCE_CODES = 40;
+    private static final int MAX_CODE_LENGTH = 15;
+    private static final int MAX_CODE_LENGTH_CODE_LENGTH = 7;
+    private static final int NUM_CODE_LENGTH_CODES = 19;
+    private static final int[] CODE_LENGTH_ORDER = {17, 18, 0, 1, 2, 3, 4, 5, 16, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15};
+
+    // Predictor modes tried per block: left, top, average(left, top)
+    private static final int PREDICTOR_LEFT = 1;
+    private static final int PREDICTOR_TOP = 2;
+    private static final int PREDICTOR_AVERAGE_LEFT_TOP = 7;
+    private static final int[] PREDICTOR_CANDIDATES = {PREDICTOR_LEFT, PREDICTOR_TOP, PREDICTOR_AVERAGE_LEFT_TOP};
+    private static final int PREDICTOR_BITS = 5;
+
+    private static final int MIN_MATCH = 3;
+    private static final int MAX_MATCH = 4096;
+    private static final int MAX_CHAIN = 32;
+    // Largest distance the 40 distance prefix codes reach, less the 120 plane codes
+    private static final int MAX_DISTANCE = (1 << 20) - 120;
+    private static final int HASH_BITS = 15;
+
+    private final BitWriter writer = new BitWriter();
+    private final ColorPalette palette = new ColorPalette();
+    private int[] hashHead = new int[1 << HASH_BITS];
+    private int[] hashChain = new int[0];
+    private int[] tokens = new int[0];
+
+    private WebpEncoder() {
+    }
+
+    /**
+     * Encode opaque 0xRRGGBB pixels as a lossless WebP image.
+     */
+    public static byte[] encode(int[] pixels, int width, int height) {
+        return ENCODER.get().write(pixels, width, height);
+    }
+
+    /**
+     * Encode square RGB pixels (0xRRGGBB) as WebP.
+     */
+    public static byte[] encode(int[] pixels, int size) {
+        return encode(pixels, size, size);
+    }
+
+    /**
+     * Get cached empty tile - generates once per size, reuses forever.
+     */
+    public static byte[] encodeEmpty(int size) {
+        return EMPTY_TILE_CACHE.computeIfAbsent(size, s -> encode(new int[s * s], s));
+    }
+
+    public static boolean isEmptyTile(byte[] data) {
+        if (data == null || data.length == 0) {
+            return true;
+        }
+        for (byte[] empty : EMPTY_TILE_CACHE.values()) {
+            if (data == empty || Arrays.equals(data, empty)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private byte[] write(int[] pixels, int width, int height) {
+        BitWriter out = this.writer;
+        out.reset();
+        out.writeBits(VP8L_SIGNATURE, 8);
+        out.writeBits(width - 1, 14);
+        out.writeBits(height - 1, 14);
+        out.writeBits(0, 1); // alpha_is_used
+        out.writeBits(0, 3); // version
+
+        int[] image;
+        int xsize;
+        if (this.buildPalette(pixels)) {
+            int bits = this.palette.size() <= 2 ? 3 : this.palette.size() <= 4 ? 2 : this.palette.size() <= 16 ? 1 : 0;
+            this.writeColorIndexingTransform();
+            xsize = (width + (1 << bits) - 1) >> bits;
+            image = this.bundlePixels(pixels, width, height, bits, xsize);
+        } else {
+            image = new int[pixels.length];
+            for (int i = 0; i < pixels.length; i++) {
+                int rgb = pixels[i];
+                int green = (rgb >> 8) & 0xFF;
+                int red = ((rgb >> 16) - green) & 0xFF;
+                int blue = (rgb - green) & 0xFF;
+                image[i] = 0xFF000000 | (red << 16) | (green << 8) | blue;
+            }
+            out.writeBits(1, 1);
+            out.writeBits(TRANSFORM_SUBTRACT_GREEN, 2);
+            image = this.applyPredictor(image, width, height);
+            xsize = width;
+        }
+        out.writeBits(0, 1); // no more transforms
+
+        this.writeImageData(image, xsize, height, true);
+        return this.wrapRiff(out.toByteArray());
+    }
+
+    private boolean buildPalette(int[] pixels) {
+        ColorPalette colors = this.palette;
+        colors.reset();
+        for (int rgb : pixels) {
+            if (colors.indexOf(rgb) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Color table is coded as a width x 1 image of component-wise deltas.
+     */
+    private void writeColorIndexingTransform() {
+        int size = this.palette.size();
+        this.writer.writeBits(1, 1);
+        this.writer.writeBits(TRANSFORM_COLOR_INDEXING, 2);
+        this.writer.writeBits(size - 1, 8);
+
+        int[] table = new int[size];
+        int previous = 0;
+        for (int i = 0; i < size; i++) {
+            int argb = 0xFF000000 | this.palette.getColor(i);
+            table[i] = subtractPixels(argb, previous);
+            previous = argb;
+        }
+        this.writeImageData(table, size, 1, false);
+    }
+
+    private int[] bundlePixels(int[] pixels, int width, int height, int bits, int xsize) {
+        int[] bundled = new int[xsize * height];
+        Arrays.fill(bundled, 0xFF000000);
+        int perPixel = 8 >> bits;
+        int mask = (1 << bits) - 1;
+        for (int y = 0; y < height; y++) {
+            int src = y * width;
+            int dest = y * xsize;
+            for (int x = 0; x < width; x++) {
+                int index = this.palette.indexOf(pixels[src + x]);
+                bundled[dest + (x >> bits)] |= index << (8 + (x & mask) * perPixel);
+            }
+        }
+        return bundled;
+    }
+
+    /**
+     * Choose a predictor per block, write the mode sub-image and return residuals.
+     */
+    private int[] applyPredictor(int[] image, int width, int height) {
+        int blockSize = 1 << PREDICTOR_BITS;
+        int blocksX = (width + blockSize - 1) >> PREDICTOR_BITS;
+        int blocksY = (height + blockSize - 1) >> PREDICTOR_BITS;
+        int[] modes = new int[blocksX * blocksY];
+
+        for (int by = 0; by < blocksY; by++) {
+            for (int bx = 0; bx < blocksX; bx++) {
+                int bestMode = PREDICTOR_LEFT;
+                long bestCost = Long.MAX_VALUE;
+                for (int mode : PREDICTOR_CANDIDATES) {
+                    long cost = 0;
+                    for (int y = by * blockSize; y < Math.min(height, (by + 1) * blockSize); y++) {
+                        for (int x = bx * blockSize; x < Math.min(width, (bx + 1) * blockSize); x++) {
+                            int residual = subtractPixels(image[y * width + x], predict(image, width, x, y, mode));
+                            cost += residualCost(residual);
+                        }
+                    }
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestMode = mode;
+                    }
+                }
+                modes[by * blocksX + bx] = bestMode;
+            }
+        }
+
+        int[] residuals = new int[image.length];
+        for (int y = 0; y < height; y++) {
+            int modeRow = (y >> PREDICTOR_BITS) * blocksX;
+            for (int x = 0; x < width; x++) {
+                int mode = modes[modeRow + (x >> PREDICTOR_BITS)];
+                residuals[y * width + x] = subtractPixels(image[y * width + x], predict(image, width, x, y, mode));
+            }
+        }
+
+        this.writer.writeBits(1, 1);
+        this.writer.writeBits(TRANSFORM_PREDICTOR, 2);
+        this.writer.writeBits(PREDICTOR_BITS - 2, 3);
+        int[] modeImage = new int[modes.length];
+        for (int i = 0; i < modes.length; i++) {
+            modeImage[i] = 0xFF000000 | (modes[i] << 8);
+        }
+        this.writeImageData(modeImage, blocksX, blocksY, false);
+        return residuals;
+    }
+
+    private static int predict(int[] image, int width, int x, int y, int mode) {
+        if (y == 0) {
+            return x == 0 ? 0xFF000000 : image[x - 1];
+        }
+        int top = image[(y - 1) * width + x];
+        if (x == 0) {
+            return top;
+        }
+        int left = image[y * width + x - 1];
+        switch (mode) {
+            case PREDICTOR_LEFT:
+                return left;
+            case PREDICTOR_TOP:
+                return top;
+            default:
+                return average2(left, top);
+        }
+    }
+
+    private static int average2(int a, int b) {
+        return (((a ^ b) & 0xFEFEFEFE) >>> 1) + (a & b);
+    }
+
+    private static int residualCost(int residual) {
+        int cost = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int v = (residual >> shift) & 0xFF;
+            cost += v < 128 ? v : 256 - v;
+        }
+        return cost;
+    }
+
+    private static int subtractPixels(int a, int b) {
+        int alphaGreen = 0x00FF00FF + (a & 0xFF00FF00) - (b & 0xFF00FF00);
+        int redBlue = 0xFF00FF00 + (a & 0x00FF00FF) - (b & 0x00FF00FF);
+        return (alphaGreen & 0xFF00FF00) | (redBlue & 0x00FF00FF);
+    }
+
+    /**
+     * Write an entropy-coded image: LZ77 tokens plus one prefix code group.
+     * Only the main image carries the meta prefix code bit.
+     */
+    private void writeImageData(int[] argb, int xsize, int ysize, boolean isMainImage) {
+        BitWriter out = this.writer;
+        out.writeBits(0, 1); // no color cache
+        if (isMainImage) {
+            out.writeBits(0, 1); // no meta prefix codes
+        }
+
+        int tokenCount = this.tokenize(argb, xsize);
+        int[] tokens = this.tokens;
+
+        int[] green = new int[NUM_LITERAL_CODES + NUM_LENGTH_CODES];
+        int[] red = new int[NUM_LITERAL_CODES];
+        int[] blue = new int[NUM_LITERAL_CODES];
+        int[] alpha = new int[NUM_LITERAL_CODES];
+        int[] distance = new int[NUM_DISTANCE_CODES];
+        for (int t = 0; t < tokenCount; t += 2) {
+            int length = tokens[t];
+            if (length == 0) {
+                int pixel = tokens[t + 1];
+                green[(pixel >> 8) & 0xFF]++;
+                red[(pixel >> 16) & 0xFF]++;
+                blue[pixel & 0xFF]++;
+                alpha[pixel >>> 24]++;
+            } else {
+                green[NUM_LITERAL_CODES + prefixCode(length)]++;
+                distance[prefixCode(tokens[t + 1])]++;
+            }
+        }
+
+        PrefixCode greenCode = this.writePrefixCode(green);
+        PrefixCode redCode = this.writePrefixCode(red);
+        PrefixCode blueCode = this.writePrefixCode(blue);
+        PrefixCode alphaCode = this.writePrefixCode(alpha);
+        PrefixCode distanceCode = this.writePrefixCode(distance);
+
+        for (int t = 0; t < tokenCount; t += 2) {
+            int length = tokens[t];
+            if (length == 0) {
+                int pixel = tokens[t + 1];
+                greenCode.write(out, (pixel >> 8) & 0xFF);
+                redCode.write(out, (pixel >> 16) & 0xFF);
+                blueCode.write(out, pixel & 0xFF);
+                alphaCode.write(out, pixel >>> 24);
+            } else {
+                greenCode.write(out, NUM_LITERAL_CODES + prefixCode(length));
+                writePrefixExtraBits(out, length);
+                int code = tokens[t + 1];
+                distanceCode.write(out, prefixCode(code));
+                writePrefixExtraBits(out, code);
+            }
+        }
+    }
+
+    /**
+     * Greedy LZ77 over pixels. Tokens are pairs: (0, argb) for literals and
+     * (length, distance code) for backward references.
+     */
+    private int tokenize(int[] argb, int xsize) {
+        int n = argb.length;
+        if (this.tokens.length < n * 2) {
+            this.tokens = new int[n * 2];
+        }
+        if (this.hashChain.length < n) {
+            this.hashChain = new int[n];
+        }
+        int[] head = this.hashHead;
+        int[] chain = this.hashChain;
+        Arrays.fill(head, -1);
+
+        int count = 0;
+        int i = 0;
+        while (i < n) {
+            int bestLength = 0;
+            int bestDistance = 0;
+            if (i + MIN_MATCH <= n) {
+                int maxLength = Math.min(MAX_MATCH, n - i);
+                // Neighbours left and above are cheap to code, try them first
+                if (i >= 1) {
+                    int length = matchLength(argb, i - 1, i, maxLength);
+                    if (length > bestLength) {
+                        bestLength = length;
+                        bestDistance = 1;
+                    }
+                }
+                if (i >= xsize && xsize > 1) {
+                    int length = matchLength(argb, i - xsize, i, maxLength);
+                    if (length > bestLength) {
+                        bestLength = length;
+                        bestDistance = xsize;
+                    }
+                }
+                int candidate = head[hash(argb, i)];
+                // Chains run backwards, so once past the window every later candidate is too
+                for (int depth = 0; candidate >= 0 && depth < MAX_CHAIN && bestLength < maxLength
+                        && i - candidate <= MAX_DISTANCE; depth++) {
+                    int length = matchLength(argb, candidate, i, maxLength);
+                    if (length > bestLength) {
+                        bestLength = length;
+                        bestDistance = i - candidate;
+                    }
+                    candidate = chain[candidate];
+                }
+            }
+
+            int advance;
+            if (bestLength >= MIN_MATCH) {
+                this.tokens[count++] = bestLength;
+                this.tokens[count++] = distanceToCode(bestDistance, xsize);
+                advance = bestLength;
+            } else {
+                this.tokens[count++] = 0;
+                this.tokens[count++] = argb[i];
+                advance = 1;
+            }
+            for (int end = i + advance; i < end; i++) {
+                if (i + 1 < n) {
+                    int h = hash(argb, i);
+                    chain[i] = head[h];
+                    head[h] = i;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static int hash(int[] argb, int i) {
+        long key = ((long) argb[i] << 32) ^ (argb[i + 1] & 0xFFFFFFFFL);
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - HASH_BITS));
+    }
+
+    private static int matchLength(int[] argb, int from, int to, int maxLength) {
+        int length = 0;
+        while (length < maxLength && argb[from + length] == argb[to + length]) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Map a pixel distance to a VP8L distance code. The two closest plane
+     * codes (pixel above, pixel to the left) get their short codes.
+     */
+    private static int distanceToCode(int distance, int xsize) {
+        if (distance == xsize) return 1;
+        if (distance == 1) return 2;
+        return distance + 120;
+    }
+
+    private static int prefixCode(int value) {
+        int v = value - 1;
+        if (v < 4) {
+            return v;
+        }
+        int highBit = 31 - Integer.numberOfLeadingZeros(v);
+        int second = (v >> (highBit - 1)) & 1;
+        return 2 * highBit + second;
+    }
+
+    private static void writePrefixExtraBits(BitWriter out, int value) {
+        int v = value - 1;
+        if (v < 4) {
+            return;
+        }
+        int highBit = 31 - Integer.numberOfLeadingZeros(v);
+        int extraBits = highBit - 1;
+        out.writeBits(v & ((1 << extraBits) - 1), extraBits);
+    }
+
+    /**
+     * Build a prefix code from a histogram and write its description.
+     */
+    private PrefixCode writePrefixCode(int[] histogram) {
+        BitWriter out = this.writer;
+        int used = 0;
+        int first = -1;
+        int second = -1;
+        for (int s = 0; s < histogram.length; s++) {
+            if (histogram[s] > 0) {
+                if (used == 0) first = s;
+                else if (used == 1) second = s;
+                used++;
+            }
+        }
+
+        if (used <= 2 && (used == 0 || first < 256) && (used < 2 || second < 256)) {
+            // Simple code: one or two 8-bit symbols
+            int symbol = used == 0 ? 0 : first;
+            out.writeBits(1, 1);
+            out.writeBits(used == 2 ? 1 : 0, 1);
+            if (symbol < 2) {
+                out.writeBits(0, 1);
+                out.writeBits(symbol, 1);
+            } else {
+                out.writeBits(1, 1);
+                out.writeBits(symbol, 8);
+            }
+            if (used == 2) {
+                out.writeBits(second, 8);
+            }
+            int[] lengths = new int[histogram.length];
+            lengths[symbol] = 1;
+            if (used == 2) {
+                lengths[second] = 1;
+            }
+            return new PrefixCode(lengths);
+        }
+
+        int[] lengths = buildCodeLengths(histogram, MAX_CODE_LENGTH);
+        this.writeCodeLengths(lengths);
+        return new PrefixCode(lengths);
+    }
+
+    /**
+     * Normal code: the code lengths themselves are run-length coded with a
+     * 19-symbol code-length code.
+     */
+    private void writeCodeLengths(int[] lengths) {
+        BitWriter out = this.writer;
+        int[] symbols = new int[lengths.length];
+        int[] extras = new int[lengths.length];
+        int count = 0;
+        int previous = 8;
+        int i = 0;
+        while (i < lengths.length) {
+            int value = lengths[i];
+            int run = 1;
+            while (i + run < lengths.length && lengths[i + run] == value) {
+                run++;
+            }
+            if (value == 0) {
+                while (run >= 11) {
+                    int r = Math.min(run, 138);
+                    symbols[count] = 18;
+                    extras[count++] = r - 11;
+                    run -= r;
+                    i += r;
+                }
+                if (run >= 3) {
+                    symbols[count] = 17;
+                    extras[count++] = run - 3;
+                    i += run;
+                    run = 0;
+                }
+            } else {
+                if (value != previous) {
+                    symbols[count++] = value;
+                    previous = value;
+                    run--;
+                    i++;
+                }
+                while (run >= 3) {
+                    int r = Math.min(run, 6);
+                    symbols[count] = 16;
+                    extras[count++] = r - 3;
+                    run -= r;
+                    i += r;
+                }
+            }
+            for (; run > 0; run--, i++) {
+                symbols[count++] = value;
+            }
+        }
+
+        int[] histogram = new int[NUM_CODE_LENGTH_CODES];
+        for (int t = 0; t < count; t++) {
+            histogram[symbols[t]]++;
+        }
+        int[] codeLengthLengths = buildCodeLengths(histogram, MAX_CODE_LENGTH_CODE_LENGTH);
+        int written = NUM_CODE_LENGTH_CODES;
+        while (written > 4 && codeLengthLengths[CODE_LENGTH_ORDER[written - 1]] == 0) {
+            written--;
+        }
+
+        out.writeBits(0, 1); // normal code
+        out.writeBits(written - 4, 4);
+        for (int k = 0; k < written; k++) {
+            out.writeBits(codeLengthLengths[CODE_LENGTH_ORDER[k]], 3);
+        }
+        out.writeBits(0, 1); // max_symbol not used
+
+        PrefixCode codeLengthCode = new PrefixCode(codeLengthLengths);
+        for (int t = 0; t < count; t++) {
+            int symbol = symbols[t];
+            codeLengthCode.write(out, symbol);
+            if (symbol == 16) {
+                out.writeBits(extras[t], 2);
+            } else if (symbol == 17) {
+                out.writeBits(extras[t], 3);
+            } else if (symbol == 18) {
+                out.writeBits(extras[t], 7);
+            }
+        }
+    }
+
+    /**
+     * Huffman code lengths limited to maxLength. If the tree is too deep, small
+     * counts are raised and the tree is rebuilt until it fits.
+     */
+    static int[] buildCodeLengths(int[] histogram, int maxLength) {
+        int n = histogram.length;
+        int[] lengths = new int[n];
+        int used = 0;
+        int only = 0;
+        for (int s = 0; s < n; s++) {
+            if (histogram[s] > 0) {
+                used++;
+                only = s;
+            }
+        }
+        if (used == 0) {
+            return lengths;
+        }
+        if (used == 1) {
+            lengths[only] = 1;
+            return lengths;
+        }
+
+        int[] counts = histogram.clone();
+        int minCount = 1;
+        while (true) {
+            // Nodes 0..n-1 are leaves, internal nodes are appended after them
+            int[] weight = new int[2 * n];
+            int[] parent = new int[2 * n];
+            PriorityQueue<int[]> queue = new PriorityQueue<>((a, b) -> a[0] != b[0] ? Integer.compare(a[0], b[0]) : Integer.compare(a[1], b[1]));
+            for (int s = 0; s < n; s++) {
+                if (counts[s] > 0) {
+                    weight[s] = Math.max(counts[s], minCount);
+                    queue.add(new int[]{weight[s], s});
+                }
+            }
+            int next = n;
+            while (queue.size() > 1) {
+                int[] a = queue.poll();
+                int[] b = queue.poll();
+                weight[next] = a[0] + b[0];
+                parent[a[1]] = next;
+                parent[b[1]] = next;
+                queue.add(new int[]{weight[next], next});
+                next++;
+            }
+            int root = next - 1;
+            int maxDepth = 0;
+            for (int s = 0; s < n; s++) {
+                if (counts[s] == 0) {
+                    lengths[s] = 0;
+                    continue;
+                }
+                int depth = 0;
+                for (int node = s; node != root; node = parent[node]) {
+                    depth++;
+                }
+                lengths[s] = depth;
+                maxDepth = Math.max(maxDepth, depth);
+            }
+            if (maxDepth <= maxLength) {
+                return lengths;
+            }
+            minCount *= 2;
+        }
+    }
+
+    private byte[] wrapRiff(byte[] vp8l) {
+        int padding = vp8l.length & 1;
+        int riffSize = 4 + 8 + vp8l.length + padding;
+        byte[] webp = new byte[8 + riffSize];
+        writeFourCc(webp, 0, "RIFF");
+        writeLittleEndian(webp, 4, riffSize);
+        writeFourCc(webp, 8, "WEBP");
+        writeFourCc(webp, 12, "VP8L");
+        writeLittleEndian(webp, 16, vp8l.length);
+        System.arraycopy(vp8l, 0, webp, 20, vp8l.length);
+        return webp;
+    }
+
+    private static void writeFourCc(byte[] dest, int pos, String fourCc) {
+        for (int i = 0; i < 4; i++) {
+            dest[pos + i] = (byte) fourCc.charAt(i);
+        }
+    }
+
+    private static void writeLittleEndian(byte[] dest, int pos, int value) {
+        dest[pos] = (byte) value;
+        dest[pos + 1] = (byte) (value >>> 8);
+        dest[pos + 2] = (byte) (value >>> 16);
+        dest[pos + 3] = (byte) (value >>> 24);
+    }
+
+    /**
+     * Canonical prefix code. Codes are stored bit-reversed because VP8L reads
+     * bits LSB-first. A code with a single symbol costs zero bits.
+     */
+    private static class PrefixCode {
+        final int[] codes;
+        final int[] lengths;
+
+        PrefixCode(int[] codeLengths) {
+            int n = codeLengths.length;
+            this.codes = new int[n];
+            this.lengths = codeLengths.clone();
+
+            int used = 0;
+            int[] lengthCounts = new int[MAX_CODE_LENGTH + 1];
+            for (int length : codeLengths) {
+                if (length > 0) {
+                    lengthCounts[length]++;
+                    used++;
+                }
+            }
+            if (used == 1) {
+                Arrays.fill(this.lengths, 0);
+                return;
+            }
+            int[] nextCode = new int[MAX_CODE_LENGTH + 2];
+            int code = 0;
+            for (int bits = 1; bits <= MAX_CODE_LENGTH; bits++) {
+                code = (code + lengthCounts[bits - 1]) << 1;
+                nextCode[bits] = code;
+            }
+            for (int s = 0; s < n; s++) {
+                int length = codeLengths[s];
+                if (length > 0) {
+                    this.codes[s] = Integer.reverse(nextCode[length]++) >>> (32 - length);
+                }
+            }
+        }
+
+        void write(BitWriter out, int symbol) {
+            out.writeBits(this.codes[symbol], this.lengths[symbol]);
+        }
+    }
+
+    /**
+     * LSB-first bit writer backed by a growable byte array.
+     */
+    private static class BitWriter {
+        private byte[] buffer = new byte[16 * 1024];
+        private int position;
+        private long bits;
+        private int bitCount;
+
+        void reset() {
+            this.position = 0;
+            this.bits = 0;
+            this.bitCount = 0;
+        }
+
+        void writeBits(int value, int count) {
+            if (count == 0) {
+                return;
+            }
+            this.bits |= ((long) value & ((1L << count) - 1)) << this.bitCount;
+            this.bitCount += count;
+            while (this.bitCount >= 8) {
+                this.put((byte) this.bits);
+                this.bits >>>= 8;
+                this.bitCount -= 8;
+            }
+        }
+
+        byte[] toByteArray() {
+            if (this.bitCount > 0) {
+                this.put((byte) this.bits);
+                this.bits = 0;
+                this.bitCount = 0;
+            }
+            return Arrays.copyOf(this.buffer, this.position);
+        }
+
+        private void put(byte b) {
+            if (this.position == this.buffer.length) {
+                this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+            }
+            this.buffer[this.position++] = b;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.easywebmap.tracker;
+
+import com.easywebmap.EasyWebMap;
+import com.easywebmap.map.ChunkChangeListener;
+import com.hypixel.hytale.component.ArchetypeChunk;
+import com.hypixel.hytale.component.CommandBuffer;
+import com.hypixel.hytale.component.Store;
+import com.hypixel.hytale.component.query.Query;
+import com.hypixel.hytale.component.system.EntityEventSystem;
+import com.hypixel.hytale.math.util.ChunkUtil;
+import com.hypixel.hytale.math.vector.Vector3i;
+import com.hypixel.hytale.server.core.event.events.ecs.BreakBlockEvent;
+import com.hypixel.hytale.server.core.event.events.ecs.PlaceBlockEvent;
+import com.hypixel.hytale.server.core.universe.world.World;
+import com.hypixel.hytale.server.core.universe.world.storage.EntityStore;
+
+/**
+ * Reports placed and broken blocks to a {@link ChunkChangeListener} as changed chunks.
+ */
+public class BlockChangeTracker {
+    private BlockChangeTracker() {
+    }
+
+    public static void register(EasyWebMap plugin, ChunkChangeListener listener) {
+        plugin.getEntityStoreRegistry().registerSystem(new PlaceSystem(listener));
+        plugin.getEntityStoreRegistry().registerSystem(new BreakSystem(listener));
+    }
+
+    private static void report(ChunkChangeListener listener, Store<EntityStore> store, Vector3i block) {
+        if (block == null) {
+            return;
+        }
+        try {
+            World world = store.getExternalData().getWorld();
+            listener.onChunkChanged(world.getName(), ChunkUtil.chunkCoordinate(block.x), ChunkUtil.chunkCoordinate(block.z));
+        } catch (Exception e) {
+            // Never let map bookkeeping break block handling
+            System.err.println("[EasyWebMap] Failed to track block change: " + e.getMessage());
+        }
+    }
+
+    private static class PlaceSystem extends EntityEventSystem<EntityStore, PlaceBlockEvent> {
+        private final ChunkChangeListener listener;
+
+        PlaceSystem(ChunkChangeListener listener) {
+            super(PlaceBlockEvent.class);
+            this.listener = listener;
+        }
+
+        @Override
+        public void handle(int index, ArchetypeChunk<EntityStore> chunk, Store<EntityStore> store,
+                           CommandBuffer<EntityStore> commandBuffer, PlaceBlockEvent event) {
+            if (!event.isCancelled()) {
+                report(this.listener, store, event.getTargetBlock());
+            }
+        }
+
+        @Override
+        public Query<EntityStore> getQuery() {
+            return Query.any();
+        }
+    }
+
+    private static class BreakSystem extends EntityEventSystem<EntityStore, BreakBlockEvent> {
+        private final ChunkChangeListener listener;
+
+        BreakSystem(ChunkChangeListener listener) {
+            super(BreakBlockEvent.class);
+            this.listener = listener;
+        }
+
+        @Override
+        public void handle(int index, ArchetypeChunk<EntityStore> chunk, Store<EntityStore> store,
+                           CommandBuffer<EntityStore> commandBuffer, BreakBlockEvent event) {
+            if (!event.isCancelled()) {
+                report(this.listener, store, event.getTargetBlock());
+            }
+        }
+
+        @Override
+        public Query<EntityStore> getQuery() {
+            return Query.any();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.easywebmap.tracker;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Writes one shared frame to many channels. Channels are grouped by their event loop
+ * and each loop gets one task that writes to all of its channels, rather than every
+ * write being handed over to the loop on its own.
+ */
+public final class ChannelFanOut {
+    private ChannelFanOut() {
+    }
+
+    /**
+     * Write a shared frame to every active channel given, then release it.
+     */
+    public static void writeToAll(Iterable<Channel> channels, WebSocketFrame frame) {
+        Map<EventLoop, List<Channel>> byLoop = new IdentityHashMap<>();
+        for (Channel channel : channels) {
+            if (channel.isActive()) {
+                byLoop.computeIfAbsent(channel.eventLoop(), loop -> new ArrayList<>()).add(channel);
+            }
+        }
+        for (Map.Entry<EventLoop, List<Channel>> entry : byLoop.entrySet()) {
+            List<Channel> loopChannels = entry.getValue();
+            frame.retain();
+            try {
+                entry.getKey().execute(() -> {
+                    try {
+                        for (Channel channel : loopChannels) {
+                            channel.writeAndFlush(frame.retainedDuplicate());
+                        }
+                    } finally {
+                        frame.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Event loop shutting down - its channels are closing anyway
+                frame.release();
+            }
+        }
+        frame.release();
+    }
+}
@@ -0,0 +1,140 @@
+package com.easywebmap.tracker;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Binary player messages, for clients that ask for the {@link #SUBPROTOCOL} WebSocket
+ * subprotocol. All numbers are big-endian.
+ *
+ * <pre>
+ * header:   u8 version, u8 type (1 = snapshot, 2 = delta, 3 = reset delta), f64 timestamp
+ * delta:    f64 precision
+ * worlds:   u16 count, then per world: u16 world id, string name
+ *           (new world ids only; a snapshot or reset defines every id used so far)
+ * sections: u16 count, then per world: u16 world id and
+ *   snapshot: u32 count, then per player: i32 id, string name, uuid, f32 x, y, z, yaw
+ *   delta:    u32 count, moved:  i32 id, i32 x, y, z, yaw
+ *             u32 count, joined: i32 id, string name, uuid, i32 x, y, z, yaw
+ *             u32 count, left:   i32 id
+ * string:   u16 byte length, UTF-8; uuid: 16 bytes
+ * </pre>
+ *
+ * Names and uuids are sent once per player and connection, in the snapshot or when the
+ * player joins; after that the id stands for them. Delta positions are in units of the
+ * precision and yaw in hundredths of a radian, as in the JSON deltas.
+ */
+public final class PlayerBinaryFormat {
+    public static final String SUBPROTOCOL = "easywebmap.players.v1";
+    private static final int VERSION = 1;
+    private static final int TYPE_SNAPSHOT = 1;
+    private static final int TYPE_DELTA = 2;
+    private static final int TYPE_RESET = 3;
+
+    private PlayerBinaryFormat() {
+    }
+
+    /**
+     * Write a full snapshot, defining every world id in worldNames.
+     */
+    public static void writeSnapshot(ByteBuf out, PlayerSnapshot snapshot,
+                                     List<String> worldNames, Map<String, Integer> worldIds) {
+        out.writeByte(VERSION);
+        out.writeByte(TYPE_SNAPSHOT);
+        out.writeDouble(snapshot.getTimestamp());
+        writeWorldNames(out, worldNames, 0);
+
+        int countIndex = out.writerIndex();
+        out.writeShort(0);
+        int sections = 0;
+        for (Map.Entry<String, PlayerSnapshot.WorldPlayers> entry : snapshot.getWorlds().entrySet()) {
+            PlayerSnapshot.WorldPlayers players = entry.getValue();
+            if (players.size() == 0) continue;
+            out.writeShort(worldIds.get(entry.getKey()));
+            out.writeInt(players.size());
+            for (int i = 0; i < players.size(); i++) {
+                out.writeInt(players.getId(i));
+                writeString(out, players.getName(i));
+                writeUuid(out, players.getUuid(i));
+                out.writeFloat((float) players.getX(i));
+                out.writeFloat((float) players.getY(i));
+                out.writeFloat((float) players.getZ(i));
+                out.writeFloat(players.getYaw(i));
+            }
+            sections++;
+        }
+        out.setShort(countIndex, sections);
+    }
+
+    /**
+     * Write a delta, defining the world ids from firstNewWorld on.
+     */
+    public static void writeDelta(ByteBuf out, PlayerDelta delta, List<String> worldNames, int firstNewWorld,
+                                  Map<String, Integer> worldIds) {
+        double precision = delta.getPrecision();
+        out.writeByte(VERSION);
+        out.writeByte(delta.isReset() ? TYPE_RESET : TYPE_DELTA);
+        out.writeDouble(delta.getTimestamp());
+        out.writeDouble(precision);
+        writeWorldNames(out, worldNames, firstNewWorld);
+
+        out.writeShort(delta.getWorlds().size());
+        for (PlayerDelta.WorldDelta world : delta.getWorlds()) {
+            PlayerSnapshot.WorldPlayers players = world.getPlayers();
+            out.writeShort(worldIds.get(world.getWorldName()));
+
+            IntArrayList moved = world.getMoved();
+            out.writeInt(moved.size());
+            for (int n = 0; n < moved.size(); n++) {
+                int i = moved.getInt(n);
+                out.writeInt(players.getId(i));
+                writePosition(out, players, i, precision);
+            }
+            IntArrayList joined = world.getJoined();
+            out.writeInt(joined.size());
+            for (int n = 0; n < joined.size(); n++) {
+                int i = joined.getInt(n);
+                out.writeInt(players.getId(i));
+                writeString(out, players.getName(i));
+                writeUuid(out, players.getUuid(i));
+                writePosition(out, players, i, precision);
+            }
+            IntArrayList left = world.getLeft();
+            out.writeInt(left.size());
+            for (int n = 0; n < left.size(); n++) {
+                out.writeInt(left.getInt(n));
+            }
+        }
+    }
+
+    private static void writeWorldNames(ByteBuf out, List<String> worldNames, int from) {
+        out.writeShort(worldNames.size() - from);
+        for (int id = from; id < worldNames.size(); id++) {
+            out.writeShort(id);
+            writeString(out, worldNames.get(id));
+        }
+    }
+
+    private static void writePosition(ByteBuf out, PlayerSnapshot.WorldPlayers players, int i, double precision) {
+        out.writeInt((int) PlayerDelta.quantize(players.getX(i), precision));
+        out.writeInt((int) PlayerDelta.quantize(players.getY(i), precision));
+        out.writeInt((int) PlayerDelta.quantize(players.getZ(i), precision));
+        out.writeInt((int) PlayerDelta.quantize(players.getYaw(i), PlayerDelta.YAW_PRECISION));
+    }
+
+    private static void writeString(ByteBuf out, String value) {
+        out.writeShort(ByteBufUtil.utf8Bytes(value));
+        out.writeCharSequence(value, StandardCharsets.UTF_8);
+    }
+
+    private static void writeUuid(ByteBuf out, String uuid) {
+        UUID parsed = UUID.fromString(uuid);
+        out.writeLong(parsed.getMostSignificantBits());
+        out.writeLong(parsed.getLeastSignificantBits());
+    }
+}
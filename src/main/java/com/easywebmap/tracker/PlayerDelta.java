@@ -0,0 +1,293 @@
+package com.easywebmap.tracker;
+
+import com.google.gson.Gson;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * The difference between two player snapshots. Players are referred to by their
+ * snapshot id; positions are compared as integers in units of the precision and yaw
+ * in hundredths of a radian, so a player only counts as moved once one of those
+ * integers changes. Computed once per tick and written in each wire format; a reset
+ * delta replaces whatever the client knew instead of adding to it.
+ */
+public final class PlayerDelta {
+    private static final Gson GSON = new Gson();
+    // Yaw quantization step, in radians
+    public static final double YAW_PRECISION = 0.01;
+
+    private final long timestamp;
+    private final double precision;
+    private final List<WorldDelta> worlds;
+    private final boolean reset;
+
+    private PlayerDelta(long timestamp, double precision, List<WorldDelta> worlds, boolean reset) {
+        this.timestamp = timestamp;
+        this.precision = precision;
+        this.worlds = worlds;
+        this.reset = reset;
+    }
+
+    public static PlayerDelta of(long timestamp, double precision, List<WorldDelta> worlds, boolean reset) {
+        return new PlayerDelta(timestamp, precision, worlds, reset);
+    }
+
+    /**
+     * The changes from previous to current in the worlds accepted by the filter, or null
+     * if no client would see a difference.
+     */
+    public static PlayerDelta compute(PlayerSnapshot previous, PlayerSnapshot current, double precision,
+                                      Predicate<String> worldFilter) {
+        Set<String> worldNames = new HashSet<>(previous.getWorlds().keySet());
+        worldNames.addAll(current.getWorlds().keySet());
+        List<WorldDelta> worlds = new ArrayList<>();
+        for (String worldName : worldNames) {
+            if (!worldFilter.test(worldName)) continue;
+            WorldDelta world = WorldDelta.compute(worldName, previous.getWorld(worldName),
+                current.getWorld(worldName), precision);
+            if (world != null) {
+                worlds.add(world);
+            }
+        }
+        return worlds.isEmpty() ? null : new PlayerDelta(current.getTimestamp(), precision, worlds, false);
+    }
+
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    public double getPrecision() {
+        return this.precision;
+    }
+
+    public List<WorldDelta> getWorlds() {
+        return this.worlds;
+    }
+
+    /**
+     * A world's changes, or null if nothing changed there.
+     */
+    public WorldDelta getWorld(String worldName) {
+        for (WorldDelta world : this.worlds) {
+            if (world.worldName.equals(worldName)) {
+                return world;
+            }
+        }
+        return null;
+    }
+
+    public boolean isReset() {
+        return this.reset;
+    }
+
+    /**
+     * The "playersDelta" WebSocket message.
+     */
+    public byte[] toJson() {
+        StringBuilder message = new StringBuilder(128);
+        message.append("{\"type\":\"playersDelta\",\"timestamp\":").append(this.timestamp)
+            .append(",\"precision\":").append(this.precision);
+        if (this.reset) {
+            message.append(",\"reset\":true");
+        }
+        message.append(",\"worlds\":{");
+        for (int w = 0; w < this.worlds.size(); w++) {
+            WorldDelta world = this.worlds.get(w);
+            if (w > 0) message.append(',');
+            message.append(GSON.toJson(world.worldName)).append(':');
+            world.appendJson(message, this.precision);
+        }
+        return message.append("}}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static long quantize(double value, double precision) {
+        return Math.round(value / precision);
+    }
+
+    /**
+     * One world's changes, as indexes into the current players plus the ids that left.
+     */
+    public static final class WorldDelta {
+        private final String worldName;
+        private final PlayerSnapshot.WorldPlayers players;
+        private final IntArrayList moved;
+        private final IntArrayList joined;
+        private final IntArrayList left;
+
+        private WorldDelta(String worldName, PlayerSnapshot.WorldPlayers players,
+                           IntArrayList moved, IntArrayList joined, IntArrayList left) {
+            this.worldName = worldName;
+            this.players = players;
+            this.moved = moved;
+            this.joined = joined;
+            this.left = left;
+        }
+
+        static WorldDelta compute(String worldName, PlayerSnapshot.WorldPlayers before,
+                                  PlayerSnapshot.WorldPlayers after, double precision) {
+            int beforeCount = before != null ? before.size() : 0;
+            int afterCount = after != null ? after.size() : 0;
+            if (beforeCount == 0 && afterCount == 0) {
+                return null;
+            }
+            Int2IntOpenHashMap beforeIndex = new Int2IntOpenHashMap(beforeCount);
+            beforeIndex.defaultReturnValue(-1);
+            for (int i = 0; i < beforeCount; i++) {
+                beforeIndex.put(before.getId(i), i);
+            }
+
+            IntArrayList moved = new IntArrayList();
+            IntArrayList joined = new IntArrayList();
+            for (int i = 0; i < afterCount; i++) {
+                int j = beforeIndex.remove(after.getId(i));
+                if (j < 0) {
+                    joined.add(i);
+                } else if (quantize(after.getX(i), precision) != quantize(before.getX(j), precision)
+                        || quantize(after.getY(i), precision) != quantize(before.getY(j), precision)
+                        || quantize(after.getZ(i), precision) != quantize(before.getZ(j), precision)
+                        || quantize(after.getYaw(i), YAW_PRECISION) != quantize(before.getYaw(j), YAW_PRECISION)) {
+                    moved.add(i);
+                }
+            }
+            // Whatever is left in the index was not seen this tick
+            IntArrayList left = new IntArrayList(beforeIndex.keySet());
+
+            if (moved.isEmpty() && joined.isEmpty() && left.isEmpty()) {
+                return null;
+            }
+            return new WorldDelta(worldName, after, moved, joined, left);
+        }
+
+        /**
+         * The changes a client watching part of a world needs: players inside bounds
+         * (minX, minZ, maxX, maxZ in blocks, null for the whole world) that it doesn't know
+         * join, known ones outside leave. moved flags, by player index, who moved this tick
+         * (null for nobody). known holds the ids the client has and is updated to the ones
+         * it will have. Returns null if the client sees no difference.
+         */
+        public static WorldDelta forView(String worldName, PlayerSnapshot.WorldPlayers players,
+                                         boolean[] moved, IntOpenHashSet known, double[] bounds) {
+            int count = players != null ? players.size() : 0;
+            IntArrayList movedOut = new IntArrayList();
+            IntArrayList joined = new IntArrayList();
+            IntOpenHashSet seen = new IntOpenHashSet(count);
+            for (int i = 0; i < count; i++) {
+                if (bounds != null && (players.getX(i) < bounds[0] || players.getZ(i) < bounds[1]
+                        || players.getX(i) > bounds[2] || players.getZ(i) > bounds[3])) continue;
+                int id = players.getId(i);
+                seen.add(id);
+                if (!known.contains(id)) {
+                    joined.add(i);
+                } else if (moved != null && moved[i]) {
+                    movedOut.add(i);
+                }
+            }
+            IntArrayList left = new IntArrayList();
+            for (IntIterator it = known.iterator(); it.hasNext(); ) {
+                int id = it.nextInt();
+                if (!seen.contains(id)) {
+                    left.add(id);
+                }
+            }
+            known.clear();
+            known.addAll(seen);
+            if (movedOut.isEmpty() && joined.isEmpty() && left.isEmpty()) {
+                return null;
+            }
+            return new WorldDelta(worldName, players, movedOut, joined, left);
+        }
+
+        public String getWorldName() {
+            return this.worldName;
+        }
+
+        /**
+         * The world's current players, which moved and joined index into; null if it has none.
+         */
+        public PlayerSnapshot.WorldPlayers getPlayers() {
+            return this.players;
+        }
+
+        public IntArrayList getMoved() {
+            return this.moved;
+        }
+
+        /**
+         * Who moved, flagged by index into the current players.
+         */
+        public boolean[] getMovedFlags() {
+            boolean[] flags = new boolean[this.players != null ? this.players.size() : 0];
+            for (int n = 0; n < this.moved.size(); n++) {
+                flags[this.moved.getInt(n)] = true;
+            }
+            return flags;
+        }
+
+        public IntArrayList getJoined() {
+            return this.joined;
+        }
+
+        /**
+         * Ids of the players no longer in this world.
+         */
+        public IntArrayList getLeft() {
+            return this.left;
+        }
+
+        private void appendJson(StringBuilder json, double precision) {
+            json.append('{');
+            boolean first = true;
+            if (!this.moved.isEmpty()) {
+                json.append("\"moved\":[");
+                for (int n = 0; n < this.moved.size(); n++) {
+                    int i = this.moved.getInt(n);
+                    if (n > 0) json.append(',');
+                    json.append('[').append(this.players.getId(i))
+                        .append(',').append(quantize(this.players.getX(i), precision))
+                        .append(',').append(quantize(this.players.getY(i), precision))
+                        .append(',').append(quantize(this.players.getZ(i), precision))
+                        .append(',').append(quantize(this.players.getYaw(i), YAW_PRECISION))
+                        .append(']');
+                }
+                json.append(']');
+                first = false;
+            }
+            if (!this.joined.isEmpty()) {
+                if (!first) json.append(',');
+                json.append("\"joined\":[");
+                for (int n = 0; n < this.joined.size(); n++) {
+                    int i = this.joined.getInt(n);
+                    if (n > 0) json.append(',');
+                    json.append("{\"id\":").append(this.players.getId(i))
+                        .append(",\"name\":").append(GSON.toJson(this.players.getName(i)))
+                        .append(",\"uuid\":\"").append(this.players.getUuid(i))
+                        .append("\",\"x\":").append(quantize(this.players.getX(i), precision))
+                        .append(",\"y\":").append(quantize(this.players.getY(i), precision))
+                        .append(",\"z\":").append(quantize(this.players.getZ(i), precision))
+                        .append(",\"yaw\":").append(quantize(this.players.getYaw(i), YAW_PRECISION))
+                        .append('}');
+                }
+                json.append(']');
+                first = false;
+            }
+            if (!this.left.isEmpty()) {
+                if (!first) json.append(',');
+                json.append("\"left\":[");
+                for (int n = 0; n < this.left.size(); n++) {
+                    if (n > 0) json.append(',');
+                    json.append(this.left.getInt(n));
+                }
+                json.append(']');
+            }
+            json.append('}');
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.easywebmap.tracker;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+/**
+ * Immutable spatial hash of the chunks players stood in at one sample, so proximity
+ * checks touch only the grid cells around a point instead of every player. Built once
+ * per tick and shared by every reader.
+ */
+public class PlayerGrid {
+    // Cells are 16x16 chunks, so typical radii touch at most 3x3 cells
+    private static final int CELL_BITS = 4;
+
+    public static final PlayerGrid EMPTY = new PlayerGrid(new Long2ObjectOpenHashMap<>(), 0);
+
+    // Player chunk coordinates per cell, as x,z pairs
+    private final Long2ObjectOpenHashMap<int[]> cells;
+    private final int players;
+
+    private PlayerGrid(Long2ObjectOpenHashMap<int[]> cells, int players) {
+        this.cells = cells;
+        this.players = players;
+    }
+
+    /**
+     * Index the first count players, given by their chunk coordinates.
+     */
+    public static PlayerGrid of(int[] chunkXs, int[] chunkZs, int count) {
+        if (count == 0) {
+            return EMPTY;
+        }
+        Long2ObjectOpenHashMap<IntArrayList> building = new Long2ObjectOpenHashMap<>();
+        for (int i = 0; i < count; i++) {
+            long cell = cellKey(chunkXs[i] >> CELL_BITS, chunkZs[i] >> CELL_BITS);
+            IntArrayList coords = building.get(cell);
+            if (coords == null) {
+                coords = new IntArrayList(4);
+                building.put(cell, coords);
+            }
+            coords.add(chunkXs[i]);
+            coords.add(chunkZs[i]);
+        }
+        Long2ObjectOpenHashMap<int[]> cells = new Long2ObjectOpenHashMap<>(building.size());
+        for (Long2ObjectMap.Entry<IntArrayList> entry : building.long2ObjectEntrySet()) {
+            cells.put(entry.getLongKey(), entry.getValue().toIntArray());
+        }
+        return new PlayerGrid(cells, count);
+    }
+
+    /**
+     * Whether a player is within radius chunks of a chunk on both axes.
+     */
+    public boolean anyWithin(int chunkX, int chunkZ, int radius) {
+        return this.nearestDistance(chunkX, chunkZ, radius) <= radius;
+    }
+
+    /**
+     * Chebyshev distance in chunks to the nearest player, looking no further than
+     * maxRadius. Returns Integer.MAX_VALUE if nobody is that close.
+     */
+    public int nearestDistance(int chunkX, int chunkZ, int maxRadius) {
+        int nearest = Integer.MAX_VALUE;
+        if (this.players == 0) {
+            return nearest;
+        }
+        int minCellX = (chunkX - maxRadius) >> CELL_BITS;
+        int maxCellX = (chunkX + maxRadius) >> CELL_BITS;
+        int minCellZ = (chunkZ - maxRadius) >> CELL_BITS;
+        int maxCellZ = (chunkZ + maxRadius) >> CELL_BITS;
+        if ((long) (maxCellX - minCellX + 1) * (maxCellZ - minCellZ + 1) > this.cells.size()) {
+            // A radius wider than the occupied area - scanning every cell is cheaper
+            for (int[] coords : this.cells.values()) {
+                nearest = nearestIn(coords, chunkX, chunkZ, maxRadius, nearest);
+            }
+            return nearest;
+        }
+        for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+            for (int cellZ = minCellZ; cellZ <= maxCellZ; cellZ++) {
+                int[] coords = this.cells.get(cellKey(cellX, cellZ));
+                if (coords != null) {
+                    nearest = nearestIn(coords, chunkX, chunkZ, maxRadius, nearest);
+                }
+            }
+        }
+        return nearest;
+    }
+
+    private static int nearestIn(int[] coords, int chunkX, int chunkZ, int maxRadius, int nearest) {
+        for (int i = 0; i < coords.length; i += 2) {
+            int distance = Math.max(Math.abs(coords[i] - chunkX), Math.abs(coords[i + 1] - chunkZ));
+            if (distance <= maxRadius && distance < nearest) {
+                nearest = distance;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Chunk coordinates of every player, as x,z pairs.
+     */
+    public int[] chunks() {
+        int[] chunks = new int[this.players * 2];
+        int i = 0;
+        for (int[] coords : this.cells.values()) {
+            System.arraycopy(coords, 0, chunks, i, coords.length);
+            i += coords.length;
+        }
+        return chunks;
+    }
+
+    public int size() {
+        return this.players;
+    }
+
+    private static long cellKey(int cellX, int cellZ) {
+        return (long) cellX << 32 | (cellZ & 0xFFFFFFFFL);
+    }
+}
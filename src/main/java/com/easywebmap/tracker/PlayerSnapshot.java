@@ -0,0 +1,223 @@
+package com.easywebmap.tracker;
+
+import com.easywebmap.EasyWebMap;
+import com.google.gson.Gson;
+import com.hypixel.hytale.math.util.ChunkUtil;
+import com.hypixel.hytale.math.vector.Transform;
+import com.hypixel.hytale.math.vector.Vector3d;
+import com.hypixel.hytale.math.vector.Vector3f;
+import com.hypixel.hytale.server.core.universe.PlayerRef;
+import com.hypixel.hytale.server.core.universe.Universe;
+import com.hypixel.hytale.server.core.universe.world.World;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * Immutable view of every tracked player, taken once per update tick. Positions are
+ * kept in primitive arrays and each world's JSON is serialized once, so the WebSocket
+ * broadcast, the players endpoint and proximity checks all share one pass over the
+ * universe instead of re-reading transforms.
+ */
+public class PlayerSnapshot {
+    private static final Gson GSON = new Gson();
+    private static final byte[] EMPTY_JSON = "[]".getBytes(StandardCharsets.UTF_8);
+
+    public static final PlayerSnapshot EMPTY = of(0, Map.of());
+
+    private final long timestamp;
+    private final Map<String, WorldPlayers> worlds;
+    // The full "players" WebSocket message, sent to clients as they connect
+    private final byte[] fullJson;
+
+    private PlayerSnapshot(long timestamp, Map<String, WorldPlayers> worlds, byte[] fullJson) {
+        this.timestamp = timestamp;
+        this.worlds = worlds;
+        this.fullJson = fullJson;
+    }
+
+    /**
+     * Sample every player in the enabled worlds once. Players are numbered by uuid
+     * through playerIds, so deltas can refer to them compactly.
+     */
+    public static PlayerSnapshot capture(EasyWebMap plugin, ToIntFunction<String> playerIds) {
+        Map<String, WorldPlayers> worlds = new HashMap<>();
+        for (World world : Universe.get().getWorlds().values()) {
+            if (plugin.getConfig().isWorldEnabled(world.getName())) {
+                worlds.put(world.getName(), WorldPlayers.capture(world, playerIds));
+            }
+        }
+        return of(System.currentTimeMillis(), worlds);
+    }
+
+    static PlayerSnapshot of(long timestamp, Map<String, WorldPlayers> worlds) {
+        StringBuilder message = new StringBuilder(256);
+        message.append("{\"type\":\"players\",\"timestamp\":").append(timestamp).append(",\"worlds\":{");
+        boolean first = true;
+        for (Map.Entry<String, WorldPlayers> entry : worlds.entrySet()) {
+            if (entry.getValue().count == 0) continue;
+            if (!first) message.append(',');
+            first = false;
+            message.append(GSON.toJson(entry.getKey())).append(':').append(entry.getValue().jsonString);
+        }
+        message.append("}}");
+        return new PlayerSnapshot(timestamp, Map.copyOf(worlds), message.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * Players in a world, or null if the world is unknown or not enabled.
+     */
+    public WorldPlayers getWorld(String worldName) {
+        return this.worlds.get(worldName);
+    }
+
+    public Map<String, WorldPlayers> getWorlds() {
+        return this.worlds;
+    }
+
+    public byte[] getFullJson() {
+        return this.fullJson;
+    }
+
+    public static class WorldPlayers {
+        private final int count;
+        private final int[] ids;
+        private final String[] names;
+        private final String[] uuids;
+        private final double[] x;
+        private final double[] y;
+        private final double[] z;
+        private final float[] yaw;
+        private final PlayerGrid grid;
+        private final String jsonString;
+        private final byte[] json;
+
+        private WorldPlayers(int count, int[] ids, String[] names, String[] uuids,
+                             double[] x, double[] y, double[] z, float[] yaw) {
+            this.count = count;
+            this.ids = ids;
+            this.names = names;
+            this.uuids = uuids;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.yaw = yaw;
+
+            int[] chunkXs = new int[count];
+            int[] chunkZs = new int[count];
+            for (int i = 0; i < count; i++) {
+                chunkXs[i] = ChunkUtil.chunkCoordinate((int) x[i]);
+                chunkZs[i] = ChunkUtil.chunkCoordinate((int) z[i]);
+            }
+            this.grid = PlayerGrid.of(chunkXs, chunkZs, count);
+            this.jsonString = this.toJson();
+            this.json = count == 0 ? EMPTY_JSON : this.jsonString.getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Players from already sampled arrays, all of the same length.
+         */
+        static WorldPlayers of(int[] ids, String[] names, String[] uuids,
+                               double[] x, double[] y, double[] z, float[] yaw) {
+            return new WorldPlayers(ids.length, ids, names, uuids, x, y, z, yaw);
+        }
+
+        static WorldPlayers capture(World world, ToIntFunction<String> playerIds) {
+            int capacity = world.getPlayerRefs().size();
+            int[] ids = new int[capacity];
+            String[] names = new String[capacity];
+            String[] uuids = new String[capacity];
+            double[] x = new double[capacity];
+            double[] y = new double[capacity];
+            double[] z = new double[capacity];
+            float[] yaw = new float[capacity];
+            int count = 0;
+            for (PlayerRef playerRef : world.getPlayerRefs()) {
+                try {
+                    Transform transform = playerRef.getTransform();
+                    if (transform == null || count == capacity) continue;
+                    Vector3d pos = transform.getPosition();
+                    Vector3f rot = transform.getRotation();
+                    names[count] = playerRef.getUsername();
+                    uuids[count] = playerRef.getUuid().toString();
+                    ids[count] = playerIds.applyAsInt(uuids[count]);
+                    x[count] = pos.x;
+                    y[count] = pos.y;
+                    z[count] = pos.z;
+                    yaw[count] = rot != null ? rot.y : 0f;
+                    count++;
+                } catch (Exception e) {
+                    // Player may have disconnected
+                }
+            }
+            return new WorldPlayers(count, Arrays.copyOf(ids, count), Arrays.copyOf(names, count), Arrays.copyOf(uuids, count),
+                Arrays.copyOf(x, count), Arrays.copyOf(y, count), Arrays.copyOf(z, count), Arrays.copyOf(yaw, count));
+        }
+
+        private String toJson() {
+            StringBuilder json = new StringBuilder(2 + this.count * 128);
+            json.append('[');
+            for (int i = 0; i < this.count; i++) {
+                if (i > 0) json.append(',');
+                json.append("{\"id\":").append(this.ids[i])
+                    .append(",\"name\":").append(GSON.toJson(this.names[i]))
+                    .append(",\"uuid\":\"").append(this.uuids[i])
+                    .append("\",\"x\":").append(this.x[i])
+                    .append(",\"y\":").append(this.y[i])
+                    .append(",\"z\":").append(this.z[i])
+                    .append(",\"yaw\":").append(this.yaw[i])
+                    .append('}');
+            }
+            return json.append(']').toString();
+        }
+
+        public int size() {
+            return this.count;
+        }
+
+        public int getId(int index) {
+            return this.ids[index];
+        }
+
+        public String getName(int index) {
+            return this.names[index];
+        }
+
+        public String getUuid(int index) {
+            return this.uuids[index];
+        }
+
+        public double getX(int index) {
+            return this.x[index];
+        }
+
+        public double getY(int index) {
+            return this.y[index];
+        }
+
+        public double getZ(int index) {
+            return this.z[index];
+        }
+
+        public float getYaw(int index) {
+            return this.yaw[index];
+        }
+
+        public PlayerGrid getGrid() {
+            return this.grid;
+        }
+
+        /**
+         * The players as a JSON array, UTF-8 encoded; shared, so callers must not modify it.
+         */
+        public byte[] getJson() {
+            return this.json;
+        }
+    }
+}
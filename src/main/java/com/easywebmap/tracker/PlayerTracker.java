@@ -1,16 +1,19 @@
 package com.easywebmap.tracker;
 
 import com.easywebmap.EasyWebMap;
+import com.easywebmap.map.ConcurrentLongMap;
+import com.easywebmap.map.TileChangeListener;
+import com.easywebmap.map.TileKey;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.hypixel.hytale.math.vector.Transform;
-import com.hypixel.hytale.math.vector.Vector3d;
-import com.hypixel.hytale.math.vector.Vector3f;
-import com.hypixel.hytale.server.core.universe.PlayerRef;
 import com.hypixel.hytale.server.core.universe.Universe;
-import com.hypixel.hytale.server.core.universe.world.World;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -20,11 +23,34 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
-public class PlayerTracker {
+public class PlayerTracker implements TileChangeListener {
     private static final Gson GSON = new GsonBuilder().create();
     private final EasyWebMap plugin;
     private final Set<Channel> connectedChannels;
+    // The connected channels that negotiated the binary player format
+    private final Set<Channel> binaryChannels = ConcurrentHashMap.newKeySet();
+    // What each subscribed channel watches; channels without a subscription get every world
+    private final Map<Channel, Subscription> subscriptions = new ConcurrentHashMap<>();
+    // Subscribed channels, grouped by the world they watch
+    private final Map<String, Set<Channel>> worldChannels = new ConcurrentHashMap<>();
+    // When each channel stopped accepting writes; it gets no player updates until it drains
+    private final Map<Channel, Long> lagging = new ConcurrentHashMap<>();
+    private final LongAdder skippedUpdates = new LongAdder();
+    private final LongAdder slowDisconnects = new LongAdder();
+    // Re-rendered tiles not yet pushed, latest version per tile
+    private final ConcurrentLongMap<Long> changedTiles = new ConcurrentLongMap<>();
+    // Every tracked player as of the latest tick, replaced as a whole
+    private volatile PlayerSnapshot snapshot = PlayerSnapshot.EMPTY;
+    // Delta ids of the players online at the last tick, by uuid; tracker thread only
+    private Map<String, Integer> playerIds = new HashMap<>();
+    private int nextPlayerId;
+    // Binary format world ids, index = id; tracker thread only
+    private final List<String> worldNames = new ArrayList<>();
+    private final Map<String, Integer> worldIds = new HashMap<>();
+    // World ids already defined to every binary client watching all worlds
+    private int announcedWorlds;
     private ScheduledExecutorService scheduler;
 
     public PlayerTracker(EasyWebMap plugin) {
@@ -39,7 +65,7 @@ public class PlayerTracker {
             return t;
         });
         int intervalMs = this.plugin.getConfig().getUpdateIntervalMs();
-        this.scheduler.scheduleAtFixedRate(this::broadcastPlayerPositions, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        this.scheduler.scheduleAtFixedRate(this::tick, 0, intervalMs, TimeUnit.MILLISECONDS);
     }
 
     public void shutdown() {
@@ -55,72 +81,402 @@ public class PlayerTracker {
             channel.close();
         }
         this.connectedChannels.clear();
+        this.binaryChannels.clear();
+        this.subscriptions.clear();
+        this.worldChannels.clear();
+        this.lagging.clear();
     }
 
-    public void addChannel(Channel channel) {
-        this.connectedChannels.add(channel);
+    /**
+     * Send a new client the full current snapshot, then include it in the per-tick deltas.
+     * Runs on the tracker thread so no delta can slip in between.
+     */
+    public void addChannel(Channel channel, boolean binary) {
+        if (this.scheduler == null) {
+            if (binary) {
+                this.binaryChannels.add(channel);
+            }
+            this.connectedChannels.add(channel);
+            return;
+        }
+        this.scheduler.execute(() -> {
+            if (!channel.isActive()) {
+                return;
+            }
+            if (binary) {
+                this.binaryChannels.add(channel);
+            }
+            this.sendSnapshot(channel);
+            this.connectedChannels.add(channel);
+            if (!channel.isActive()) {
+                // Closed while we were adding it, possibly before removeChannel could see it
+                this.removeChannel(channel);
+            }
+        });
     }
 
     public void removeChannel(Channel channel) {
         this.connectedChannels.remove(channel);
+        this.binaryChannels.remove(channel);
+        this.lagging.remove(channel);
+        Subscription subscription = this.subscriptions.remove(channel);
+        if (subscription != null) {
+            this.unwatch(channel, subscription.worldName);
+        }
+    }
+
+    /**
+     * Limit a client to one world and, optionally, the players inside bounds (minX, minZ,
+     * maxX, maxZ in blocks). Switching worlds sends a reset delta with the new world's
+     * players; changing only the bounds lets the next tick send who entered or left them.
+     * Worlds that don't exist are ignored, since every name subscribed to is kept in the
+     * binary world table sent with each snapshot.
+     */
+    public void subscribe(Channel channel, String worldName, double[] bounds) {
+        if (this.scheduler == null || Universe.get().getWorld(worldName) == null) {
+            return;
+        }
+        this.scheduler.execute(() -> {
+            if (!this.connectedChannels.contains(channel)) {
+                return;
+            }
+            PlayerSnapshot current = this.snapshot;
+            Subscription subscription = this.subscriptions.get(channel);
+            if (subscription != null && subscription.worldName.equals(worldName)) {
+                subscription.setBounds(bounds, current.getWorld(worldName));
+                return;
+            }
+            if (subscription != null) {
+                this.unwatch(channel, subscription.worldName);
+            }
+            subscription = new Subscription(worldName, bounds);
+            this.subscriptions.put(channel, subscription);
+            this.worldChannels.computeIfAbsent(worldName, w -> ConcurrentHashMap.newKeySet()).add(channel);
+            if (!channel.isActive()) {
+                this.removeChannel(channel);
+                return;
+            }
+            if (!this.worldIds.containsKey(worldName)) {
+                this.worldIds.put(worldName, this.worldNames.size());
+                this.worldNames.add(worldName);
+            }
+            this.sendReset(channel, subscription);
+        });
+    }
+
+    /**
+     * Send every enabled world's players, replacing whatever the client had.
+     */
+    private void sendSnapshot(Channel channel) {
+        if (this.binaryChannels.contains(channel)) {
+            ByteBuf buf = channel.alloc().buffer();
+            PlayerBinaryFormat.writeSnapshot(buf, this.snapshot, this.worldNames, this.worldIds);
+            channel.writeAndFlush(new BinaryWebSocketFrame(buf));
+        } else {
+            channel.writeAndFlush(new TextWebSocketFrame(Unpooled.wrappedBuffer(this.snapshot.getFullJson())));
+        }
+    }
+
+    /**
+     * Send the subscribed world's players as of the last tick, replacing whatever the
+     * client had.
+     */
+    private void sendReset(Channel channel, Subscription subscription) {
+        PlayerSnapshot current = this.snapshot;
+        subscription.known.clear();
+        subscription.boundsChanged = false;
+        PlayerDelta.WorldDelta world = PlayerDelta.WorldDelta.forView(subscription.worldName,
+            current.getWorld(subscription.worldName), null, subscription.known, subscription.bounds);
+        PlayerDelta reset = PlayerDelta.of(current.getTimestamp(), this.plugin.getConfig().getPositionPrecision(),
+            world != null ? List.of(world) : List.of(), true);
+        this.sendTo(channel, reset, 0);
+    }
+
+    private void unwatch(Channel channel, String worldName) {
+        this.worldChannels.computeIfPresent(worldName, (w, channels) -> {
+            channels.remove(channel);
+            return channels.isEmpty() ? null : channels;
+        });
     }
 
     public int getConnectionCount() {
         return this.connectedChannels.size();
     }
 
-    private void broadcastPlayerPositions() {
-        if (this.connectedChannels.isEmpty()) {
-            return;
+    /**
+     * How long each lagging client has been unable to take more data, in ms, by address.
+     */
+    public Map<String, Long> getClientLag() {
+        long now = System.currentTimeMillis();
+        Map<String, Long> lag = new HashMap<>();
+        for (Map.Entry<Channel, Long> entry : this.lagging.entrySet()) {
+            lag.put(String.valueOf(entry.getKey().remoteAddress()), now - entry.getValue());
+        }
+        return lag;
+    }
+
+    /**
+     * Per-client player updates skipped because the client could not keep up.
+     */
+    public long getSkippedUpdates() {
+        return this.skippedUpdates.sum();
+    }
+
+    public long getSlowDisconnects() {
+        return this.slowDisconnects.sum();
+    }
+
+    public PlayerSnapshot getSnapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * Players near a world's chunks as of the last tick; empty for unknown worlds.
+     */
+    public PlayerGrid getPlayerGrid(String worldName) {
+        PlayerSnapshot.WorldPlayers players = this.snapshot.getWorld(worldName);
+        return players != null ? players.getGrid() : PlayerGrid.EMPTY;
+    }
+
+    /**
+     * Take this tick's snapshot, then push what changed since the last one to the clients.
+     */
+    private void tick() {
+        PlayerSnapshot previous = this.snapshot;
+        try {
+            this.snapshot = this.capture();
+        } catch (Exception e) {
+            System.err.println("[EasyWebMap] Failed to sample player positions: " + e.getMessage());
         }
-        Map<String, List<Map<String, Object>>> worldPlayers = new HashMap<>();
-        for (World world : Universe.get().getWorlds().values()) {
-            if (!this.plugin.getConfig().isWorldEnabled(world.getName())) {
+        this.checkBackpressure();
+        this.broadcastPlayerPositions(previous, this.snapshot);
+        this.broadcastTileChanges();
+    }
+
+    /**
+     * Find channels whose outbound buffer is past the high watermark. They skip player
+     * updates until it drains below the low one, then get a single resync with the
+     * current state. Ones that stay full longer than the configured lag are closed.
+     */
+    private void checkBackpressure() {
+        long now = System.currentTimeMillis();
+        int maxLagMs = this.plugin.getConfig().getMaxClientLagMs();
+        for (Channel channel : this.connectedChannels) {
+            if (!channel.isActive()) continue;
+            Long since = this.lagging.get(channel);
+            if (!channel.isWritable()) {
+                if (since == null) {
+                    this.lagging.put(channel, now);
+                } else if (maxLagMs > 0 && now - since > maxLagMs) {
+                    System.err.println("[EasyWebMap] Closing WebSocket " + channel.remoteAddress()
+                        + ", " + (now - since) + " ms behind");
+                    this.lagging.remove(channel);
+                    this.slowDisconnects.increment();
+                    channel.close();
+                    continue;
+                }
+                this.skippedUpdates.increment();
+            } else if (since != null) {
+                this.lagging.remove(channel);
+                Subscription subscription = this.subscriptions.get(channel);
+                if (subscription != null) {
+                    this.sendReset(channel, subscription);
+                } else {
+                    this.sendSnapshot(channel);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sample the players, keeping the ids of those still online and numbering new
+     * players and worlds.
+     */
+    private PlayerSnapshot capture() {
+        Map<String, Integer> previousIds = this.playerIds;
+        Map<String, Integer> ids = new HashMap<>();
+        PlayerSnapshot captured = PlayerSnapshot.capture(this.plugin, uuid -> {
+            Integer id = previousIds.get(uuid);
+            if (id == null) {
+                id = ids.containsKey(uuid) ? ids.get(uuid) : this.nextPlayerId++;
+            }
+            ids.put(uuid, id);
+            return id;
+        });
+        this.playerIds = ids;
+        for (String worldName : captured.getWorlds().keySet()) {
+            if (!this.worldIds.containsKey(worldName)) {
+                this.worldIds.put(worldName, this.worldNames.size());
+                this.worldNames.add(worldName);
+            }
+        }
+        return captured;
+    }
+
+    /**
+     * Send each client what changed between two snapshots in the worlds it watches. Shared
+     * messages are encoded once per format; only clients watching part of a world get
+     * their own.
+     */
+    private void broadcastPlayerPositions(PlayerSnapshot previous, PlayerSnapshot current) {
+        List<Channel> allWorldsText = new ArrayList<>();
+        List<Channel> allWorldsBinary = new ArrayList<>();
+        for (Channel channel : this.connectedChannels) {
+            if (channel.isActive() && !this.subscriptions.containsKey(channel) && !this.lagging.containsKey(channel)) {
+                (this.binaryChannels.contains(channel) ? allWorldsBinary : allWorldsText).add(channel);
+            }
+        }
+        PlayerDelta delta = null;
+        if (previous != current && !this.connectedChannels.isEmpty()) {
+            // Worlds nobody watches are not diffed
+            boolean allWorlds = !allWorldsText.isEmpty() || !allWorldsBinary.isEmpty();
+            delta = PlayerDelta.compute(previous, current, this.plugin.getConfig().getPositionPrecision(),
+                worldName -> allWorlds || this.worldChannels.containsKey(worldName));
+        }
+
+        if (delta != null) {
+            this.sendShared(allWorldsText, allWorldsBinary, delta, this.announcedWorlds);
+        }
+        if (delta != null || allWorldsBinary.isEmpty()) {
+            // Binary clients that connect later get every world id in their snapshot
+            this.announcedWorlds = this.worldNames.size();
+        }
+        for (Map.Entry<String, Set<Channel>> entry : this.worldChannels.entrySet()) {
+            this.broadcastWorld(entry.getKey(), entry.getValue(), delta, current);
+        }
+    }
+
+    private void broadcastWorld(String worldName, Set<Channel> channels, PlayerDelta delta, PlayerSnapshot current) {
+        PlayerDelta.WorldDelta shared = delta != null ? delta.getWorld(worldName) : null;
+        double precision = this.plugin.getConfig().getPositionPrecision();
+        List<Channel> wholeWorldText = new ArrayList<>();
+        List<Channel> wholeWorldBinary = new ArrayList<>();
+        boolean[] moved = null;
+        for (Channel channel : channels) {
+            Subscription subscription = this.subscriptions.get(channel);
+            if (subscription == null || !channel.isActive() || this.lagging.containsKey(channel)) continue;
+            if (subscription.bounds == null && !subscription.boundsChanged) {
+                if (shared != null) {
+                    (this.binaryChannels.contains(channel) ? wholeWorldBinary : wholeWorldText).add(channel);
+                }
                 continue;
             }
-            List<Map<String, Object>> players = this.getPlayersInWorld(world);
-            if (!players.isEmpty()) {
-                worldPlayers.put(world.getName(), players);
+            if (shared == null && !subscription.boundsChanged) continue;
+            if (moved == null && shared != null) {
+                moved = shared.getMovedFlags();
             }
+            subscription.boundsChanged = false;
+            PlayerDelta.WorldDelta view = PlayerDelta.WorldDelta.forView(worldName, current.getWorld(worldName),
+                moved, subscription.known, subscription.bounds);
+            if (view != null) {
+                this.sendTo(channel, PlayerDelta.of(current.getTimestamp(), precision, List.of(view), false),
+                    this.worldNames.size());
+            }
+        }
+        if (shared != null) {
+            PlayerDelta world = PlayerDelta.of(current.getTimestamp(), precision, List.of(shared), false);
+            this.sendShared(wholeWorldText, wholeWorldBinary, world, this.worldNames.size());
         }
-        if (worldPlayers.isEmpty()) {
+    }
+
+    /**
+     * Encode a delta once per format that has channels and send it to them, defining
+     * binary world ids from firstNewWorld on.
+     */
+    private void sendShared(List<Channel> text, List<Channel> binary, PlayerDelta delta, int firstNewWorld) {
+        if (!text.isEmpty()) {
+            ChannelFanOut.writeToAll(text, new TextWebSocketFrame(Unpooled.wrappedBuffer(delta.toJson())));
+        }
+        if (!binary.isEmpty()) {
+            ByteBuf buf = ByteBufAllocator.DEFAULT.buffer();
+            PlayerBinaryFormat.writeDelta(buf, delta, this.worldNames, firstNewWorld, this.worldIds);
+            ChannelFanOut.writeToAll(binary, new BinaryWebSocketFrame(buf));
+        }
+    }
+
+    private void sendTo(Channel channel, PlayerDelta delta, int firstNewWorld) {
+        if (this.binaryChannels.contains(channel)) {
+            ByteBuf buf = channel.alloc().buffer();
+            PlayerBinaryFormat.writeDelta(buf, delta, this.worldNames, firstNewWorld, this.worldIds);
+            channel.writeAndFlush(new BinaryWebSocketFrame(buf));
+        } else {
+            channel.writeAndFlush(new TextWebSocketFrame(Unpooled.wrappedBuffer(delta.toJson())));
+        }
+    }
+
+    @Override
+    public void onTileChanged(String worldName, int zoom, int tileX, int tileZ, long version) {
+        if (!this.connectedChannels.isEmpty()) {
+            this.changedTiles.put(TileKey.of(worldName, zoom, tileX, tileZ), version);
+        }
+    }
+
+    /**
+     * Push the tiles re-rendered since the last tick, one message per world with a
+     * [zoom, x, z, version] entry per tile.
+     */
+    private void broadcastTileChanges() {
+        long[] keys = this.changedTiles.keys();
+        if (keys.length == 0) {
             return;
         }
-        Map<String, Object> message = new HashMap<>();
-        message.put("type", "players");
-        message.put("timestamp", System.currentTimeMillis());
-        message.put("worlds", worldPlayers);
-        String json = GSON.toJson(message);
-        TextWebSocketFrame frame = new TextWebSocketFrame(json);
-        for (Channel channel : this.connectedChannels) {
-            if (channel.isActive()) {
-                channel.writeAndFlush(frame.retainedDuplicate());
+        Map<String, List<long[]>> worldTiles = new HashMap<>();
+        for (long key : keys) {
+            Long version = this.changedTiles.remove(key);
+            if (version == null) continue;
+            String worldName = TileKey.worldName(TileKey.worldId(key));
+            worldTiles.computeIfAbsent(worldName, w -> new ArrayList<>())
+                .add(new long[] {TileKey.zoom(key), TileKey.x(key), TileKey.z(key), version});
+        }
+        for (Map.Entry<String, List<long[]>> entry : worldTiles.entrySet()) {
+            Map<String, Object> message = new HashMap<>();
+            message.put("type", "tilesChanged");
+            message.put("world", entry.getKey());
+            message.put("tiles", entry.getValue());
+            // Only to clients watching this world or every world
+            List<Channel> targets = new ArrayList<>();
+            for (Channel channel : this.connectedChannels) {
+                Subscription subscription = this.subscriptions.get(channel);
+                if (subscription == null || subscription.worldName.equals(entry.getKey())) {
+                    targets.add(channel);
+                }
+            }
+            if (!targets.isEmpty()) {
+                ChannelFanOut.writeToAll(targets, new TextWebSocketFrame(GSON.toJson(message)));
             }
         }
-        frame.release();
     }
 
-    private List<Map<String, Object>> getPlayersInWorld(World world) {
-        List<Map<String, Object>> players = new ArrayList<>();
-        for (PlayerRef playerRef : world.getPlayerRefs()) {
-            try {
-                Transform transform = playerRef.getTransform();
-                if (transform != null) {
-                    Vector3d pos = transform.getPosition();
-                    Vector3f rot = transform.getRotation();
-                    Map<String, Object> playerData = new HashMap<>();
-                    playerData.put("name", playerRef.getUsername());
-                    playerData.put("uuid", playerRef.getUuid().toString());
-                    playerData.put("x", pos.x);
-                    playerData.put("y", pos.y);
-                    playerData.put("z", pos.z);
-                    playerData.put("yaw", rot != null ? rot.y : 0f);
-                    players.add(playerData);
+    /**
+     * What one client watches. Changed only on the tracker thread.
+     */
+    private static class Subscription {
+        private final String worldName;
+        // minX, minZ, maxX, maxZ in blocks, or null for the whole world
+        private double[] bounds;
+        // Bounds changed since the client's last delta
+        private boolean boundsChanged;
+        // Ids the client knows, kept while it has bounds
+        private final IntOpenHashSet known = new IntOpenHashSet();
+
+        Subscription(String worldName, double[] bounds) {
+            this.worldName = worldName;
+            this.bounds = bounds;
+        }
+
+        void setBounds(double[] bounds, PlayerSnapshot.WorldPlayers players) {
+            if (this.bounds == null && bounds == null) {
+                return;
+            }
+            if (this.bounds == null) {
+                // The client has had every player in the world until now
+                this.known.clear();
+                for (int i = 0; players != null && i < players.size(); i++) {
+                    this.known.add(players.getId(i));
                 }
-            } catch (Exception e) {
-                // Player may have disconnected
             }
+            this.bounds = bounds;
+            this.boundsChanged = true;
         }
-        return players;
     }
 }
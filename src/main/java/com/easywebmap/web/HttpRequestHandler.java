@@ -1,6 +1,7 @@
 package com.easywebmap.web;
 
 import com.easywebmap.EasyWebMap;
+import com.easywebmap.tracker.PlayerBinaryFormat;
 import com.easywebmap.web.handlers.BatchTileHandler;
 import com.easywebmap.web.handlers.PlayerHandler;
 import com.easywebmap.web.handlers.StaticHandler;
@@ -8,6 +9,7 @@ import com.easywebmap.web.handlers.TileHandler;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.HttpHeaderNames;
@@ -16,6 +18,7 @@ import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
 import io.netty.handler.codec.http.websocketx.WebSocketServerHandshakerFactory;
+import io.netty.handler.flush.FlushConsolidationHandler;
 
 public class HttpRequestHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
     private static final String ACME_CHALLENGE_PATH = "/.well-known/acme-challenge/";
@@ -65,6 +68,14 @@ public class HttpRequestHandler extends SimpleChannelInboundHandler<FullHttpRequ
             }
             return;
         }
+        if (uri.equals("/api/tiles/cancel")) {
+            if (req.method() == HttpMethod.OPTIONS) {
+                this.handleCorsPrelight(ctx);
+            } else {
+                this.batchTileHandler.handleCancel(ctx, req);
+            }
+            return;
+        }
         if (uri.startsWith("/api/tiles/")) {
             this.tileHandler.handle(ctx, req);
         } else if (uri.startsWith("/api/players/")) {
@@ -84,14 +95,22 @@ public class HttpRequestHandler extends SimpleChannelInboundHandler<FullHttpRequ
     private void handleWebSocketUpgrade(ChannelHandlerContext ctx, FullHttpRequest req) {
         String protocol = this.isSecure ? "wss" : "ws";
         String wsUrl = protocol + "://" + req.headers().get(HttpHeaderNames.HOST) + "/ws";
-        WebSocketServerHandshakerFactory factory = new WebSocketServerHandshakerFactory(wsUrl, null, false);
+        // Clients that offer the binary subprotocol get binary player messages, the rest JSON
+        WebSocketServerHandshakerFactory factory = new WebSocketServerHandshakerFactory(wsUrl, PlayerBinaryFormat.SUBPROTOCOL, false);
         WebSocketServerHandshaker handshaker = factory.newHandshaker(req);
         if (handshaker == null) {
             WebSocketServerHandshakerFactory.sendUnsupportedVersionResponse(ctx.channel());
         } else {
+            // Past the high watermark the channel turns unwritable and skips player updates
+            ctx.channel().config().setWriteBufferWaterMark(new WriteBufferWaterMark(
+                this.plugin.getConfig().getWsWriteBufferLowBytes(), this.plugin.getConfig().getWsWriteBufferHighBytes()));
+            // Merges the flushes of several messages sent to a viewer in one tick into one write
+            ctx.pipeline().addFirst("flushConsolidation", new FlushConsolidationHandler(
+                FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true));
             handshaker.handshake(ctx.channel(), req);
             ctx.pipeline().replace(this, "websocket", new WebSocketHandler(this.plugin, handshaker));
-            this.plugin.getPlayerTracker().addChannel(ctx.channel());
+            boolean binary = PlayerBinaryFormat.SUBPROTOCOL.equals(handshaker.selectedSubprotocol());
+            this.plugin.getPlayerTracker().addChannel(ctx.channel(), binary);
         }
     }
 
@@ -1,11 +1,15 @@
 package com.easywebmap.web;
 
 import com.easywebmap.EasyWebMap;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
 
@@ -26,6 +30,44 @@ public class WebSocketHandler extends SimpleChannelInboundHandler<WebSocketFrame
         }
         if (frame instanceof PingWebSocketFrame) {
             ctx.writeAndFlush(new PongWebSocketFrame(frame.content().retain()));
+            return;
+        }
+        if (frame instanceof TextWebSocketFrame) {
+            this.handleMessage(ctx, ((TextWebSocketFrame) frame).text());
+        }
+    }
+
+    /**
+     * Client messages: {"type":"subscribe","world":"...","bounds":[minX, minZ, maxX, maxZ]},
+     * bounds optional. Anything else is ignored.
+     */
+    private void handleMessage(ChannelHandlerContext ctx, String text) {
+        try {
+            JsonObject message = JsonParser.parseString(text).getAsJsonObject();
+            if (!message.has("type") || !"subscribe".equals(message.get("type").getAsString()) || !message.has("world")) {
+                return;
+            }
+            String worldName = message.get("world").getAsString();
+            if (!this.plugin.getConfig().isWorldEnabled(worldName)) {
+                return;
+            }
+            double[] bounds = null;
+            if (message.has("bounds") && message.get("bounds").isJsonArray()) {
+                JsonArray array = message.getAsJsonArray("bounds");
+                if (array.size() != 4) {
+                    return;
+                }
+                bounds = new double[4];
+                for (int i = 0; i < 4; i++) {
+                    bounds[i] = array.get(i).getAsDouble();
+                    if (!Double.isFinite(bounds[i])) {
+                        return;
+                    }
+                }
+            }
+            this.plugin.getPlayerTracker().subscribe(ctx.channel(), worldName, bounds);
+        } catch (RuntimeException e) {
+            // Malformed message - ignore it
         }
     }
 
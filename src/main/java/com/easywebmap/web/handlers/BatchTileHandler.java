@@ -1,11 +1,14 @@
 package com.easywebmap.web.handlers;
 
 import com.easywebmap.EasyWebMap;
+import com.easywebmap.map.CancellationToken;
+import com.easywebmap.map.TileFormat;
 import com.easywebmap.map.TileManager;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.hypixel.hytale.server.core.universe.Universe;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
@@ -27,6 +30,7 @@ import java.util.concurrent.CompletableFuture;
 public class BatchTileHandler {
     private static final Gson GSON = new Gson();
     private static final int MAX_BATCH_SIZE = 200;
+    private static final int MAX_REQUEST_ID_LENGTH = 64;
 
     private final EasyWebMap plugin;
     private final TileManager tileManager;
@@ -61,6 +65,11 @@ public class BatchTileHandler {
             this.sendError(ctx, HttpResponseStatus.FORBIDDEN);
             return;
         }
+        // Checked before any tile key is built, so unknown names never take a world id
+        if (Universe.get().getWorld(worldName) == null) {
+            this.sendError(ctx, HttpResponseStatus.NOT_FOUND);
+            return;
+        }
 
         JsonArray tilesArray = requestJson.getAsJsonArray("tiles");
         if (tilesArray.size() > MAX_BATCH_SIZE) {
@@ -77,15 +86,43 @@ public class BatchTileHandler {
             coords.add(new TileCoord(z, x, y));
         }
 
+        // Optional client id so the client can cancel the batch if it pans away
+        String requestId = null;
+        if (requestJson.has("requestId")) {
+            requestId = requestJson.get("requestId").getAsString();
+            if (requestId.isEmpty() || requestId.length() > MAX_REQUEST_ID_LENGTH) {
+                this.sendError(ctx, HttpResponseStatus.BAD_REQUEST);
+                return;
+            }
+        }
+
         boolean keepAlive = HttpUtil.isKeepAlive(req);
+        TileFormat format = this.plugin.getConfig().isEnableWebp()
+                ? TileFormat.fromAccept(req.headers().get(HttpHeaderNames.ACCEPT))
+                : TileFormat.PNG;
+        // The batch is abandoned when the connection closes or the client cancels it
+        CancellationToken token = CancellationToken.create();
+        ChannelFutureListener onClose = future -> token.cancel();
+        ctx.channel().closeFuture().addListener(onClose);
+        if (requestId != null) {
+            this.tileManager.registerClientRequest(requestId, token);
+        }
+        String registeredId = requestId;
+
         Map<String, CompletableFuture<byte[]>> futures = new LinkedHashMap<>();
         for (TileCoord coord : coords) {
             String key = coord.z + "/" + coord.x + "/" + coord.y;
-            CompletableFuture<byte[]> future = this.tileManager.getTile(worldName, coord.z, coord.x, coord.y);
+            CompletableFuture<byte[]> future = this.tileManager.getTile(worldName, coord.z, coord.x, coord.y, format, token);
             futures.put(key, future);
         }
 
         CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0]))
+            .whenComplete((v, ex) -> {
+                ctx.channel().closeFuture().removeListener(onClose);
+                if (registeredId != null) {
+                    this.tileManager.unregisterClientRequest(registeredId, token);
+                }
+            })
             .thenAccept(v -> {
                 if (!ctx.channel().isActive()) {
                     return;
@@ -98,7 +135,7 @@ public class BatchTileHandler {
                     byte[] data = entry.getValue().join();
                     JsonObject tileObj = new JsonObject();
 
-                    if (this.isEmptyTile(data)) {
+                    if (format.isEmptyTile(data)) {
                         tileObj.addProperty("empty", true);
                     } else {
                         tileObj.addProperty("data", Base64.getEncoder().encodeToString(data));
@@ -107,6 +144,7 @@ public class BatchTileHandler {
                 }
 
                 response.add("tiles", tilesObj);
+                response.addProperty("format", format.getExtension());
                 response.addProperty("timestamp", System.currentTimeMillis());
 
                 String json = GSON.toJson(response);
@@ -120,6 +158,7 @@ public class BatchTileHandler {
                 httpResponse.headers()
                     .set(HttpHeaderNames.CONTENT_TYPE, "application/json")
                     .set(HttpHeaderNames.CONTENT_LENGTH, bytes.length)
+                    .set(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT)
                     .set(HttpHeaderNames.ACCESS_CONTROL_ALLOW_ORIGIN, "*")
                     .set(HttpHeaderNames.ACCESS_CONTROL_ALLOW_METHODS, "POST, OPTIONS")
                     .set(HttpHeaderNames.ACCESS_CONTROL_ALLOW_HEADERS, "Content-Type");
@@ -130,11 +169,69 @@ public class BatchTileHandler {
                 } else {
                     ctx.writeAndFlush(httpResponse).addListener(ChannelFutureListener.CLOSE);
                 }
+            })
+            .exceptionally(ex -> {
+                // Cancelled by the client over a connection still open - answer so it can be reused
+                if (ctx.channel().isActive()) {
+                    this.sendUnavailable(ctx, keepAlive);
+                }
+                return null;
             });
     }
 
-    private boolean isEmptyTile(byte[] data) {
-        return data == null || data.length < 500;
+    /**
+     * Cancel batches the client no longer needs: {"requestIds": ["..."]}.
+     */
+    public void handleCancel(ChannelHandlerContext ctx, FullHttpRequest req) {
+        if (req.method() != HttpMethod.POST) {
+            this.sendError(ctx, HttpResponseStatus.METHOD_NOT_ALLOWED);
+            return;
+        }
+
+        JsonArray requestIds;
+        try {
+            JsonObject requestJson = JsonParser.parseString(req.content().toString(StandardCharsets.UTF_8)).getAsJsonObject();
+            requestIds = requestJson.getAsJsonArray("requestIds");
+        } catch (Exception e) {
+            this.sendError(ctx, HttpResponseStatus.BAD_REQUEST);
+            return;
+        }
+        if (requestIds == null || requestIds.size() > MAX_BATCH_SIZE) {
+            this.sendError(ctx, HttpResponseStatus.BAD_REQUEST);
+            return;
+        }
+        for (int i = 0; i < requestIds.size(); i++) {
+            this.tileManager.cancelClientRequest(requestIds.get(i).getAsString());
+        }
+
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NO_CONTENT);
+        response.headers()
+            .set(HttpHeaderNames.CONTENT_LENGTH, 0)
+            .set(HttpHeaderNames.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+        if (HttpUtil.isKeepAlive(req)) {
+            response.headers().set(HttpHeaderNames.CONNECTION, "keep-alive");
+            ctx.writeAndFlush(response);
+        } else {
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    /**
+     * Empty 503 for an abandoned batch, keeping the connection open when the client asked.
+     */
+    private void sendUnavailable(ChannelHandlerContext ctx, boolean keepAlive) {
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                HttpResponseStatus.SERVICE_UNAVAILABLE);
+        response.headers()
+                .set(HttpHeaderNames.CONTENT_LENGTH, 0)
+                .set(HttpHeaderNames.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+        if (keepAlive) {
+            response.headers().set(HttpHeaderNames.CONNECTION, "keep-alive");
+            ctx.writeAndFlush(response);
+        } else {
+            response.headers().set(HttpHeaderNames.CONNECTION, "close");
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        }
     }
 
     private void sendError(ChannelHandlerContext ctx, HttpResponseStatus status) {
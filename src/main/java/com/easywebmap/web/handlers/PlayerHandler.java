@@ -1,12 +1,9 @@
 package com.easywebmap.web.handlers;
 
 import com.easywebmap.EasyWebMap;
+import com.easywebmap.tracker.PlayerSnapshot;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.hypixel.hytale.math.vector.Transform;
-import com.hypixel.hytale.math.vector.Vector3d;
-import com.hypixel.hytale.math.vector.Vector3f;
-import com.hypixel.hytale.server.core.universe.PlayerRef;
 import com.hypixel.hytale.server.core.universe.Universe;
 import com.hypixel.hytale.server.core.universe.world.World;
 import io.netty.buffer.Unpooled;
@@ -29,6 +26,7 @@ import java.util.regex.Pattern;
 public class PlayerHandler {
     private static final Pattern PLAYERS_PATTERN = Pattern.compile("/api/players/([^/]+)");
     private static final Gson GSON = new GsonBuilder().create();
+    private static final byte[] EMPTY_JSON = "[]".getBytes(StandardCharsets.UTF_8);
     private final EasyWebMap plugin;
 
     public PlayerHandler(EasyWebMap plugin) {
@@ -50,13 +48,9 @@ public class PlayerHandler {
             this.sendError(ctx, HttpResponseStatus.FORBIDDEN);
             return;
         }
-        World world = Universe.get().getWorld(worldName);
-        if (world == null) {
-            this.sendJson(ctx, new ArrayList<>());
-            return;
-        }
-        List<Map<String, Object>> players = this.getPlayersInWorld(world);
-        this.sendJson(ctx, players);
+        // Served from the tracker's per-tick snapshot, already serialized
+        PlayerSnapshot.WorldPlayers players = this.plugin.getPlayerTracker().getSnapshot().getWorld(worldName);
+        this.sendJson(ctx, players != null ? players.getJson() : EMPTY_JSON);
     }
 
     public void handleWorlds(ChannelHandlerContext ctx, FullHttpRequest req) {
@@ -69,39 +63,18 @@ public class PlayerHandler {
             if (this.plugin.getConfig().isWorldEnabled(world.getName())) {
                 Map<String, Object> worldInfo = new HashMap<>();
                 worldInfo.put("name", world.getName());
+                worldInfo.put("minZoom", this.plugin.getTileManager().getMinZoom());
                 worlds.add(worldInfo);
             }
         }
         this.sendJson(ctx, worlds);
     }
 
-    private List<Map<String, Object>> getPlayersInWorld(World world) {
-        List<Map<String, Object>> players = new ArrayList<>();
-        for (PlayerRef playerRef : world.getPlayerRefs()) {
-            try {
-                Transform transform = playerRef.getTransform();
-                if (transform != null) {
-                    Vector3d pos = transform.getPosition();
-                    Vector3f rot = transform.getRotation();
-                    Map<String, Object> playerData = new HashMap<>();
-                    playerData.put("name", playerRef.getUsername());
-                    playerData.put("uuid", playerRef.getUuid().toString());
-                    playerData.put("x", pos.x);
-                    playerData.put("y", pos.y);
-                    playerData.put("z", pos.z);
-                    playerData.put("yaw", rot != null ? rot.y : 0f);
-                    players.add(playerData);
-                }
-            } catch (Exception e) {
-                // Player may have disconnected
-            }
-        }
-        return players;
+    private void sendJson(ChannelHandlerContext ctx, Object data) {
+        this.sendJson(ctx, GSON.toJson(data).getBytes(StandardCharsets.UTF_8));
     }
 
-    private void sendJson(ChannelHandlerContext ctx, Object data) {
-        String json = GSON.toJson(data);
-        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+    private void sendJson(ChannelHandlerContext ctx, byte[] bytes) {
         DefaultFullHttpResponse response = new DefaultFullHttpResponse(
                 HttpVersion.HTTP_1_1,
                 HttpResponseStatus.OK,
@@ -1,6 +1,10 @@
 package com.easywebmap.web.handlers;
 
 import com.easywebmap.EasyWebMap;
+import com.easywebmap.map.CancellationToken;
+import com.easywebmap.map.TileFormat;
+import com.hypixel.hytale.server.core.universe.Universe;
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
@@ -15,7 +19,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class TileHandler {
-    private static final Pattern TILE_PATTERN = Pattern.compile("/api/tiles/([^/]+)/(-?\\d+)/(-?\\d+)/(-?\\d+)\\.png");
+    private static final Pattern TILE_PATTERN = Pattern.compile("/api/tiles/([^/]+)/(-?\\d+)/(-?\\d+)/(-?\\d+)\\.(png|webp)");
     private final EasyWebMap plugin;
 
     public TileHandler(EasyWebMap plugin) {
@@ -36,32 +40,74 @@ public class TileHandler {
         int zoom = Integer.parseInt(matcher.group(2));
         int x = Integer.parseInt(matcher.group(3));
         int z = Integer.parseInt(matcher.group(4));
+        TileFormat format = this.selectFormat(matcher.group(5), req);
         if (!this.plugin.getConfig().isWorldEnabled(worldName)) {
             this.sendError(ctx, HttpResponseStatus.FORBIDDEN);
             return;
         }
+        // Checked before any tile key is built, so unknown names never take a world id
+        if (Universe.get().getWorld(worldName) == null) {
+            this.sendError(ctx, HttpResponseStatus.NOT_FOUND);
+            return;
+        }
         boolean keepAlive = HttpUtil.isKeepAlive(req);
-        this.plugin.getTileManager().getTile(worldName, zoom, x, z).thenAccept(data -> {
-            if (!ctx.channel().isActive()) {
-                return;
-            }
-            DefaultFullHttpResponse response = new DefaultFullHttpResponse(
-                    HttpVersion.HTTP_1_1,
-                    HttpResponseStatus.OK,
-                    Unpooled.wrappedBuffer(data)
-            );
-            response.headers()
-                    .set(HttpHeaderNames.CONTENT_TYPE, "image/png")
-                    .set(HttpHeaderNames.CONTENT_LENGTH, data.length)
-                    .set(HttpHeaderNames.CACHE_CONTROL, "max-age=300")
-                    .set(HttpHeaderNames.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
-            if (keepAlive) {
-                response.headers().set(HttpHeaderNames.CONNECTION, "keep-alive");
-                ctx.writeAndFlush(response);
-            } else {
-                ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
-            }
-        });
+        // Hot tiles are written straight from the off-heap cache without copying
+        ByteBuf cached = this.plugin.getTileManager().getCachedTile(worldName, zoom, x, z, format);
+        if (cached != null) {
+            this.sendTile(ctx, cached, format, keepAlive);
+            return;
+        }
+        // Closing the connection abandons the request and any generation only it waits on
+        CancellationToken token = CancellationToken.create();
+        ChannelFutureListener onClose = future -> token.cancel();
+        ctx.channel().closeFuture().addListener(onClose);
+        this.plugin.getTileManager().getTile(worldName, zoom, x, z, format, token)
+            .whenComplete((data, ex) -> ctx.channel().closeFuture().removeListener(onClose))
+            .thenAccept(data -> {
+                if (!ctx.channel().isActive()) {
+                    return;
+                }
+                this.sendTile(ctx, Unpooled.wrappedBuffer(data), format, keepAlive);
+            })
+            .exceptionally(ex -> {
+                if (ctx.channel().isActive()) {
+                    this.sendError(ctx, HttpResponseStatus.SERVICE_UNAVAILABLE);
+                }
+                return null;
+            });
+    }
+
+    private void sendTile(ChannelHandlerContext ctx, ByteBuf content, TileFormat format, boolean keepAlive) {
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1,
+                HttpResponseStatus.OK,
+                content
+        );
+        response.headers()
+                .set(HttpHeaderNames.CONTENT_TYPE, format.getContentType())
+                .set(HttpHeaderNames.CONTENT_LENGTH, content.readableBytes())
+                .set(HttpHeaderNames.CACHE_CONTROL, "max-age=300")
+                .set(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT)
+                .set(HttpHeaderNames.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+        if (keepAlive) {
+            response.headers().set(HttpHeaderNames.CONNECTION, "keep-alive");
+            ctx.writeAndFlush(response);
+        } else {
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    /**
+     * An explicit .webp URL wins; a .png URL is upgraded only if the client accepts WebP.
+     */
+    private TileFormat selectFormat(String extension, FullHttpRequest req) {
+        if (!this.plugin.getConfig().isEnableWebp()) {
+            return TileFormat.PNG;
+        }
+        if (TileFormat.WEBP.getExtension().equals(extension)) {
+            return TileFormat.WEBP;
+        }
+        return TileFormat.fromAccept(req.headers().get(HttpHeaderNames.ACCEPT));
     }
 
     private void sendError(ChannelHandlerContext ctx, HttpResponseStatus status) {
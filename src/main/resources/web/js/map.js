@@ -9,7 +9,8 @@
         options: {
             batchDelay: 300,
             maxBatchSize: 2000,
-            batchEndpoint: '/api/tiles/batch'
+            batchEndpoint: '/api/tiles/batch',
+            cancelEndpoint: '/api/tiles/cancel'
         },
 
         initialize: function(urlTemplate, options) {
@@ -20,10 +21,15 @@
             this._worldName = 'world';
             this._isSending = false;
             this._queuedWhileSending = new Map();
+            this._supportsWebp = L.TileLayer.Batch.detectWebp();
+            this._tileVersions = new Map();
+            // Drop requests for tiles Leaflet discards before they load
+            this.on('tileunload tileabort', this._onTileGone, this);
         },
 
         setWorld: function(worldName) {
             this._worldName = worldName;
+            this._tileVersions.clear();
         },
 
         createTile: function(coords, done) {
@@ -33,13 +39,29 @@
 
             // Use actual zoom level for tile pyramid support
             // At zoom < 0, server provides composite tiles
-            const zoom = Math.min(coords.z, 0);  // Clamp to 0 max (server handles -4 to 0)
+            const zoom = Math.min(coords.z, 0);  // Clamp to 0 max (server handles minZoom to 0)
             const key = `${zoom}/${coords.x}/${coords.y}`;
             this._queueTileRequest(key, coords, tile, done);
 
             return tile;
         },
 
+        // Reload tiles the server re-rendered; the old image stays until the new one arrives.
+        // Versions are only kept for tiles on the layer and dropped when Leaflet removes them.
+        refreshTiles: function(worldName, tiles) {
+            if (worldName !== this._worldName) return;
+            for (const [zoom, x, z, version] of tiles) {
+                const tile = this._tiles[`${x}:${z}:${zoom}`];
+                if (!tile) continue;  // Not shown; it loads fresh when it is
+                const key = `${zoom}/${x}/${z}`;
+                if ((this._tileVersions.get(key) || 0) >= version) continue;
+                this._tileVersions.set(key, version);
+
+                if (!tile.loaded) continue;  // Its load is still in flight
+                this._queueTileRequest(key, tile.coords, tile.el, () => {});
+            }
+        },
+
         _queueTileRequest: function(key, coords, tile, done) {
             // If we're currently sending, queue for next batch
             const targetMap = this._isSending ? this._queuedWhileSending : this._pendingTiles;
@@ -62,6 +84,32 @@
             }
         },
 
+        _onTileGone: function(e) {
+            const key = `${Math.min(e.coords.z, 0)}/${e.coords.x}/${e.coords.y}`;
+            this._tileVersions.delete(key);
+            for (const pending of [this._pendingTiles, this._queuedWhileSending]) {
+                const request = pending.get(key);
+                if (request && request.tile === e.tile) pending.delete(key);
+            }
+
+            // Once every tile of an in-flight chunk is gone, tell the server to stop on it
+            const chunk = e.tile._batchChunk;
+            if (!chunk || chunk.done || chunk.gone.has(key)) return;
+            chunk.gone.add(key);
+            if (chunk.gone.size >= chunk.size) this._cancelChunk(chunk);
+        },
+
+        _cancelChunk: function(chunk) {
+            chunk.done = true;
+            chunk.controller.abort();
+            fetch(this.options.cancelEndpoint, {
+                method: 'POST',
+                headers: { 'Content-Type': 'application/json' },
+                body: JSON.stringify({ requestIds: [chunk.requestId] }),
+                keepalive: true
+            }).catch(() => {});
+        },
+
         _sendBatch: function() {
             if (this._pendingTiles.size === 0) return;
 
@@ -106,27 +154,42 @@
         },
 
         _sendChunk: function(batch) {
+            const chunk = {
+                requestId: Math.random().toString(36).slice(2) + Date.now().toString(36),
+                controller: new AbortController(),
+                size: batch.size,
+                gone: new Set(),
+                done: false
+            };
             const tiles = [];
             for (const [key, request] of batch) {
                 const [z, x, y] = key.split('/').map(Number);
                 tiles.push({ z, x, y });
+                request.tile._batchChunk = chunk;
             }
 
             const requestBody = {
                 world: this._worldName,
+                requestId: chunk.requestId,
                 tiles: tiles
             };
 
             return fetch(this.options.batchEndpoint, {
                 method: 'POST',
-                headers: { 'Content-Type': 'application/json' },
-                body: JSON.stringify(requestBody)
+                headers: {
+                    'Content-Type': 'application/json',
+                    'Accept': this._supportsWebp ? 'application/json, image/webp' : 'application/json'
+                },
+                body: JSON.stringify(requestBody),
+                signal: chunk.controller.signal
             })
             .then(response => {
                 if (!response.ok) throw new Error(`HTTP ${response.status}`);
                 return response.json();
             })
             .then(data => {
+                chunk.done = true;
+                const mimeType = data.format === 'webp' ? 'image/webp' : 'image/png';
                 for (const [key, tileData] of Object.entries(data.tiles)) {
                     const request = batch.get(key);
                     if (!request) continue;
@@ -138,7 +201,7 @@
                         const binary = atob(tileData.data);
                         const bytes = new Uint8Array(binary.length);
                         for (let i = 0; i < binary.length; i++) bytes[i] = binary.charCodeAt(i);
-                        const blob = new Blob([bytes], { type: 'image/png' });
+                        const blob = new Blob([bytes], { type: mimeType });
                         const url = URL.createObjectURL(blob);
                         request.tile.onload = () => {
                             URL.revokeObjectURL(url);
@@ -155,6 +218,9 @@
                 }
             })
             .catch(error => {
+                // Cancelled because every tile in it was discarded
+                if (error.name === 'AbortError') return;
+                chunk.done = true;
                 console.error('Batch chunk failed:', error);
                 for (const [key, request] of batch) {
                     request.done(error, request.tile);
@@ -171,6 +237,17 @@
         }
     });
 
+    // Browsers that can encode WebP can also decode it
+    L.TileLayer.Batch.detectWebp = function() {
+        try {
+            const canvas = document.createElement('canvas');
+            canvas.width = canvas.height = 1;
+            return canvas.toDataURL('image/webp').indexOf('data:image/webp') === 0;
+        } catch (e) {
+            return false;
+        }
+    };
+
     L.tileLayer.batch = function(urlTemplate, options) {
         return new L.TileLayer.Batch(urlTemplate, options);
     };
@@ -179,6 +256,7 @@
     const CHUNK_SIZE = 32;
     const TILE_SIZE = 256;
     const SCALE = TILE_SIZE / CHUNK_SIZE;  // 8 - Leaflet units per block
+    const PLAYERS_SUBPROTOCOL = 'easywebmap.players.v1';  // Binary player messages
 
     // State
     let map = null;
@@ -187,9 +265,12 @@
     let websocket = null;
     let playerMarkers = {};
     let playerData = {};  // Store player data for list
+    let streamedPlayers = {};  // World name -> Map of player id -> player, kept up to date by deltas
+    let streamWorldNames = [];  // Binary format world id -> name, for this connection
     let reconnectTimer = null;
     let playerListCollapsed = false;
     let initialPositionSet = false;  // Track if we've set initial map position
+    let minZoom = -4;  // Most zoomed-out level, reported by the server
 
     function initMap() {
         // Using CRS.Simple: 1 unit = 1 pixel at zoom 0
@@ -202,7 +283,7 @@
 
         map = L.map('map', {
             crs: L.CRS.Simple,
-            minZoom: -4,
+            minZoom: minZoom,
             maxZoom: 4,
             zoomSnap: 0.5,
             zoomDelta: 0.5,
@@ -235,13 +316,13 @@
         }
 
         // Batch tile layer - reduces HTTP requests by batching multiple tiles per request
-        // minNativeZoom: -4 means server provides composite tiles at negative zoom levels
+        // minNativeZoom < 0 means server provides composite tiles at negative zoom levels
         // This dramatically reduces DOM elements at zoomed-out views
         tileLayer = L.tileLayer.batch('/api/tiles/' + currentWorld + '/{z}/{x}/{y}.png', {
             tileSize: TILE_SIZE,
-            minNativeZoom: -4,  // Server provides tiles from -4 to 0
+            minNativeZoom: minZoom,  // Server provides tiles from minZoom to 0
             maxNativeZoom: 0,   // Max native zoom is 0 (single chunk per tile)
-            minZoom: -4,
+            minZoom: minZoom,
             maxZoom: 4,
             noWrap: true,
             bounds: [[-100000, -100000], [100000, 100000]],
@@ -277,8 +358,17 @@
                 select.appendChild(option);
             });
 
+            let needsUpdate = false;
             if (worlds.length > 0 && !worlds.find(w => w.name === currentWorld)) {
                 currentWorld = worlds[0].name;
+                needsUpdate = true;
+            }
+            if (worlds.length > 0 && worlds[0].minZoom !== undefined && worlds[0].minZoom !== minZoom) {
+                minZoom = worlds[0].minZoom;
+                map.setMinZoom(minZoom);
+                needsUpdate = true;
+            }
+            if (needsUpdate) {
                 updateTileLayer();
             }
         } catch (e) {
@@ -291,6 +381,8 @@
         updateTileLayer();
         clearPlayerMarkers();
         updatePlayerList();
+        showStreamedPlayers();
+        subscribe();
     }
 
     function clearPlayerMarkers() {
@@ -342,7 +434,9 @@
         statusEl.className = 'connecting';
 
         const protocol = location.protocol === 'https:' ? 'wss:' : 'ws:';
-        websocket = new WebSocket(`${protocol}//${location.host}/ws`);
+        // Ask for binary player messages; servers without them fall back to JSON
+        websocket = new WebSocket(`${protocol}//${location.host}/ws`, [PLAYERS_SUBPROTOCOL]);
+        websocket.binaryType = 'arraybuffer';
 
         websocket.onopen = () => {
             statusEl.textContent = 'Connected';
@@ -351,12 +445,21 @@
                 clearTimeout(reconnectTimer);
                 reconnectTimer = null;
             }
+            subscribe();
         };
 
         websocket.onmessage = (e) => {
             try {
+                if (e.data instanceof ArrayBuffer) {
+                    const message = decodePlayerFrame(e.data);
+                    if (message.type === 'players') applyPlayers(message);
+                    else if (message.type === 'playersDelta') applyPlayersDelta(message);
+                    return;
+                }
                 const data = JSON.parse(e.data);
-                if (data.type === 'players') updatePlayers(data.worlds);
+                if (data.type === 'players') applyPlayers(data);
+                else if (data.type === 'playersDelta') applyPlayersDelta(data);
+                else if (data.type === 'tilesChanged' && tileLayer) tileLayer.refreshTiles(data.world, data.tiles);
             } catch (err) {}
         };
 
@@ -369,6 +472,125 @@
         };
     }
 
+    // Only receive the world being viewed. No bounds are sent, since the sidebar
+    // lists every player in the world.
+    function subscribe() {
+        if (websocket && websocket.readyState === WebSocket.OPEN) {
+            websocket.send(JSON.stringify({ type: 'subscribe', world: currentWorld }));
+        }
+    }
+
+    // Decode a binary player message into the shape of its JSON equivalent.
+    // Layout is documented in PlayerBinaryFormat.java.
+    function decodePlayerFrame(buffer) {
+        const view = new DataView(buffer);
+        const decoder = new TextDecoder();
+        let offset = 0;
+        const u8 = () => view.getUint8(offset++);
+        const u16 = () => { const v = view.getUint16(offset); offset += 2; return v; };
+        const i32 = () => { const v = view.getInt32(offset); offset += 4; return v; };
+        const u32 = () => { const v = view.getUint32(offset); offset += 4; return v; };
+        const f32 = () => { const v = view.getFloat32(offset); offset += 4; return v; };
+        const f64 = () => { const v = view.getFloat64(offset); offset += 8; return v; };
+        const str = () => {
+            const length = u16();
+            const value = decoder.decode(new Uint8Array(buffer, offset, length));
+            offset += length;
+            return value;
+        };
+        const uuid = () => {
+            let hex = '';
+            for (let i = 0; i < 16; i++) hex += u8().toString(16).padStart(2, '0');
+            return `${hex.slice(0, 8)}-${hex.slice(8, 12)}-${hex.slice(12, 16)}-${hex.slice(16, 20)}-${hex.slice(20)}`;
+        };
+
+        const version = u8();
+        if (version !== 1) throw new Error(`Unsupported player format version ${version}`);
+        const type = u8();
+        const timestamp = f64();
+        const precision = type !== 1 ? f64() : 0;
+        if (type === 1 || type === 3) streamWorldNames = [];
+        for (let n = u16(); n > 0; n--) {
+            const id = u16();
+            streamWorldNames[id] = str();
+        }
+
+        const worlds = {};
+        for (let n = u16(); n > 0; n--) {
+            const world = streamWorldNames[u16()];
+            if (type === 1) {
+                const players = [];
+                for (let count = u32(); count > 0; count--) {
+                    players.push({ id: i32(), name: str(), uuid: uuid(), x: f32(), y: f32(), z: f32(), yaw: f32() });
+                }
+                worlds[world] = players;
+            } else {
+                const moved = [];
+                for (let count = u32(); count > 0; count--) moved.push([i32(), i32(), i32(), i32(), i32()]);
+                const joined = [];
+                for (let count = u32(); count > 0; count--) {
+                    joined.push({ id: i32(), name: str(), uuid: uuid(), x: i32(), y: i32(), z: i32(), yaw: i32() });
+                }
+                const left = [];
+                for (let count = u32(); count > 0; count--) left.push(i32());
+                worlds[world] = { moved, joined, left };
+            }
+        }
+        return { type: type === 1 ? 'players' : 'playersDelta', reset: type === 3, timestamp, precision, worlds };
+    }
+
+    // Full snapshot, sent once when the socket connects
+    function applyPlayers(data) {
+        streamedPlayers = {};
+        Object.entries(data.worlds).forEach(([world, players]) => {
+            const byId = new Map();
+            players.forEach(p => byId.set(p.id, p));
+            streamedPlayers[world] = byId;
+        });
+        showStreamedPlayers();
+    }
+
+    // Changes since the previous message; positions are in units of data.precision,
+    // yaw in hundredths of a radian
+    function applyPlayersDelta(data) {
+        const precision = data.precision;
+        if (data.reset) streamedPlayers = {};
+        Object.entries(data.worlds).forEach(([world, delta]) => {
+            let byId = streamedPlayers[world];
+            if (!byId) {
+                byId = new Map();
+                streamedPlayers[world] = byId;
+            }
+            (delta.left || []).forEach(id => byId.delete(id));
+            (delta.joined || []).forEach(p => byId.set(p.id, {
+                id: p.id,
+                name: p.name,
+                uuid: p.uuid,
+                x: p.x * precision,
+                y: p.y * precision,
+                z: p.z * precision,
+                yaw: p.yaw * 0.01
+            }));
+            (delta.moved || []).forEach(([id, x, y, z, yaw]) => {
+                const p = byId.get(id);
+                if (!p) return;
+                p.x = x * precision;
+                p.y = y * precision;
+                p.z = z * precision;
+                p.yaw = yaw * 0.01;
+            });
+        });
+        showStreamedPlayers();
+    }
+
+    function showStreamedPlayers() {
+        const worldsData = {};
+        Object.entries(streamedPlayers).forEach(([world, byId]) => {
+            worldsData[world] = Array.from(byId.values());
+        });
+        updatePlayers(worldsData);
+    }
+
     function updatePlayers(worldsData) {
         const players = worldsData[currentWorld] || [];
         const seen = new Set();
@@ -0,0 +1,159 @@
+package com.easywebmap.map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * Checks the kernels against plain reference loops. Surefire starts the JVM with the
+ * incubator module, so these cover the vector path; the scalar path is the same
+ * code as the references below.
+ */
+class PixelKernelsTest {
+    @Test
+    void rgbaToRgbDropsAlphaAtAnyOffsetAndLength() {
+        int[] src = randomPixels(1000, 1);
+        for (int length : new int[] {0, 1, 7, 8, 9, 33, 990}) {
+            int[] dest = new int[1000];
+            PixelKernels.rgbaToRgb(src, 3, dest, 5, length);
+            for (int i = 0; i < length; i++) {
+                assertEquals(src[3 + i] >>> 8, dest[5 + i]);
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource({"256, 256", "128, 256", "256, 512", "200, 512", "512, 256", "300, 7"})
+    void scaleToRgbMatchesNearestNeighbour(int srcSize, int destSize) {
+        int[] src = randomPixels(srcSize * srcSize, srcSize);
+        int[] dest = new int[destSize * destSize];
+        PixelKernels.scaleToRgb(src, srcSize, srcSize, dest, destSize);
+
+        assertArrayEquals(referenceScale(src, srcSize, destSize), dest);
+    }
+
+    @Test
+    void scaleToRgbIndexesEveryPixel() {
+        int[] colors = {0x102030, 0x405060, 0x708090, 0xA0B0C0, 0xFFFFFF};
+        int[] src = new int[100 * 100];
+        Random random = new Random(2);
+        for (int i = 0; i < src.length; i++) {
+            src[i] = colors[random.nextInt(colors.length)] << 8 | 0xFF;
+        }
+        int[] dest = new int[256 * 256];
+        ColorPalette palette = new ColorPalette();
+        PixelKernels.scaleToRgb(src, 100, 100, dest, 256, palette);
+
+        assertFalse(palette.isOverflowed());
+        assertEquals(colors.length, palette.size());
+        byte[] indices = palette.getIndexBuffer(dest.length);
+        for (int i = 0; i < dest.length; i++) {
+            assertEquals(dest[i], palette.getColor(indices[i] & 0xFF));
+        }
+        assertArrayEquals(referenceScale(src, 100, 256), dest);
+    }
+
+    @Test
+    void scaleToRgbStopsIndexingOnOverflow() {
+        int[] src = randomPixels(64 * 64, 3);
+        int[] dest = new int[128 * 128];
+        ColorPalette palette = new ColorPalette();
+        PixelKernels.scaleToRgb(src, 64, 64, dest, 128, palette);
+
+        assertTrue(palette.isOverflowed());
+        assertArrayEquals(referenceScale(src, 64, 128), dest);
+    }
+
+    @ParameterizedTest
+    @CsvSource({"512, 0, 0, 0, 0, 256, 256", "512, 0, 0, 128, 128, 128, 128", "100, 2, 6, 3, 1, 37, 21"})
+    void downsample2xMatchesRoundedBoxFilter(int srcSize, int srcX, int srcY, int destX, int destY,
+                                             int width, int height) {
+        int[] src = randomPixels(srcSize * srcSize, 4);
+        for (int i = 0; i < src.length; i++) {
+            src[i] &= 0xFFFFFF;
+        }
+        int destSize = 256;
+        int[] dest = new int[destSize * destSize];
+        PixelKernels.downsample2x(src, srcSize, srcX, srcY, dest, destSize, destX, destY, width, height);
+
+        for (int y = 0; y < destSize; y++) {
+            for (int x = 0; x < destSize; x++) {
+                int expected = 0;
+                if (x >= destX && x < destX + width && y >= destY && y < destY + height) {
+                    int sx = srcX + (x - destX) * 2;
+                    int sy = srcY + (y - destY) * 2;
+                    expected = referenceAverage(src[sy * srcSize + sx], src[sy * srcSize + sx + 1],
+                        src[(sy + 1) * srcSize + sx], src[(sy + 1) * srcSize + sx + 1]);
+                }
+                assertEquals(expected, dest[y * destSize + x], "pixel " + x + "," + y);
+            }
+        }
+    }
+
+    @Test
+    void average4RoundsEachChannel() {
+        assertEquals(0x000000, PixelKernels.average4(0, 0, 0, 1));
+        assertEquals(0x000001, PixelKernels.average4(0, 0, 1, 1));
+        assertEquals(0xFFFFFF, PixelKernels.average4(0xFFFFFF, 0xFFFFFF, 0xFFFFFF, 0xFFFFFF));
+        assertEquals(0x808080, PixelKernels.average4(0xFFFFFF, 0xFFFFFF, 0x010101, 0x000000));
+    }
+
+    @Test
+    void vectorKernelsMatchScalar() {
+        assumeTrue(PixelKernels.isVectorized(), "JVM started without jdk.incubator.vector");
+        int[] src = randomPixels(64 * 64, 5);
+        int[] columns = new int[61];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = (i * 7) % 64;
+        }
+        int[] dest = new int[64];
+        VectorPixelKernels.gatherRgbaToRgb(src, 64, columns, dest, 1, columns.length);
+        for (int i = 0; i < columns.length; i++) {
+            assertEquals(src[64 + columns[i]] >>> 8, dest[1 + i]);
+        }
+
+        int written = VectorPixelKernels.downsample2xRow(src, 0, 64, dest, 0, 31);
+        assertTrue(written <= 31);
+        for (int x = 0; x < written; x++) {
+            assertEquals(PixelKernels.average4(src[x * 2], src[x * 2 + 1], src[64 + x * 2], src[64 + x * 2 + 1]),
+                dest[x]);
+        }
+    }
+
+    private static int[] referenceScale(int[] src, int srcSize, int destSize) {
+        int[] dest = new int[destSize * destSize];
+        for (int y = 0; y < destSize; y++) {
+            int srcY = (int) ((long) y * srcSize / destSize);
+            for (int x = 0; x < destSize; x++) {
+                int srcX = (int) ((long) x * srcSize / destSize);
+                dest[y * destSize + x] = src[srcY * srcSize + srcX] >>> 8;
+            }
+        }
+        return dest;
+    }
+
+    private static int referenceAverage(int a, int b, int c, int d) {
+        int result = 0;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            int sum = (a >> shift & 0xFF) + (b >> shift & 0xFF) + (c >> shift & 0xFF) + (d >> shift & 0xFF);
+            result |= ((sum + 2) / 4) << shift;
+        }
+        return result;
+    }
+
+    private static int[] randomPixels(int count, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+}
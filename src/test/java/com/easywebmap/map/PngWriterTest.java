@@ -0,0 +1,115 @@
+package com.easywebmap.map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class PngWriterTest {
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int COLOR_TYPE_INDEXED = 3;
+
+    @Test
+    void truecolorRoundTrips() throws IOException {
+        int[] pixels = randomPixels(256, 1 << 24, 1);
+        byte[] png = PngWriter.encode(pixels, 256, 256);
+
+        assertEquals(COLOR_TYPE_RGB, colorType(png));
+        assertArrayEquals(pixels, PngReader.decode(png, 256));
+        assertArrayEquals(pixels, decodeWithImageIo(png));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3, 4, 16, 17, 256})
+    void lowColorTilesAreIndexedAndRoundTrip(int colors) throws IOException {
+        int[] pixels = randomPixels(256, colors, colors);
+        byte[] png = PngWriter.encode(pixels, 256, 256);
+
+        assertEquals(COLOR_TYPE_INDEXED, colorType(png));
+        assertArrayEquals(pixels, PngReader.decode(png, 256));
+        assertArrayEquals(pixels, decodeWithImageIo(png));
+    }
+
+    @Test
+    void overflowingThePaletteFallsBackToTruecolor() {
+        int[] pixels = randomPixels(64, 257, 2);
+        for (int i = 0; i < 257; i++) {
+            pixels[i] = i;
+        }
+        byte[] png = PngWriter.encode(pixels, 64, 64);
+
+        assertEquals(COLOR_TYPE_RGB, colorType(png));
+        assertArrayEquals(pixels, PngReader.decode(png, 64));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {2, 3, 4, 7})
+    void parallelEncodeMatchesSerialPixels(int blocks) throws IOException {
+        int[] pixels = randomPixels(512, 1 << 24, 3);
+        // Runs of repeated rows, so blocks hold back-references that must not cross their start
+        for (int y = 1; y < 512; y += 3) {
+            System.arraycopy(pixels, (y - 1) * 512, pixels, y * 512, 512);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(blocks);
+        try {
+            byte[] png = PngWriter.encodeParallel(pixels, 512, 512, executor, blocks);
+
+            assertArrayEquals(pixels, PngReader.decode(png, 512));
+            assertArrayEquals(pixels, decodeWithImageIo(png));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void readerRejectsWrongSizeAndTruncatedData() {
+        byte[] png = PngWriter.encode(randomPixels(32, 1 << 24, 4), 32, 32);
+
+        assertNotNull(PngReader.decode(png, 32));
+        assertNull(PngReader.decode(png, 64));
+        assertNull(PngReader.decode(Arrays.copyOf(png, png.length / 2), 32));
+    }
+
+    private static int[] randomPixels(int size, int colors, long seed) {
+        Random random = new Random(seed);
+        int[] palette = new int[Math.min(colors, 1 << 12)];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = random.nextInt(1 << 24);
+        }
+        int[] pixels = new int[size * size];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = colors > palette.length ? random.nextInt(1 << 24) : palette[random.nextInt(palette.length)];
+        }
+        // Make sure every palette color is used at least once
+        for (int i = 0; i < palette.length && colors <= palette.length; i++) {
+            pixels[i] = palette[i];
+        }
+        return pixels;
+    }
+
+    private static int colorType(byte[] png) {
+        // Signature, IHDR length and type, width, height, bit depth
+        return png[8 + 8 + 9] & 0xFF;
+    }
+
+    private static int[] decodeWithImageIo(byte[] png) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] &= 0xFFFFFF;
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,91 @@
+package com.easywebmap.map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class TileKeyTest {
+    private static final int MIN_COORD = -(1 << 22);
+    private static final int MAX_COORD = (1 << 22) - 1;
+    private static final int MAX_WORLD_ID = 1023;
+
+    @Test
+    void packsAndUnpacksEveryFieldAtItsBounds() {
+        int[] worlds = {0, 1, MAX_WORLD_ID};
+        int[] zooms = {-32, -8, -1, 0, 1, 31};
+        int[] coords = {MIN_COORD, MIN_COORD + 1, -1, 0, 1, MAX_COORD - 1, MAX_COORD};
+        for (int world : worlds) {
+            for (int zoom : zooms) {
+                for (TileFormat format : TileFormat.values()) {
+                    for (int x : coords) {
+                        for (int z : coords) {
+                            long key = TileKey.of(world, zoom, x, z, format);
+                            String where = world + "/" + zoom + "/" + format + "/" + x + "/" + z;
+                            assertEquals(world, TileKey.worldId(key), where);
+                            assertEquals(zoom, TileKey.zoom(key), where);
+                            assertEquals(format, TileKey.format(key), where);
+                            assertEquals(x, TileKey.x(key), where);
+                            assertEquals(z, TileKey.z(key), where);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void neighbouringTilesGetDistinctKeys() {
+        Set<Long> keys = new HashSet<>();
+        for (int zoom = -2; zoom <= 2; zoom++) {
+            for (int x = -2; x <= 2; x++) {
+                for (int z = -2; z <= 2; z++) {
+                    for (TileFormat format : TileFormat.values()) {
+                        assertTrue(keys.add(TileKey.of(7, zoom, x, z, format)));
+                    }
+                }
+            }
+        }
+        assertNotEquals(TileKey.of(0, 0, MAX_COORD, 0, TileFormat.PNG), TileKey.of(0, 0, 0, MAX_COORD, TileFormat.PNG));
+        assertNotEquals(TileKey.of(0, 0, 0, MIN_COORD, TileFormat.PNG), TileKey.of(0, -1, 0, 0, TileFormat.PNG));
+    }
+
+    @Test
+    void validityCoversTheBaseTilesUnderAComposite() {
+        assertTrue(TileKey.isValid(0, MIN_COORD, MAX_COORD));
+        assertFalse(TileKey.isValid(0, MAX_COORD + 1, 0));
+        assertFalse(TileKey.isValid(0, 0, MIN_COORD - 1));
+
+        // A zoom -1 tile covers base tiles 2x and 2x + 1
+        assertTrue(TileKey.isValid(-1, (1 << 21) - 1, -(1 << 21)));
+        assertFalse(TileKey.isValid(-1, 1 << 21, 0));
+        assertFalse(TileKey.isValid(-1, 0, -(1 << 21) - 1));
+
+        assertTrue(TileKey.isValid(-8, (1 << 14) - 1, -(1 << 14)));
+        assertFalse(TileKey.isValid(-8, 1 << 14, 0));
+
+        // Two zoom -22 tiles span the whole coordinate range; anything coarser does not fit
+        assertTrue(TileKey.isValid(-22, 0, -1));
+        assertFalse(TileKey.isValid(-22, 1, 0));
+        assertFalse(TileKey.isValid(-23, 0, 0));
+        assertFalse(TileKey.isValid(-33, 0, 0));
+        assertFalse(TileKey.isValid(32, 0, 0));
+        assertFalse(TileKey.isValid(0, Integer.MAX_VALUE, Integer.MIN_VALUE));
+    }
+
+    @Test
+    void worldNamesMapToStableIds() {
+        int id = TileKey.worldId("tile-key-test");
+
+        assertEquals(id, TileKey.worldId("tile-key-test"));
+        assertNotEquals(id, TileKey.worldId("tile-key-test-other"));
+        assertEquals("tile-key-test", TileKey.worldName(id));
+        long key = TileKey.of("tile-key-test", -3, 5, -6, TileFormat.WEBP);
+        assertEquals(id, TileKey.worldId(key));
+        assertEquals(TileFormat.WEBP, TileKey.format(key));
+    }
+}
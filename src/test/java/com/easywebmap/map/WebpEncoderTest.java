@@ -0,0 +1,113 @@
+package com.easywebmap.map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Decodes encoder output with the TwelveMonkeys WebP reader, an independent VP8L
+ * implementation registered with ImageIO on the test classpath.
+ */
+class WebpEncoderTest {
+    @Test
+    void truecolorRoundTrips() throws IOException {
+        int[] pixels = patchyPixels(256, 256, 1 << 24, 1);
+        assertArrayEquals(pixels, decode(WebpEncoder.encode(pixels, 256), 256, 256));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3, 4, 5, 16, 17, 256})
+    void paletteTilesRoundTrip(int colors) throws IOException {
+        // Every bundling width: 8, 4 and 2 pixels per byte, then none past 16 colors
+        int[] pixels = patchyPixels(256, 256, colors, colors);
+        assertArrayEquals(pixels, decode(WebpEncoder.encode(pixels, 256), 256, 256));
+    }
+
+    @Test
+    void widthsThatDoNotFillABundleRoundTrip() throws IOException {
+        int[] pixels = patchyPixels(37, 11, 3, 9);
+        assertArrayEquals(pixels, decode(WebpEncoder.encode(pixels, 37, 11), 37, 11));
+    }
+
+    @Test
+    void repeatedContentUsesBackReferences() throws IOException {
+        int[] pixels = patchyPixels(512, 512, 1 << 24, 2);
+        for (int y = 256; y < 512; y++) {
+            System.arraycopy(pixels, (y - 256) * 512, pixels, y * 512, 512);
+        }
+        byte[] webp = WebpEncoder.encode(pixels, 512);
+
+        assertTrue(webp.length < WebpEncoder.encode(patchyPixels(512, 512, 1 << 24, 2), 512).length);
+        assertArrayEquals(pixels, decode(webp, 512, 512));
+    }
+
+    @Test
+    void matchesBeyondTheDistanceWindowAreNotUsed() throws IOException {
+        // Larger than the 2^20 - 120 pixel window, with the first rows repeated at the end
+        int size = 1100;
+        Random random = new Random(3);
+        int[] pixels = new int[size * size];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt(1 << 24);
+        }
+        System.arraycopy(pixels, 0, pixels, pixels.length - size * 4, size * 4);
+
+        assertArrayEquals(pixels, decode(WebpEncoder.encode(pixels, size), size, size));
+    }
+
+    @Test
+    void emptyTilesAreRecognised() throws IOException {
+        byte[] empty = WebpEncoder.encodeEmpty(256);
+
+        assertTrue(WebpEncoder.isEmptyTile(empty));
+        assertFalse(WebpEncoder.isEmptyTile(WebpEncoder.encode(patchyPixels(256, 256, 2, 4), 256)));
+        assertArrayEquals(new int[256 * 256], decode(empty, 256, 256));
+    }
+
+    /**
+     * Pixels in 4x4 patches plus some single-pixel noise, so every predictor and
+     * LZ77 path gets exercised.
+     */
+    private static int[] patchyPixels(int width, int height, int colors, long seed) {
+        Random random = new Random(seed);
+        int[] palette = new int[Math.min(colors, 4096)];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = random.nextInt(1 << 24);
+        }
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                if (x % 4 == 0 && y % 4 == 0 || random.nextInt(16) == 0) {
+                    pixels[i] = colors > palette.length ? random.nextInt(1 << 24) : palette[random.nextInt(palette.length)];
+                } else {
+                    pixels[i] = pixels[(y - y % 4) * width + (x - x % 4)];
+                }
+            }
+        }
+        return pixels;
+    }
+
+    private static int[] decode(byte[] webp, int width, int height) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(webp));
+        assertNotNull(image, "no WebP reader on the test classpath");
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] &= 0xFFFFFF;
+        }
+        return pixels;
+    }
+}
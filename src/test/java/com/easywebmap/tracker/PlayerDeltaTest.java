@@ -0,0 +1,258 @@
+package com.easywebmap.tracker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Applies deltas the way a client does and checks the result matches the snapshot
+ * they were computed from, for both the JSON and the binary wire format.
+ */
+class PlayerDeltaTest {
+    private static final String WORLD = "default";
+    private static final double PRECISION = 0.1;
+
+    @Test
+    void appliedDeltasReproduceEverySnapshot() {
+        Random random = new Random(1);
+        Simulation simulation = new Simulation(random);
+        Map<Integer, Player> jsonClient = new HashMap<>();
+        Map<Integer, Player> binaryClient = new HashMap<>();
+        List<String> worldNames = List.of(WORLD);
+        Map<String, Integer> worldIds = Map.of(WORLD, 0);
+        int announcedWorlds = 0;
+
+        PlayerSnapshot previous = PlayerSnapshot.EMPTY;
+        for (int tick = 0; tick < 200; tick++) {
+            PlayerSnapshot current = simulation.step();
+            PlayerDelta delta = PlayerDelta.compute(previous, current, PRECISION, name -> true);
+            if (delta != null) {
+                applyJson(jsonClient, delta.toJson());
+                ByteBuf buf = Unpooled.buffer();
+                PlayerBinaryFormat.writeDelta(buf, delta, worldNames, announcedWorlds, worldIds);
+                applyBinary(binaryClient, buf);
+                announcedWorlds = worldNames.size();
+            }
+
+            Map<Integer, Player> expected = quantized(current.getWorld(WORLD), null);
+            assertEquals(expected, jsonClient, "JSON client after tick " + tick);
+            assertEquals(expected, binaryClient, "binary client after tick " + tick);
+            previous = current;
+        }
+    }
+
+    @Test
+    void unchangedSnapshotsProduceNoDelta() {
+        Simulation simulation = new Simulation(new Random(2));
+        for (int tick = 0; tick < 10; tick++) {
+            simulation.step();
+        }
+        PlayerSnapshot snapshot = simulation.shift(0);
+
+        assertNull(PlayerDelta.compute(snapshot, snapshot, PRECISION, name -> true));
+        assertNull(PlayerDelta.compute(snapshot, simulation.shift(PRECISION / 10), PRECISION, name -> true));
+    }
+
+    @Test
+    void viewDeltasTrackPlayersInsideTheBounds() {
+        Random random = new Random(3);
+        Simulation simulation = new Simulation(random);
+        double[] bounds = {-40, -40, 40, 40};
+        IntOpenHashSet known = new IntOpenHashSet();
+        Map<Integer, Player> client = new HashMap<>();
+
+        PlayerSnapshot previous = PlayerSnapshot.EMPTY;
+        for (int tick = 0; tick < 200; tick++) {
+            PlayerSnapshot current = simulation.step();
+            PlayerDelta full = PlayerDelta.compute(previous, current, PRECISION, name -> true);
+            PlayerDelta.WorldDelta world = full != null ? full.getWorld(WORLD) : null;
+            boolean[] moved = world != null ? world.getMovedFlags() : null;
+            PlayerDelta.WorldDelta view = PlayerDelta.WorldDelta.forView(WORLD, current.getWorld(WORLD),
+                moved, known, bounds);
+            if (view != null) {
+                applyJson(client, PlayerDelta.of(current.getTimestamp(), PRECISION, List.of(view), false).toJson());
+            }
+
+            assertEquals(quantized(current.getWorld(WORLD), bounds), client, "view after tick " + tick);
+            previous = current;
+        }
+    }
+
+    private static void applyJson(Map<Integer, Player> client, byte[] message) {
+        JsonObject root = JsonParser.parseString(new String(message, StandardCharsets.UTF_8)).getAsJsonObject();
+        assertEquals("playersDelta", root.get("type").getAsString());
+        if (root.has("reset") && root.get("reset").getAsBoolean()) {
+            client.clear();
+        }
+        JsonObject world = root.getAsJsonObject("worlds").getAsJsonObject(WORLD);
+        if (world == null) {
+            return;
+        }
+        if (world.has("moved")) {
+            for (JsonElement element : world.getAsJsonArray("moved")) {
+                JsonArray moved = element.getAsJsonArray();
+                Player player = client.get(moved.get(0).getAsInt());
+                client.put(moved.get(0).getAsInt(), new Player(player.name, moved.get(1).getAsLong(),
+                    moved.get(2).getAsLong(), moved.get(3).getAsLong(), moved.get(4).getAsLong()));
+            }
+        }
+        if (world.has("joined")) {
+            for (JsonElement element : world.getAsJsonArray("joined")) {
+                JsonObject joined = element.getAsJsonObject();
+                client.put(joined.get("id").getAsInt(), new Player(joined.get("name").getAsString(),
+                    joined.get("x").getAsLong(), joined.get("y").getAsLong(), joined.get("z").getAsLong(),
+                    joined.get("yaw").getAsLong()));
+            }
+        }
+        if (world.has("left")) {
+            for (JsonElement id : world.getAsJsonArray("left")) {
+                client.remove(id.getAsInt());
+            }
+        }
+    }
+
+    private static void applyBinary(Map<Integer, Player> client, ByteBuf in) {
+        assertEquals(1, in.readUnsignedByte());
+        int type = in.readUnsignedByte();
+        in.readDouble();
+        assertEquals(PRECISION, in.readDouble());
+        if (type == 3) {
+            client.clear();
+        }
+        int newWorlds = in.readUnsignedShort();
+        for (int i = 0; i < newWorlds; i++) {
+            assertEquals(0, in.readUnsignedShort());
+            assertEquals(WORLD, readString(in));
+        }
+        int sections = in.readUnsignedShort();
+        for (int s = 0; s < sections; s++) {
+            assertEquals(0, in.readUnsignedShort());
+            int moved = in.readInt();
+            for (int n = 0; n < moved; n++) {
+                int id = in.readInt();
+                client.put(id, new Player(client.get(id).name, in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+            }
+            int joined = in.readInt();
+            for (int n = 0; n < joined; n++) {
+                int id = in.readInt();
+                String name = readString(in);
+                in.skipBytes(16);
+                client.put(id, new Player(name, in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+            }
+            int left = in.readInt();
+            for (int n = 0; n < left; n++) {
+                client.remove(in.readInt());
+            }
+        }
+        assertEquals(0, in.readableBytes());
+        in.release();
+    }
+
+    private static String readString(ByteBuf in) {
+        return in.readCharSequence(in.readUnsignedShort(), StandardCharsets.UTF_8).toString();
+    }
+
+    private static Map<Integer, Player> quantized(PlayerSnapshot.WorldPlayers players, double[] bounds) {
+        Map<Integer, Player> state = new HashMap<>();
+        for (int i = 0; players != null && i < players.size(); i++) {
+            if (bounds != null && (players.getX(i) < bounds[0] || players.getZ(i) < bounds[1]
+                    || players.getX(i) > bounds[2] || players.getZ(i) > bounds[3])) continue;
+            state.put(players.getId(i), new Player(players.getName(i),
+                PlayerDelta.quantize(players.getX(i), PRECISION), PlayerDelta.quantize(players.getY(i), PRECISION),
+                PlayerDelta.quantize(players.getZ(i), PRECISION),
+                PlayerDelta.quantize(players.getYaw(i), PlayerDelta.YAW_PRECISION)));
+        }
+        return state;
+    }
+
+    private record Player(String name, long x, long y, long z, long yaw) {
+    }
+
+    /**
+     * Players wandering around one world, joining and leaving at random. Some moves
+     * are smaller than the precision, so they must not show up in any delta.
+     */
+    private static class Simulation {
+        private final Random random;
+        private final List<double[]> positions = new ArrayList<>();
+        private final List<Integer> ids = new ArrayList<>();
+        private int nextId;
+        private long time;
+
+        Simulation(Random random) {
+            this.random = random;
+        }
+
+        PlayerSnapshot step() {
+            if (this.ids.size() < 30 && this.random.nextInt(3) == 0) {
+                this.ids.add(this.nextId++);
+                this.positions.add(new double[] {this.random.nextDouble() * 100 - 50, 64,
+                    this.random.nextDouble() * 100 - 50, this.random.nextDouble() * 6});
+            }
+            if (!this.ids.isEmpty() && this.random.nextInt(8) == 0) {
+                int leaving = this.random.nextInt(this.ids.size());
+                this.ids.remove(leaving);
+                this.positions.remove(leaving);
+            }
+            for (double[] position : this.positions) {
+                double step = this.random.nextBoolean() ? 0.01 : 1.5;
+                position[0] += (this.random.nextDouble() - 0.5) * step;
+                position[2] += (this.random.nextDouble() - 0.5) * step;
+                if (this.random.nextInt(4) == 0) {
+                    position[3] += this.random.nextDouble() * 0.2;
+                }
+            }
+            return this.snapshot();
+        }
+
+        /**
+         * Move every player along x, first snapping them to a precision step so small
+         * moves stay inside it.
+         */
+        PlayerSnapshot shift(double amount) {
+            for (double[] position : this.positions) {
+                position[0] = Math.round(position[0] / PRECISION) * PRECISION + amount;
+            }
+            return this.snapshot();
+        }
+
+        private PlayerSnapshot snapshot() {
+            int count = this.ids.size();
+            int[] ids = new int[count];
+            String[] names = new String[count];
+            String[] uuids = new String[count];
+            double[] x = new double[count];
+            double[] y = new double[count];
+            double[] z = new double[count];
+            float[] yaw = new float[count];
+            for (int i = 0; i < count; i++) {
+                double[] position = this.positions.get(i);
+                ids[i] = this.ids.get(i);
+                names[i] = "player" + ids[i];
+                uuids[i] = new UUID(0, ids[i]).toString();
+                x[i] = position[0];
+                y[i] = position[1];
+                z[i] = position[2];
+                yaw[i] = (float) position[3];
+            }
+            Map<String, PlayerSnapshot.WorldPlayers> worlds = Map.of(WORLD,
+                PlayerSnapshot.WorldPlayers.of(ids, names, uuids, x, y, z, yaw));
+            return PlayerSnapshot.of(++this.time, worlds);
+        }
+    }
+}